@@ -0,0 +1,178 @@
+package com.hadoop.entry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 检索JobDefine注解的类：加载jar中的所有类再检查注解（原来的处理），与解析class文件（ClassFileScanner）只加载匹配类的对比，
+ * 见build.xml中的bench。
+ *
+ * setup时生成包含classes个类的jar（直接写class文件，不依赖编译器），每annotatedEvery个类中有一个带JobDefine。
+ * 每次调用使用新的ClassLoader，避免类已经加载。
+ *
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassScanBenchmark {
+
+    /** 生成的类所在的包 */
+    private static final String PACKAGE = "bench.gen";
+
+    @Param({ "10000" })
+    public int classes;
+
+    @Param({ "100" })
+    public int annotatedEvery;
+
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        this.file = File.createTempFile("class-scan", ClassFinder.JAR_FILE_EXTENSION);
+        this.file.deleteOnExit();
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(this.file));
+        try {
+            String dir = PACKAGE.replace('.', '/') + "/";
+            for (int i = 0; i < this.classes; i++) {
+                String name = dir + "C" + i;
+                out.putNextEntry(new JarEntry(name + ClassFinder.CLASS_FILE_EXTENSION));
+                out.write(createClass(name, i % this.annotatedEvery == 0));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (this.file != null && !this.file.delete()) {
+            this.file.deleteOnExit();
+        }
+    }
+
+    /**
+     * 原来的处理：加载所有类，再检查注解
+     */
+    @Benchmark
+    public void loadAll(Blackhole bh) throws Exception {
+        URLClassLoader loader = newLoader();
+        JarFile jar = new JarFile(this.file);
+        try {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (!name.endsWith(ClassFinder.CLASS_FILE_EXTENSION)) {
+                    continue;
+                }
+                name = name.replace('/', '.').substring(0, name.length() - ClassFinder.CLASS_FILE_EXTENSION.length());
+                Class<?> clazz = loader.loadClass(name);
+                if (clazz.isAnnotationPresent(JobDefine.class)) {
+                    bh.consume(clazz);
+                }
+            }
+        } finally {
+            jar.close();
+        }
+    }
+
+    /**
+     * 解析class文件，只加载带注解的类
+     */
+    @Benchmark
+    public void scan(Blackhole bh) throws Exception {
+        URLClassLoader loader = newLoader();
+        JarFile jar = new JarFile(this.file);
+        try {
+            List<String> names = ClassFileScanner.scanJar(jar, PACKAGE, JobDefine.class.getName(), null, null);
+            for (String name : names) {
+                bh.consume(loader.loadClass(name));
+            }
+        } finally {
+            jar.close();
+        }
+    }
+
+    private URLClassLoader newLoader() throws IOException {
+        return new URLClassLoader(new URL[] { this.file.toURI().toURL() }, getClass().getClassLoader());
+    }
+
+    /**
+     * 最小的class文件（version 50，不需要StackMapTable）：继承Object，没有成员，可以带@JobDefine(project="bench")
+     */
+    private static byte[] createClass(String name, boolean annotated) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(0xCAFEBABE);
+        data.writeShort(0); // minor
+        data.writeShort(50); // major
+        data.writeShort(9); // 常量池大小
+        data.writeByte(1);
+        data.writeUTF(name); // #1
+        data.writeByte(7);
+        data.writeShort(1); // #2 this
+        data.writeByte(1);
+        data.writeUTF("java/lang/Object"); // #3
+        data.writeByte(7);
+        data.writeShort(3); // #4 super
+        data.writeByte(1);
+        data.writeUTF("RuntimeVisibleAnnotations"); // #5
+        data.writeByte(1);
+        data.writeUTF("L" + JobDefine.class.getName().replace('.', '/') + ";"); // #6
+        data.writeByte(1);
+        data.writeUTF("project"); // #7
+        data.writeByte(1);
+        data.writeUTF("bench"); // #8
+        data.writeShort(0x0021); // public super
+        data.writeShort(2);
+        data.writeShort(4);
+        data.writeShort(0); // interfaces
+        data.writeShort(0); // fields
+        data.writeShort(0); // methods
+        if (!annotated) {
+            data.writeShort(0);
+        } else {
+            data.writeShort(1);
+            data.writeShort(5);
+            data.writeInt(11);
+            data.writeShort(1); // 注解个数
+            data.writeShort(6);
+            data.writeShort(1); // 属性个数
+            data.writeShort(7);
+            data.writeByte('s');
+            data.writeShort(8);
+        }
+        data.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,104 @@
+package com.hadoop.mapreduce;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * SplitKeyTable与原来HashMap&lt;Integer, ?&gt;分发的对比，见build.xml中的bench。
+ *
+ * lookup：每条数据按照splitKey查找子类；fanOut：没有SPLITKEY时挨个调用所有子类。
+ * dense为splitKey连续（1..children），否则为稀疏的splitKey（间隔1000）。
+ *
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplitKeyTableBenchmark {
+
+    /** 每次调用处理的数据条数 */
+    private static final int RECORDS = 1024;
+
+    @Param({ "4", "16", "64" })
+    public int children;
+
+    @Param({ "true", "false" })
+    public boolean dense;
+
+    private Map<Integer, Object> map;
+
+    private SplitKeyTable<Object> table;
+
+    /** 每条数据的splitKey */
+    private int[] keys;
+
+    @Setup
+    public void setup() {
+        this.map = new HashMap<Integer, Object>();
+        SplitKeyTable.Builder<Object> builder = new SplitKeyTable.Builder<Object>();
+        int[] splitKeys = new int[this.children];
+        for (int i = 0; i < this.children; i++) {
+            splitKeys[i] = this.dense ? i + 1 : (i + 1) * 1000;
+            Object child = new Object();
+            this.map.put(splitKeys[i], child);
+            builder.add(splitKeys[i], child);
+        }
+        this.table = builder.build();
+
+        Random random = new Random(17);
+        this.keys = new int[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            this.keys[i] = splitKeys[random.nextInt(this.children)];
+        }
+    }
+
+    @Benchmark
+    public void lookupHashMap(Blackhole bh) {
+        for (int key : this.keys) {
+            bh.consume(this.map.get(key));
+        }
+    }
+
+    @Benchmark
+    public void lookupTable(Blackhole bh) {
+        for (int key : this.keys) {
+            bh.consume(this.table.get(key));
+        }
+    }
+
+    @Benchmark
+    public void fanOutHashMap(Blackhole bh) {
+        for (int i = 0; i < RECORDS; i++) {
+            for (Object child : this.map.values()) {
+                bh.consume(child);
+            }
+        }
+    }
+
+    @Benchmark
+    public void fanOutTable(Blackhole bh) {
+        for (int i = 0; i < RECORDS; i++) {
+            for (int j = 0; j < this.table.size(); j++) {
+                bh.consume(this.table.valueAt(j));
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.hadoop.entry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 编译期生成的注解索引，ClassFinder存在索引时不再扫描jar或者目录下的所有类，见AnnotationIndexWriter。
+ *
+ * 索引位于每个jar（或者classes目录）的LOCATION，每行一个类：
+ * 注解类名 \t 类名 [\t 属性名=属性值 ...]
+ * 属性只包括字符串和基本类型（含缺省值），属性值URL编码。
+ *
+ * 索引覆盖的包及其中的类数以"#package \t 包名 \t 类数"记录，包中的类数与索引不一致（或者索引中没有该包）时，
+ * ClassFinder仍然扫描该包，因此打包了其他jar的fat jar中的类不会遗漏。
+ * fat jar可以把各个jar的索引放在DIRECTORY下的其他*.index文件中，ClassFinder合并所有索引。
+ *
+ * 只索引INDEXED中的注解，其他注解仍然扫描。
+ *
+ *
+ *
+ */
+public final class AnnotationIndex {
+
+    /** 索引文件所在目录 */
+    public static final String DIRECTORY = "META-INF/ext_comb/";
+
+    /** 索引文件在jar中的位置 */
+    public static final String LOCATION = DIRECTORY + "annotations.index";
+
+    /** 索引文件的扩展名 */
+    public static final String EXTENSION = ".index";
+
+    /** 覆盖的包的行前缀 */
+    public static final String PACKAGE_PREFIX = "#package\t";
+
+    /** 建立索引的注解 */
+    public static final Set<String> INDEXED = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "com.hadoop.entry.JobDefine", "com.hadoop.entry.comb.CombContainer")));
+
+    private static final String ENCODING = "UTF-8";
+
+    private final List<Entry> entries;
+
+    /** 包名 -&gt; 类数 */
+    private final Map<String, Integer> packages;
+
+    private AnnotationIndex(List<Entry> entries, Map<String, Integer> packages) {
+        this.entries = entries;
+        this.packages = packages;
+    }
+
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * 覆盖的包
+     * @return 包名 -&gt; 类数
+     */
+    public Map<String, Integer> getPackages() {
+        return this.packages;
+    }
+
+    /**
+     * 索引是否覆盖了包中的所有类
+     * @param packName 包名
+     * @param classes 包中实际的类数
+     * @return
+     */
+    public boolean covers(String packName, int classes) {
+        Integer count = this.packages.get(packName);
+        return count != null && count.intValue() == classes;
+    }
+
+    /**
+     * 是否为索引文件
+     * @param name jar中的路径
+     * @return
+     */
+    public static boolean isLocation(String name) {
+        return name.startsWith(DIRECTORY) && name.endsWith(EXTENSION);
+    }
+
+    /**
+     * 合并多个索引，同一个包的类数相加
+     * @param indexes
+     * @return
+     */
+    public static AnnotationIndex merge(List<AnnotationIndex> indexes) {
+        if (indexes.size() == 1) {
+            return indexes.get(0);
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        Map<String, Integer> packages = new HashMap<String, Integer>();
+        for (AnnotationIndex index : indexes) {
+            entries.addAll(index.entries);
+            for (Map.Entry<String, Integer> entry : index.packages.entrySet()) {
+                Integer count = packages.get(entry.getKey());
+                packages.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+            }
+        }
+        return new AnnotationIndex(entries, packages);
+    }
+
+    /**
+     * 注解是否建立了索引
+     * @param annotation
+     * @return
+     */
+    public static boolean isIndexed(String annotation) {
+        return INDEXED.contains(annotation);
+    }
+
+    /**
+     * 读取索引，空行和#开头的行（PACKAGE_PREFIX除外）忽略
+     * @param in 读取后关闭
+     * @return
+     * @throws IOException
+     */
+    public static AnnotationIndex read(InputStream in) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        Map<String, Integer> packages = new HashMap<String, Integer>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, ENCODING));
+        try {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(PACKAGE_PREFIX)) {
+                    String[] items = line.split("\t");
+                    if (items.length == 3) {
+                        try {
+                            packages.put(items[1], Integer.valueOf(items[2]));
+                        } catch (NumberFormatException e) {
+                            // ignored
+                        }
+                    }
+                    continue;
+                }
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                Entry entry = Entry.parse(line);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new AnnotationIndex(entries, packages);
+    }
+
+    /**
+     * 索引中的一个类
+     */
+    public static class Entry {
+
+        private final String annotation;
+
+        private final String className;
+
+        private final Map<String, String> attributes;
+
+        public Entry(String annotation, String className, Map<String, String> attributes) {
+            this.annotation = annotation;
+            this.className = className;
+            this.attributes = attributes;
+        }
+
+        public String getAnnotation() {
+            return this.annotation;
+        }
+
+        /**
+         * 类名（内部类为Outer$Inner）
+         * @return
+         */
+        public String getClassName() {
+            return this.className;
+        }
+
+        /**
+         * 属性值
+         * @param name
+         * @return 没有该属性时返回null
+         */
+        public String getAttribute(String name) {
+            return this.attributes.get(name);
+        }
+
+        /**
+         * 格式化为索引中的一行
+         * @return
+         */
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(this.annotation).append('\t').append(this.className);
+            for (Map.Entry<String, String> attribute : this.attributes.entrySet()) {
+                sb.append('\t').append(attribute.getKey()).append('=').append(encode(attribute.getValue()));
+            }
+            return sb.toString();
+        }
+
+        /**
+         * 解析索引中的一行
+         * @param line
+         * @return 格式错误时返回null
+         */
+        public static Entry parse(String line) {
+            String[] items = line.split("\t");
+            if (items.length < 2) {
+                return null;
+            }
+            Map<String, String> attributes = new LinkedHashMap<String, String>();
+            for (int i = 2; i < items.length; i++) {
+                int index = items[i].indexOf('=');
+                if (index > 0) {
+                    attributes.put(items[i].substring(0, index), decode(items[i].substring(index + 1)));
+                }
+            }
+            return new Entry(items[0], items[1], attributes);
+        }
+
+        @Override
+        public String toString() {
+            return format();
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
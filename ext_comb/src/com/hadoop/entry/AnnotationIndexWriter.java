@@ -0,0 +1,148 @@
+package com.hadoop.entry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 编译后生成注解索引（AnnotationIndex.LOCATION）的构建步骤，见build.xml中的jar-compileSrc。
+ *
+ * 业务工程可以在打包前执行同样的步骤：
+ * java -cp classes:hadoop-ext.jar:lib/* com.hadoop.entry.AnnotationIndexWriter classes
+ *
+ * 只加载类不初始化（不执行static块）；缺少依赖而无法加载的类不写入索引，运行时同样无法加载。
+ * 同时记录每个包中的类数，运行时只信任类数一致的包，见AnnotationIndex。
+ *
+ * 未使用注解处理器：hadoop类上的注解（InterfaceAudience等）不在编译classpath中时，javac的注解处理会失败。
+ *
+ *
+ *
+ */
+public class AnnotationIndexWriter {
+
+    private static final String CLASS_FILE_EXTENSION = ".class";
+
+    /**
+     * 扫描目录下的类，生成索引
+     * @param dir classes目录
+     * @param loader 能够加载该目录下的类及其依赖
+     * @return 索引中的类
+     * @throws IOException
+     */
+    public static List<AnnotationIndex.Entry> write(File dir, ClassLoader loader) throws IOException {
+        if (!dir.isDirectory()) {
+            throw new IllegalArgumentException(String.format("%s is not a directory.", dir));
+        }
+        List<Class<? extends Annotation>> annotations = new ArrayList<Class<? extends Annotation>>();
+        for (String name : AnnotationIndex.INDEXED) {
+            try {
+                annotations.add(Class.forName(name, false, loader).asSubclass(Annotation.class));
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException(String.format("can't load annotation %s.", name), e);
+            }
+        }
+
+        Map<String, AnnotationIndex.Entry> entries = new TreeMap<String, AnnotationIndex.Entry>();
+        Map<String, Integer> packages = new TreeMap<String, Integer>();
+        collect(dir, "", loader, annotations, entries, packages);
+
+        File file = new File(dir, AnnotationIndex.LOCATION);
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException(String.format("can't create %s.", file.getParentFile()));
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (Map.Entry<String, Integer> pack : packages.entrySet()) {
+                writer.write(AnnotationIndex.PACKAGE_PREFIX + pack.getKey() + "\t" + pack.getValue());
+                writer.write('\n');
+            }
+            for (AnnotationIndex.Entry entry : entries.values()) {
+                writer.write(entry.format());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        return new ArrayList<AnnotationIndex.Entry>(entries.values());
+    }
+
+    private static void collect(File dir, String packName, ClassLoader loader,
+            List<Class<? extends Annotation>> annotations, Map<String, AnnotationIndex.Entry> entries,
+            Map<String, Integer> packages) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                collect(file, packName + name + ".", loader, annotations, entries, packages);
+                continue;
+            }
+            if (!name.endsWith(CLASS_FILE_EXTENSION)) {
+                continue;
+            }
+            String className = packName + name.substring(0, name.length() - CLASS_FILE_EXTENSION.length());
+            // 包名不含末尾的点，默认包为空
+            String pack = packName.isEmpty() ? "" : packName.substring(0, packName.length() - 1);
+            Integer count = packages.get(pack);
+            packages.put(pack, count == null ? 1 : count + 1);
+            Class<?> clazz = null;
+            try {
+                clazz = Class.forName(className, false, loader);
+            } catch (ClassNotFoundException e) {
+                continue;
+            } catch (LinkageError e) {
+                continue; // 缺少依赖
+            }
+            for (Class<? extends Annotation> annotation : annotations) {
+                Annotation value = clazz.getAnnotation(annotation);
+                if (value != null) {
+                    entries.put(annotation.getName() + "\t" + className, new AnnotationIndex.Entry(
+                            annotation.getName(), className, getAttributes(value)));
+                }
+            }
+        }
+    }
+
+    /**
+     * 字符串和基本类型的属性（含缺省值）
+     */
+    private static Map<String, String> getAttributes(Annotation annotation) {
+        Map<String, String> attributes = new TreeMap<String, String>();
+        for (Method method : annotation.annotationType().getDeclaredMethods()) {
+            Class<?> type = method.getReturnType();
+            if (method.getParameterTypes().length > 0 || (type != String.class && !type.isPrimitive())) {
+                continue;
+            }
+            try {
+                attributes.put(method.getName(), String.valueOf(method.invoke(annotation)));
+            } catch (Exception e) {
+                // ignored
+            }
+        }
+        return new LinkedHashMap<String, String>(attributes);
+    }
+
+    /**
+     * @param args classes目录
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("usage: AnnotationIndexWriter <classes dir>");
+            System.exit(1);
+        }
+        List<AnnotationIndex.Entry> entries = write(new File(args[0]), ClassFinder.getDefaultClassLoader());
+        System.out.println(String.format("%d classes indexed in %s.", entries.size(), AnnotationIndex.LOCATION));
+    }
+}
@@ -0,0 +1,395 @@
+package com.hadoop.entry;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.hadoop.util.concurrent.DaemonThreadFactory;
+
+/**
+ * 直接解析class文件（常量池和类上的RuntimeVisibleAnnotations）判断类上的注解，不加载类。<br>
+ *
+ * ClassFinder在注解索引没有覆盖的包中使用，只加载存在指定注解的类，避免执行所有类的static块、占用metaspace。<br>
+ *
+ * 只读取类上显式声明的属性值（字符串和基本类型），缺省值不在class文件中。<br>
+ * class文件无法解析时（格式错误或者不支持的版本）视为匹配，由调用方加载后再检查。
+ *
+ *
+ *
+ */
+public final class ClassFileScanner {
+
+    /** jar中的类超过该数量时并行解析 */
+    public static final int PARALLEL_THRESHOLD = 512;
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    private ClassFileScanner() {
+    }
+
+    /**
+     * 读取类上运行期可见的注解
+     * @param in 不关闭
+     * @return 注解类名 -&gt; 显式声明的属性
+     * @throws IOException class文件格式错误
+     */
+    public static Map<String, Map<String, String>> readAnnotations(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not a class file.");
+        }
+        data.readUnsignedShort(); // minor
+        data.readUnsignedShort(); // major
+        Object[] pool = readConstantPool(data);
+
+        data.readUnsignedShort(); // access flags
+        data.readUnsignedShort(); // this class
+        data.readUnsignedShort(); // super class
+        skip(data, 2 * data.readUnsignedShort()); // interfaces
+        skipMembers(data); // fields
+        skipMembers(data); // methods
+
+        Map<String, Map<String, String>> annotations = new HashMap<String, Map<String, String>>();
+        int count = data.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            String name = (String) pool[data.readUnsignedShort()];
+            int length = data.readInt();
+            if (!RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+                skip(data, length);
+                continue;
+            }
+            int num = data.readUnsignedShort();
+            for (int j = 0; j < num; j++) {
+                Map<String, String> attributes = new HashMap<String, String>();
+                String type = readAnnotation(data, pool, attributes);
+                annotations.put(toClassName(type), attributes);
+            }
+        }
+        return annotations;
+    }
+
+    /**
+     * 常量池，只保存Utf8和数值常量，其他为null
+     */
+    private static Object[] readConstantPool(DataInputStream data) throws IOException {
+        int count = data.readUnsignedShort();
+        Object[] pool = new Object[count];
+        for (int i = 1; i < count; i++) {
+            int tag = data.readUnsignedByte();
+            switch (tag) {
+            case 1: // Utf8
+                pool[i] = data.readUTF();
+                break;
+            case 3: // Integer
+                pool[i] = data.readInt();
+                break;
+            case 4: // Float
+                pool[i] = data.readFloat();
+                break;
+            case 5: // Long
+                pool[i] = data.readLong();
+                i++; // 占两个位置
+                break;
+            case 6: // Double
+                pool[i] = data.readDouble();
+                i++;
+                break;
+            case 7: // Class
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                skip(data, 2);
+                break;
+            case 15: // MethodHandle
+                skip(data, 3);
+                break;
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                skip(data, 4);
+                break;
+            default:
+                throw new IOException(String.format("unknown constant pool tag %d.", tag));
+            }
+        }
+        return pool;
+    }
+
+    private static void skipMembers(DataInputStream data) throws IOException {
+        int count = data.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            skip(data, 6); // access flags, name, descriptor
+            int attributes = data.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                skip(data, 2);
+                skip(data, data.readInt());
+            }
+        }
+    }
+
+    /**
+     * 读取一个注解
+     * @param attributes 保存字符串和基本类型的属性，为null时跳过
+     * @return 注解类型描述符，形如Lcom/hadoop/entry/JobDefine;
+     */
+    private static String readAnnotation(DataInputStream data, Object[] pool, Map<String, String> attributes)
+            throws IOException {
+        String type = (String) pool[data.readUnsignedShort()];
+        int pairs = data.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            String name = (String) pool[data.readUnsignedShort()];
+            Object value = readElementValue(data, pool);
+            if (attributes != null && value != null) {
+                attributes.put(name, String.valueOf(value));
+            }
+        }
+        return type;
+    }
+
+    /**
+     * 读取属性值
+     * @return 字符串和基本类型的值，其他类型为null
+     */
+    private static Object readElementValue(DataInputStream data, Object[] pool) throws IOException {
+        int tag = data.readUnsignedByte();
+        switch (tag) {
+        case 's':
+        case 'I':
+        case 'J':
+        case 'F':
+        case 'D':
+        case 'B':
+        case 'S':
+            return pool[data.readUnsignedShort()];
+        case 'C':
+            return (char) ((Integer) pool[data.readUnsignedShort()]).intValue();
+        case 'Z':
+            return ((Integer) pool[data.readUnsignedShort()]).intValue() != 0;
+        case 'e': // enum
+            skip(data, 4);
+            return null;
+        case 'c': // class
+            skip(data, 2);
+            return null;
+        case '@':
+            readAnnotation(data, pool, null);
+            return null;
+        case '[':
+            int num = data.readUnsignedShort();
+            for (int i = 0; i < num; i++) {
+                readElementValue(data, pool);
+            }
+            return null;
+        default:
+            throw new IOException(String.format("unknown element value tag %c.", (char) tag));
+        }
+    }
+
+    private static void skip(DataInputStream data, int length) throws IOException {
+        int remain = length;
+        while (remain > 0) {
+            int skipped = data.skipBytes(remain);
+            if (skipped <= 0) {
+                throw new IOException("unexpected end of class file.");
+            }
+            remain -= skipped;
+        }
+    }
+
+    /**
+     * Lcom/hadoop/entry/JobDefine; -&gt; com.hadoop.entry.JobDefine
+     */
+    private static String toClassName(String descriptor) {
+        if (descriptor.startsWith("L") && descriptor.endsWith(";")) {
+            return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+        }
+        return descriptor;
+    }
+
+    /**
+     * class文件是否包含指定注解
+     * @param in 不关闭
+     * @param annotation 注解类名
+     * @param attribute 属性名，为null时不检查属性
+     * @param values 属性的取值范围，类上未显式声明该属性时视为匹配
+     * @return 无法解析时返回true
+     */
+    public static boolean isAnnotated(InputStream in, String annotation, String attribute, Set<String> values) {
+        Map<String, Map<String, String>> annotations = null;
+        try {
+            annotations = readAnnotations(in);
+        } catch (IOException e) {
+            return true;
+        } catch (RuntimeException e) {
+            return true; // 常量池引用错误等
+        }
+        Map<String, String> attributes = annotations.get(annotation);
+        if (attributes == null) {
+            return false;
+        }
+        if (attribute == null || !attributes.containsKey(attribute)) {
+            return true;
+        }
+        return values.contains(attributes.get(attribute));
+    }
+
+    /**
+     * 在jar中检索存在指定注解的类，类数量超过PARALLEL_THRESHOLD时并行解析
+     * @param jar
+     * @param packName 包名前缀
+     * @param annotation 注解类名
+     * @param attribute 属性名，可以为null
+     * @param values 属性的取值范围
+     * @return 类名，保持jar中的顺序
+     * @throws IOException
+     */
+    public static List<String> scanJar(JarFile jar, String packName, String annotation, String attribute,
+            Set<String> values) throws IOException {
+        return scanJar(jar, packName, annotation, attribute, values, null);
+    }
+
+    /**
+     * 在jar中检索存在指定注解的类，跳过注解索引覆盖的包（包中的类数与索引一致）
+     * @param jar
+     * @param packName 包名前缀
+     * @param annotation 注解类名
+     * @param attribute 属性名，可以为null
+     * @param values 属性的取值范围
+     * @param covered jar中的注解索引，可以为null
+     * @return 类名，保持jar中的顺序
+     * @throws IOException
+     */
+    public static List<String> scanJar(JarFile jar, String packName, String annotation, String attribute,
+            Set<String> values, AnnotationIndex covered) throws IOException {
+        List<String> names = new ArrayList<String>();
+        Map<String, Integer> packages = new HashMap<String, Integer>();
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            if (name == null || !name.endsWith(ClassFinder.CLASS_FILE_EXTENSION)) {
+                continue;
+            }
+            if (covered != null) {
+                // 包中的类数包括packName之外的类，与索引一致
+                String pack = getPackage(name);
+                Integer count = packages.get(pack);
+                packages.put(pack, count == null ? 1 : count + 1);
+            }
+            if (packName != null && !toEntryClassName(name).startsWith(packName)) {
+                continue;
+            }
+            names.add(name);
+        }
+        if (covered != null) {
+            List<String> uncovered = new ArrayList<String>();
+            for (String name : names) {
+                String pack = getPackage(name);
+                if (!covered.covers(pack, packages.get(pack))) {
+                    uncovered.add(name);
+                }
+            }
+            names = uncovered;
+        }
+        if (names.size() < PARALLEL_THRESHOLD) {
+            return scanEntries(jar, names, annotation, attribute, values);
+        }
+
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                names.size() / PARALLEL_THRESHOLD));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("class-scan"));
+        try {
+            List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+            int size = (names.size() + threads - 1) / threads;
+            for (int i = 0; i < names.size(); i += size) {
+                final List<String> part = names.subList(i, Math.min(names.size(), i + size));
+                final String path = jar.getName();
+                final String anno = annotation;
+                final String attr = attribute;
+                final Set<String> vals = values;
+                futures.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        // 每个线程使用独立的JarFile，避免读取时争用同一个ZipFile的锁
+                        JarFile own = new JarFile(path);
+                        try {
+                            return scanEntries(own, part, anno, attr, vals);
+                        } finally {
+                            own.close();
+                        }
+                    }
+                }));
+            }
+            List<String> result = new ArrayList<String>();
+            for (Future<List<String>> future : futures) {
+                result.addAll(future.get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> scanEntries(JarFile jar, List<String> names, String annotation, String attribute,
+            Set<String> values) throws IOException {
+        if (names.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<String>();
+        for (String name : names) {
+            JarEntry entry = jar.getJarEntry(name);
+            if (entry == null) {
+                continue;
+            }
+            InputStream in = jar.getInputStream(entry);
+            try {
+                if (isAnnotated(in, annotation, attribute, values)) {
+                    result.add(toEntryClassName(name));
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * com/hadoop/entry/Main.class -&gt; com.hadoop.entry
+     */
+    private static String getPackage(String name) {
+        int index = name.lastIndexOf('/');
+        return index < 0 ? "" : name.substring(0, index).replace('/', '.');
+    }
+
+    /**
+     * com/hadoop/entry/Main.class -&gt; com.hadoop.entry.Main
+     */
+    private static String toEntryClassName(String name) {
+        return name.replace('/', '.').substring(0, name.length() - ClassFinder.CLASS_FILE_EXTENSION.length());
+    }
+}
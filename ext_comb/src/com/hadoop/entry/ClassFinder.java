@@ -2,7 +2,9 @@ package com.hadoop.entry;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.net.JarURLConnection;
 import java.net.MalformedURLException;
@@ -254,6 +256,24 @@ public class ClassFinder {
      * @return
      */
     public static Set<Class<?>> findClass(ClassLoader loader, String packName, boolean findParent) {
+        return findClass(loader, packName, findParent, null, null, null);
+    }
+
+    /**
+     * 根据包名检索存在指定annotation的类。<br>
+     * jar或者classes目录中存在注解索引（AnnotationIndex.LOCATION）时加载索引中的类，<br>
+     * 索引没有覆盖的包解析class文件（ClassFileScanner），只加载存在该annotation的类。<br>
+     * 索引可能过期，调用方仍然需要检查类上的annotation。
+     * @param loader
+     * @param packName 包名
+     * @param findParent 查找parent
+     * @param annotation 注解类名，为null时加载所有类
+     * @param attribute 按照注解的属性过滤，可以为null
+     * @param values 属性的取值范围
+     * @return
+     */
+    public static Set<Class<?>> findClass(ClassLoader loader, String packName, boolean findParent,
+            String annotation, String attribute, Set<String> values) {
         Set<Class<?>> classes = new LinkedHashSet<Class<?>>();
         boolean flag = true;// 是否递归
 
@@ -271,18 +291,21 @@ public class ClassFinder {
                     String filePath = URLDecoder.decode(url.getFile(), "UTF-8");
                     log("find jarFile: " + filePath);
                     JarFile jar = new JarFile(filePath);
-                    readClassInJar(jar, classes, loader, packName);
+                    readClassInJar(jar, classes, loader, packName, annotation, attribute, values);
                 } else if(isFileURL(url)) {
                     // current classes
                     String filePath = URLDecoder.decode(url.getFile(), "UTF-8");
                     log("find classFile: " + filePath);
                     // System.out.println("filePath :" + filePath);
-                    findAndAddClassesInPackageByFile(loader, packName, filePath, flag, classes);
+                    AnnotationIndex index = readClassInDirIndex(filePath, packDir, classes, loader, packName,
+                            annotation, attribute, values);
+                    findAndAddClassesInPackageByFile(loader, packName, filePath, flag, classes, annotation,
+                            attribute, values, index);
                 } else if(isJarURL(url)) {
                     // current jar
                     JarFile jar = ((JarURLConnection) url.openConnection()).getJarFile();
                     log("find jarURL: " + jar.getName());
-                    readClassInJar(jar, classes, loader, packName);
+                    readClassInJar(jar, classes, loader, packName, annotation, attribute, values);
                 } 
             }
 
@@ -291,6 +314,78 @@ public class ClassFinder {
         }
         return classes;
     }
+
+    /**
+     * 通过jar中的注解索引加载类，jar中的多个索引（AnnotationIndex.DIRECTORY下的*.index）合并
+     * @return 覆盖的包由调用方跳过；jar中没有索引时返回null，由调用方扫描
+     */
+    private static AnnotationIndex readClassInJarIndex(JarFile jar, Set<Class<?>> classes, ClassLoader loader,
+            String packName, String annotation, String attribute, Set<String> values) throws IOException {
+        if (annotation == null || !AnnotationIndex.isIndexed(annotation)) {
+            return null;
+        }
+        List<AnnotationIndex> indexes = new ArrayList<AnnotationIndex>();
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            if (!entry.isDirectory() && AnnotationIndex.isLocation(entry.getName())) {
+                indexes.add(AnnotationIndex.read(jar.getInputStream(entry)));
+            }
+        }
+        if (indexes.isEmpty()) {
+            return null;
+        }
+        AnnotationIndex index = AnnotationIndex.merge(indexes);
+        loadIndexedClass(index, classes, loader, packName, annotation, attribute, values);
+        return index;
+    }
+
+    /**
+     * 通过classes目录中的注解索引加载类
+     * @param filePath 包对应的目录
+     * @param packDir 包对应的相对路径
+     * @return 覆盖的包由调用方跳过；目录中没有索引时返回null，由调用方扫描
+     */
+    private static AnnotationIndex readClassInDirIndex(String filePath, String packDir, Set<Class<?>> classes,
+            ClassLoader loader, String packName, String annotation, String attribute, Set<String> values)
+            throws IOException {
+        if (annotation == null || !AnnotationIndex.isIndexed(annotation)) {
+            return null;
+        }
+        String path = filePath.endsWith("/") ? filePath.substring(0, filePath.length() - 1) : filePath;
+        if (!path.endsWith(packDir)) {
+            return null;
+        }
+        File file = new File(path.substring(0, path.length() - packDir.length()), AnnotationIndex.LOCATION);
+        if (!file.isFile()) {
+            return null;
+        }
+        AnnotationIndex index = AnnotationIndex.read(new FileInputStream(file));
+        loadIndexedClass(index, classes, loader, packName, annotation, attribute, values);
+        return index;
+    }
+
+    private static void loadIndexedClass(AnnotationIndex index, Set<Class<?>> classes, ClassLoader loader,
+            String packName, String annotation, String attribute, Set<String> values) {
+        for (AnnotationIndex.Entry entry : index.getEntries()) {
+            if (!entry.getAnnotation().equals(annotation)) {
+                continue;
+            }
+            if (packName != null && !entry.getClassName().startsWith(packName)) {
+                continue;
+            }
+            if (attribute != null && !values.contains(entry.getAttribute(attribute))) {
+                continue;
+            }
+            try {
+                classes.add(loader.loadClass(entry.getClassName()));
+            } catch (NoClassDefFoundError e) {
+                // ignored
+            } catch (ClassNotFoundException e) {
+                // ignored
+            }
+        }
+    }
     
     /**
      * find class in jar file.
@@ -332,6 +427,48 @@ public class ClassFinder {
             // ignored
         }
     }
+
+    /**
+     * find class with annotation in jar file, without loading other classes.
+     * 先加载注解索引中的类，再扫描索引没有覆盖的包。
+     * @param jar 读取后关闭
+     * @param annotation 为null时加载所有类
+     */
+    private static void readClassInJar(JarFile jar, Set<Class<?>> classes, ClassLoader loader, String packName,
+            String annotation, String attribute, Set<String> values) {
+        if (jar == null) {
+            return;
+        }
+        if (annotation == null) {
+            readClassInJar(jar, classes, loader, packName);
+            return;
+        }
+        List<String> names = null;
+        try {
+            AnnotationIndex index = readClassInJarIndex(jar, classes, loader, packName, annotation, attribute,
+                    values);
+            names = ClassFileScanner.scanJar(jar, "".equals(packName) ? null : packName, annotation, attribute,
+                    values, index);
+        } catch (IOException e) {
+            // 无法解析时加载所有类
+            readClassInJar(jar, classes, loader, packName);
+            return;
+        }
+        for (String name : names) {
+            try {
+                classes.add(loader.loadClass(name));
+            } catch (NoClassDefFoundError e) {
+                // ignored
+            } catch (ClassNotFoundException e) {
+                // ignored
+            }
+        }
+        try {
+            jar.close();
+        } catch (Exception e) {
+            // ignored
+        }
+    }
     
     
     /**
@@ -342,7 +479,8 @@ public class ClassFinder {
      */
     public static Set<Class<?>> findClass(String packName, Class<? extends Annotation> annotationClass) {
 
-        Set<Class<?>> classes = findClass(packName);
+        Set<Class<?>> classes = findClass(getDefaultClassLoader(), packName, false, annotationClass.getName(), null,
+                null);
         Iterator<Class<?>> ite = classes.iterator();
         Class<?> clazz = null;
         while (ite.hasNext()) {
@@ -364,6 +502,17 @@ public class ClassFinder {
      */
     private static void findAndAddClassesInPackageByFile(ClassLoader loader, String packName, String filePath, final boolean flag,
             Set<Class<?>> classes) {
+        findAndAddClassesInPackageByFile(loader, packName, filePath, flag, classes, null, null, null, null);
+    }
+
+    /**
+     * 在目录中递归搜索存在指定annotation的class，解析class文件判断，不加载其他类。
+     * @param annotation 为null时加载所有类
+     * @param covered 注解索引，跳过其覆盖的包（类数一致），可以为null
+     */
+    private static void findAndAddClassesInPackageByFile(ClassLoader loader, String packName, String filePath,
+            final boolean flag, Set<Class<?>> classes, String annotation, String attribute, Set<String> values,
+            AnnotationIndex covered) {
         File dir = new File(filePath);
         // 目录不存在
         if (!dir.exists() || !dir.isDirectory()) {
@@ -379,13 +528,29 @@ public class ClassFinder {
         if(dirfiles == null) {
             return;
         }
+        boolean skip = false;
+        if (annotation != null && covered != null) {
+            int count = 0;
+            for (File file : dirfiles) {
+                if (!file.isDirectory()) {
+                    count++;
+                }
+            }
+            skip = covered.covers(packName, count);
+        }
         for (File file : dirfiles) {
             // 如果是目录，递归
             if (file.isDirectory()) {
                 findAndAddClassesInPackageByFile(loader, packName + "." + file.getName(), file.getAbsolutePath(), flag,
-                        classes);
+                        classes, annotation, attribute, values, covered);
+            } else if (skip) {
+                // 已经通过索引加载
+                continue;
             } else {
                 // 如果是文件
+                if (annotation != null && !isAnnotated(file, annotation, attribute, values)) {
+                    continue;
+                }
                 String className = file.getName().substring(0, file.getName().length() - 6);
                 try {
                     classes.add(loader.loadClass(packName + "." + className));
@@ -396,6 +561,24 @@ public class ClassFinder {
         }
     }
     
+    private static boolean isAnnotated(File file, String annotation, String attribute, Set<String> values) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            return ClassFileScanner.isAnnotated(in, annotation, attribute, values);
+        } catch (IOException e) {
+            return true;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+            }
+        }
+    }
+    
     /**
      * 在指定包内查找符合指定JobConf定义且工程名称匹配的类。
      * @param packName packName,可以以逗号分隔多个包名
@@ -405,15 +588,16 @@ public class ClassFinder {
     public static List<JobDefine> findClassByJobConf(ClassLoader loader, String packName, String project, int index) {
 
         List<JobDefine> list = new LinkedList<JobDefine>();
+        String[] projects = project.split(",");
+        Set<String> values = new HashSet<String>(Arrays.asList(projects));
         String[] packes = packName.split(",");
         Set<Class<?>> classes = new HashSet<Class<?>>();
         for(String name : packes) {
-            classes.addAll(findClass(loader, name));
+            classes.addAll(findClass(loader, name, false, JobDefine.class.getName(), "project", values));
         }
         
         log("find classes: " + classes.size());
         
-        String[] projects = project.split(",");
         log("find projects: " + Arrays.toString(projects) );
         
         // 按照配置中的项目顺序
@@ -498,15 +682,16 @@ public class ClassFinder {
 
         List<Project> list = new LinkedList<Project>();
         
+        String[] projects = project.split(",");
+        Set<String> values = new HashSet<String>(Arrays.asList(projects));
         String[] packes = packName.split(",");
         Set<Class<?>> classes = new HashSet<Class<?>>();
         for(String name : packes) {
-            classes.addAll(findClass(loader, name));
+            classes.addAll(findClass(loader, name, false, JobDefine.class.getName(), "project", values));
         }
         
         log("find classes: " + classes.size());
         
-        String[] projects = project.split(",");
         log("find projects: " + Arrays.toString(projects) );
         
         // 按照配置中的项目顺序
@@ -545,7 +730,7 @@ public class ClassFinder {
         ClassLoader loader = getDefaultClassLoader();
         String[] packes = packName.split(",");
         for(String name : packes) {
-            classes.addAll(findClass(loader, name));
+            classes.addAll(findClass(loader, name, false, annotation.getName(), null, null));
         }
         
         log("find classes(" + annotation.getName() + "): " + classes.size());
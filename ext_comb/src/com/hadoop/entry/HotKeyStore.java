@@ -0,0 +1,232 @@
+package com.hadoop.entry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+
+import com.hadoop.mapreduce.KeySalter;
+import com.hadoop.plat.util.BytesUtil;
+import com.hadoop.plat.util.SplitValueBuilder;
+import com.hadoop.util.Logger;
+
+/**
+ * 热点key的来源：JobDefine中的配置，以及上一次运行时mapper采样检测到的热点key。
+ *
+ * 上一次运行的结果保存在 Jobs.JOB_SALT_KEYS_DIR/任务标识（project.jobSeq）中，
+ * 候选key为mapper写入job输出目录下KeySalter.CANDIDATES_DIR的结果（读取后删除），
+ * 只保留reducer子类支持打散（计数器SALTABLE_SPLITKEY_*）、且占该splitKey采样数据比例不低于Jobs.JOB_SALT_RATIO的key。
+ *
+ *
+ *
+ */
+public final class HotKeyStore {
+
+    private HotKeyStore() {
+    }
+
+    /**
+     * 根据计数器中的采样条数，从候选key中选出热点key
+     *
+     * @param counters
+     * @param candidates 候选key -&gt; 采样中的条数，见readCandidates
+     * @param ratio
+     * @return splitKey:URL编码的key[,...]，没有时为空字符串
+     */
+    public static String fromCounters(Counters counters, Map<String, Long> candidates, double ratio) {
+        Map<Integer, Long> sampled = new HashMap<Integer, Long>();
+        Set<Integer> saltable = new HashSet<Integer>();
+        for (Counter counter : counters.getGroup(KeySalter.COUNTER_GROUP)) {
+            String name = counter.getName();
+            if (name.startsWith(KeySalter.COUNTER_SAMPLED)) {
+                Integer splitKey = toInt(name.substring(KeySalter.COUNTER_SAMPLED.length()));
+                if (splitKey != null) {
+                    sampled.put(splitKey, counter.getValue());
+                }
+            } else if (name.startsWith(KeySalter.COUNTER_SALTABLE)) {
+                Integer splitKey = toInt(name.substring(KeySalter.COUNTER_SALTABLE.length()));
+                if (splitKey != null) {
+                    saltable.add(splitKey);
+                }
+            }
+        }
+        SplitValueBuilder keys = new SplitValueBuilder(",");
+        for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+            String name = entry.getKey();
+            int splitKey = Integer.parseInt(name.substring(0, name.indexOf(':')));
+            Long total = sampled.get(splitKey);
+            if (saltable.contains(splitKey) && total != null && entry.getValue() >= ratio * total) {
+                keys.add(name);
+            }
+        }
+        return keys.build();
+    }
+
+    /**
+     * 读取mapper写入的候选key（每行为 key\t条数），同一个key的条数累加
+     *
+     * @param conf
+     * @param dir KeySalter.CANDIDATES_DIR
+     * @return 目录不存在时为空
+     * @throws IOException
+     */
+    public static Map<String, Long> readCandidates(Configuration conf, Path dir) throws IOException {
+        Map<String, Long> candidates = new HashMap<String, Long>();
+        FileSystem fs = dir.getFileSystem(conf);
+        if (!fs.exists(dir)) {
+            return candidates;
+        }
+        for (FileStatus status : fs.listStatus(dir)) {
+            if (!status.isFile() || !status.getPath().getName().startsWith("part")) {
+                continue;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(status.getPath()),
+                    BytesUtil.UTF8));
+            try {
+                String line = null;
+                while ((line = reader.readLine()) != null) {
+                    int idx = line.lastIndexOf('\t');
+                    String name = idx < 0 ? null : line.substring(0, idx);
+                    Long count = idx < 0 ? null : toLong(line.substring(idx + 1));
+                    if (count == null || !KeySalter.isKey(name)) {
+                        Logger.warn(String.format("illegal hot key candidate in %s: %s", status.getPath(), line));
+                        continue;
+                    }
+                    Long total = candidates.get(name);
+                    candidates.put(name, total == null ? count : total + count);
+                }
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * 确定当前任务的热点key：上一次运行保存的和JobDefine中配置的合并。
+     *
+     * @param conf
+     * @param jobCurrent 任务标识
+     * @param defined JobDefine中的配置
+     * @return 没有热点key时返回null
+     */
+    public static String resolve(Configuration conf, String jobCurrent, String defined) {
+        Set<String> keys = new LinkedHashSet<String>();
+        add(keys, defined);
+        try {
+            add(keys, load(conf, jobCurrent));
+        } catch (IOException e) {
+            Logger.warn("load hot keys failed: " + jobCurrent, e);
+        }
+        if (keys.isEmpty()) {
+            return null;
+        }
+        SplitValueBuilder value = new SplitValueBuilder(",");
+        for (String key : keys) {
+            value.add(key);
+        }
+        return value.build();
+    }
+
+    private static void add(Set<String> keys, String value) {
+        if (value == null) {
+            return;
+        }
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                keys.add(item.trim());
+            }
+        }
+    }
+
+    /**
+     * 读取上一次运行保存的热点key
+     *
+     * @param conf
+     * @param jobCurrent
+     * @return 没有配置目录或者文件不存在时返回null
+     * @throws IOException
+     */
+    public static String load(Configuration conf, String jobCurrent) throws IOException {
+        Path path = getPath(conf, jobCurrent);
+        if (path == null) {
+            return null;
+        }
+        FileSystem fs = path.getFileSystem(conf);
+        if (!fs.exists(path)) {
+            return null;
+        }
+        InputStream in = fs.open(path);
+        try {
+            return new String(IOUtils.toByteArray(in), BytesUtil.UTF8);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * 保存任务检测到的热点key，没有检测到时保存为空，避免继续打散已经不热的key。
+     *
+     * @param conf
+     * @param jobCurrent
+     * @param counters
+     * @param output job输出目录，其下的KeySalter.CANDIDATES_DIR读取后删除
+     * @return 保存的热点key，没有配置目录时返回null
+     * @throws IOException
+     */
+    public static String save(Configuration conf, String jobCurrent, Counters counters, Path output)
+            throws IOException {
+        Path path = getPath(conf, jobCurrent);
+        if (path == null || counters == null || output == null) {
+            return null;
+        }
+        Path dir = new Path(output, KeySalter.CANDIDATES_DIR);
+        String value = fromCounters(counters, readCandidates(conf, dir), KeySalter.getRatio(conf));
+        dir.getFileSystem(conf).delete(dir, true);
+        OutputStream out = path.getFileSystem(conf).create(path, true);
+        try {
+            out.write(BytesUtil.toBytes(value));
+        } finally {
+            out.close();
+        }
+        return value;
+    }
+
+    private static Path getPath(Configuration conf, String jobCurrent) {
+        String dir = conf.get(Jobs.JOB_SALT_KEYS_DIR);
+        if (dir == null || dir.trim().isEmpty() || jobCurrent == null) {
+            return null;
+        }
+        return new Path(dir.trim(), jobCurrent);
+    }
+
+    private static Long toLong(String value) {
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Integer toInt(String value) {
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -7,19 +7,31 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.OutputFormat;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
+import com.hadoop.entry.comb.CombContainer;
+import com.hadoop.io.CompositeKey;
+import com.hadoop.io.CompositeKeyComparator;
+import com.hadoop.io.CompositeKeySchema;
 import com.hadoop.io.SplitOutputKey;
+import com.hadoop.mapreduce.Broadcasts;
 import com.hadoop.mapreduce.ContainerKeyCombinerImpl;
 import com.hadoop.mapreduce.ContainerKeyCombinerTextImpl;
 import com.hadoop.mapreduce.ContainerKeyMapperImpl;
+import com.hadoop.mapreduce.ContainerKeyReducer;
 import com.hadoop.mapreduce.ContainerKeyReducerImpl;
 import com.hadoop.mapreduce.ContainerResolver;
+import com.hadoop.mapreduce.KeySalter;
+import com.hadoop.mapreduce.SplitKeyLayout;
+import com.hadoop.mapreduce.SplitKeyWeightedPartitioner;
 import com.hadoop.plat.util.SplitValueBuilder;
+import com.hadoop.util.Logger;
 
 /**
  * 根据JobDefine定义构建单个项目中的所有job。
@@ -106,6 +118,8 @@ public class JobBuilder {
             Job job = Job.getInstance(this.conf, jobName);
             
             job.setJarByClass(this.jobDefine.jarByClass());
+            // 广播关联的数据集加入分布式缓存
+            Broadcasts.addCacheFiles(job);
             job.setInputFormatClass(jdr.parseInputFormat(this.jobDefine.inputFormatClass()));
             
             Class<? extends Mapper> mapperClass = jdr.parseMapper(this.jobDefine.mapperClass());
@@ -119,6 +133,12 @@ public class JobBuilder {
             }
             Class<?> mapOutputKeyClass = this.jdr.parseClass("mapOutputKeyClass", this.jobDefine.mapOutputKeyClass());
             job.setMapOutputKeyClass(mapOutputKeyClass);
+            if (CompositeKey.class.isAssignableFrom(mapOutputKeyClass)) {
+                // 检查字段定义，按照字段定义在字节上排序
+                Logger.print(String.format("CompositeKey schema: %s, group fields: %s",
+                        CompositeKeySchema.get(this.conf), this.conf.get(CompositeKeySchema.GROUP_FIELDS, "all")));
+                job.setSortComparatorClass(CompositeKeyComparator.class);
+            }
             job.setMapOutputValueClass(this.jdr.parseClass("mapOutputValueClass", this.jobDefine.mapOutputValueClass()));
             
             int numReduceTasks = jdr.parse("numReduceTasks", this.jobDefine.numReduceTasks());
@@ -142,6 +162,12 @@ public class JobBuilder {
                 }
                 if (!JobDefineHelper.isDefaultPartitionerClass(jobDefine)) {
                     job.setPartitionerClass(this.jobDefine.partitionerClass());
+                    if (SplitKeyWeightedPartitioner.class.isAssignableFrom(this.jobDefine.partitionerClass())) {
+                        // 打印每个splitKey的reducer分配
+                        Logger.print(SplitKeyLayout.plan(
+                                SplitKeyLayout.parseWeights(this.conf.get(Jobs.JOB_SPLITKEY_WEIGHTS)), numReduceTasks)
+                                .toString());
+                    }
                 }
                 if (!JobDefineHelper.isDefaultGroupingComparatorClass(jobDefine)) {
                     job.setGroupingComparatorClass(this.jobDefine.groupingComparatorClass());
@@ -172,7 +198,10 @@ public class JobBuilder {
             // 调用其他追加设置
             boolean lazyOutputEnabled = jdr.parse("lazyOutputEnabled", this.jobDefine.lazyOutputEnabled());
             if (lazyOutputEnabled) {
-                LazyOutputFormat.setOutputFormatClass(job, this.jobDefine.outputFormatClass());// 不要默认输出
+                // 路径设置中调整过的输出格式（如中间路径的二进制格式）优先
+                Class<? extends OutputFormat> outputFormat = TextOutputFormat.class.equals(job.getOutputFormatClass())
+                        ? this.jobDefine.outputFormatClass() : job.getOutputFormatClass();
+                LazyOutputFormat.setOutputFormatClass(job, outputFormat);// 不要默认输出
             }
             boolean compressOutput = jdr.parse("compressOutput", this.jobDefine.compressOutput());
             if (compressOutput) {
@@ -229,6 +258,37 @@ public class JobBuilder {
         this.conf.set(Jobs.JOB_CURRENT, 
                 String.format("%s.%d", this.jobDefine.project(), this.jobDefine.jobSeq()));
         
+        // splitKey权重，conf在项目内的任务之间共用，没有权重时需要清除
+        String weights = SplitKeyWeights.resolve(this.conf, this.conf.get(Jobs.JOB_CURRENT),
+                this.jdr.parse("splitKeyWeights", this.jobDefine.splitKeyWeights()));
+        if (weights != null) {
+            this.conf.set(Jobs.JOB_SPLITKEY_WEIGHTS, weights);
+        } else {
+            this.conf.unset(Jobs.JOB_SPLITKEY_WEIGHTS);
+        }
+        
+        // 广播关联的数据集
+        String broadcasts = this.jdr.parse("broadcasts", this.jobDefine.broadcasts());
+        if (broadcasts != null && !broadcasts.trim().isEmpty()) {
+            this.conf.set(Jobs.JOB_BROADCASTS, broadcasts.trim());
+        } else {
+            this.conf.unset(Jobs.JOB_BROADCASTS);
+        }
+        
+        // CompositeKey的字段定义，同样需要清除上一个任务的设置
+        String schema = this.jdr.parse("compositeKeySchema", this.jobDefine.compositeKeySchema());
+        if (schema != null && !schema.trim().isEmpty()) {
+            this.conf.set(CompositeKeySchema.SCHEMA, schema.trim());
+        } else {
+            this.conf.unset(CompositeKeySchema.SCHEMA);
+        }
+        int groupFields = this.jdr.parse("compositeKeyGroupFields", this.jobDefine.compositeKeyGroupFields());
+        if (groupFields > 0) {
+            this.conf.setInt(CompositeKeySchema.GROUP_FIELDS, groupFields);
+        } else {
+            this.conf.unset(CompositeKeySchema.GROUP_FIELDS);
+        }
+        
         String containerClasses = null;
         Class<?>[] clazzArray = null;
         SplitValueBuilder clazzDesc = new SplitValueBuilder(",");
@@ -245,6 +305,9 @@ public class JobBuilder {
                     clazzDesc.add(clazz.getCanonicalName());
                 }
                 this.conf.set(Jobs.JOB_COMB_MAPPERS, clazzDesc.build());
+            } else {
+                // conf在项目内的任务之间共用，需要清除上一个任务的设置
+                this.conf.unset(Jobs.JOB_COMB_MAPPERS);
             }
         }
         
@@ -259,6 +322,9 @@ public class JobBuilder {
                     clazzDesc.add(clazz.getCanonicalName());
                 }
                 this.conf.set(Jobs.JOB_COMB_COMBINERS, clazzDesc.build());
+            } else {
+                // conf在项目内的任务之间共用，需要清除上一个任务的设置
+                this.conf.unset(Jobs.JOB_COMB_COMBINERS);
             }
         }
         
@@ -273,8 +339,44 @@ public class JobBuilder {
                     clazzDesc.add(clazz.getCanonicalName());
                 }
                 this.conf.set(Jobs.JOB_COMB_REDUCERS, clazzDesc.build());
+            } else {
+                // conf在项目内的任务之间共用，需要清除上一个任务的设置
+                this.conf.unset(Jobs.JOB_COMB_REDUCERS);
             }
         }
+        
+        // 需要打散的热点key，依赖上面设置的reducer子类
+        String saltKeys = HotKeyStore.resolve(this.conf, this.conf.get(Jobs.JOB_CURRENT),
+                this.jdr.parse("saltKeys", this.jobDefine.saltKeys()));
+        if (saltKeys != null && Jobs.isSaltEnabled(this.conf)) {
+            // reducer子类不支持打散的splitKey去掉，否则同一个key会分散到多个分组
+            saltKeys = KeySalter.retainSaltable(saltKeys, getReducerClasses());
+        }
+        if (saltKeys != null) {
+            this.conf.set(Jobs.JOB_SALT_KEYS, saltKeys);
+            if (Jobs.isSaltEnabled(this.conf)) {
+                Logger.print(String.format("salt hot keys(%s): %s", this.conf.get(Jobs.JOB_CURRENT), saltKeys));
+            }
+        } else {
+            this.conf.unset(Jobs.JOB_SALT_KEYS);
+        }
+    }
+    
+    /**
+     * reducer子类：容器管理的子类，或者单个reducer
+     * @return
+     */
+    @SuppressWarnings("rawtypes")
+    private Class<?>[] getReducerClasses() {
+        Class<? extends Reducer> reducer = this.jdr.parseReducer(this.jobDefine.reducerClass());
+        if (!JobDefineHelper.isDefaultReducerClass(reducer) && !ContainerKeyReducer.class.isAssignableFrom(reducer)) {
+            return new Class<?>[] { reducer };
+        }
+        Class<?> container = JobDefineHelper.isDefaultReducerClass(reducer) ? ContainerKeyReducerImpl.class : reducer;
+        if (container.getAnnotation(CombContainer.class) == null) {
+            return new Class<?>[0];
+        }
+        return new ContainerResolver().withConf(this.conf).withClass(container).withReducer().fetchClasses();
     }
     
 
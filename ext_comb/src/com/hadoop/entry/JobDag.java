@@ -0,0 +1,374 @@
+package com.hadoop.entry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * 一个项目内job的依赖图，用于按照依赖关系并发运行（见ProjectRunner.PARAM_DAG）。
+ *
+ * 依赖关系包括：
+ * 1、JobDefine.dependsOn中声明的jobSeq；
+ * 2、根据路径推断：输入路径与jobSeq较小的job的输出路径相同（或者位于其下、包含它）时，依赖该job。
+ * 路径为job实际使用的路径（见JobPathResolverImpl.getInputPath、getOutputPath），包括-D覆盖的inputPath、outputPath。
+ *
+ * 所有前置job成功或者被忽略后才可以运行；前置job失败时，所有下游job取消。
+ * 异步（sync=false）的job有下游job时同样等待完成（否则下游job会读取未完成的输出），没有下游job时提交后即视为成功。
+ *
+ * 非线程安全，只在调度线程中修改状态。
+ *
+ *
+ */
+public class JobDag {
+
+    /** 节点状态 */
+    public enum State {
+        WAITING, RUNNING, SUCCEEDED, IGNORED, FAILED, CANCELLED
+    }
+
+    /** 按照jobSeq排序的节点 */
+    private final List<Node> nodes = new ArrayList<Node>();
+
+    /** 第一个job开始的时间 */
+    private long start;
+
+    /** 最后一个job结束的时间 */
+    private long end;
+
+    /**
+     * 构建依赖图
+     * @param conf 项目的conf，用于解析路径
+     * @param jds 项目内的job，按照jobSeq排序
+     * @throws IllegalArgumentException jobSeq重复、依赖不存在或者存在循环依赖
+     */
+    public JobDag(Configuration conf, List<JobDefine> jds) {
+        Map<Integer, Node> seqs = new HashMap<Integer, Node>();
+        for (JobDefine jd : jds) {
+            Node node = new Node(jd, JobPathResolverImpl.getInputPath(conf, jd),
+                    JobPathResolverImpl.getOutputPath(conf, jd));
+            if (seqs.put(jd.jobSeq(), node) != null) {
+                throw new IllegalArgumentException(String.format("duplicate jobSeq %d in project %s.", jd.jobSeq(),
+                        jd.project()));
+            }
+            this.nodes.add(node);
+        }
+        for (Node node : this.nodes) {
+            for (int seq : node.jd.dependsOn()) {
+                Node parent = seqs.get(seq);
+                if (parent == null || parent == node) {
+                    throw new IllegalArgumentException(String.format("%s depends on unknown jobSeq %d.",
+                            JobDefineHelper.getJobDesc(node.jd), seq));
+                }
+                link(parent, node);
+            }
+            for (Node other : this.nodes) {
+                if (other.jd.jobSeq() < node.jd.jobSeq() && isPathMatched(node.input, other.output)) {
+                    link(other, node);
+                }
+            }
+        }
+        checkCycle();
+    }
+
+    private void link(Node parent, Node child) {
+        if (!child.parents.contains(parent)) {
+            child.parents.add(parent);
+            parent.children.add(child);
+        }
+    }
+
+    /**
+     * 输入路径（可以用逗号分隔多个）是否读取输出路径的数据
+     */
+    static boolean isPathMatched(String inputPath, String outputPath) {
+        String output = normalize(outputPath);
+        if (output.isEmpty()) {
+            return false;
+        }
+        for (String item : inputPath.split(",")) {
+            String input = normalize(item);
+            if (input.isEmpty()) {
+                continue;
+            }
+            if (input.equals(output) || input.startsWith(output + "/") || output.startsWith(input + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String path) {
+        String value = path.trim();
+        while (value.endsWith("/")) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return value;
+    }
+
+    /**
+     * 拓扑排序检查循环依赖
+     */
+    private void checkCycle() {
+        Map<Node, Integer> degrees = new HashMap<Node, Integer>();
+        LinkedList<Node> queue = new LinkedList<Node>();
+        for (Node node : this.nodes) {
+            degrees.put(node, node.parents.size());
+            if (node.parents.isEmpty()) {
+                queue.add(node);
+            }
+        }
+        int visited = 0;
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            visited++;
+            for (Node child : node.children) {
+                int degree = degrees.get(child) - 1;
+                degrees.put(child, degree);
+                if (degree == 0) {
+                    queue.add(child);
+                }
+            }
+        }
+        if (visited != this.nodes.size()) {
+            List<String> names = new ArrayList<String>();
+            for (Map.Entry<Node, Integer> entry : degrees.entrySet()) {
+                if (entry.getValue() > 0) {
+                    names.add(JobDefineHelper.getJobDesc(entry.getKey().jd));
+                }
+            }
+            throw new IllegalArgumentException(String.format("cyclic job dependencies: %s.", names));
+        }
+    }
+
+    public List<Node> getNodes() {
+        return this.nodes;
+    }
+
+    /**
+     * 可以运行的job：等待中且所有前置job成功或者被忽略
+     * @return
+     */
+    public List<Node> ready() {
+        List<Node> ready = new ArrayList<Node>();
+        for (Node node : this.nodes) {
+            if (node.state != State.WAITING) {
+                continue;
+            }
+            boolean ok = true;
+            for (Node parent : node.parents) {
+                if (parent.state != State.SUCCEEDED && parent.state != State.IGNORED) {
+                    ok = false;
+                    break;
+                }
+            }
+            if (ok) {
+                ready.add(node);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * 开始运行
+     * @param node
+     */
+    public void start(Node node) {
+        node.state = State.RUNNING;
+        node.start = System.currentTimeMillis();
+        if (this.start == 0) {
+            this.start = node.start;
+        }
+    }
+
+    /**
+     * 运行结束，失败时取消所有下游job
+     * @param node
+     * @param state
+     * @return 被取消的job
+     */
+    public List<Node> finish(Node node, State state) {
+        node.state = state;
+        node.end = System.currentTimeMillis();
+        this.end = Math.max(this.end, node.end);
+        List<Node> cancelled = new ArrayList<Node>();
+        if (state == State.FAILED) {
+            cancel(node, cancelled);
+        }
+        return cancelled;
+    }
+
+    private void cancel(Node node, List<Node> cancelled) {
+        for (Node child : node.children) {
+            if (child.state == State.WAITING) {
+                child.state = State.CANCELLED;
+                cancelled.add(child);
+                cancel(child, cancelled);
+            }
+        }
+    }
+
+    /**
+     * 传递给JobBuilder的上一个job：jobSeq最大的前置job
+     * @param node
+     * @return 没有前置job时为null
+     */
+    public Job getLastJob(Node node) {
+        Node last = null;
+        for (Node parent : node.parents) {
+            if (last == null || parent.jd.jobSeq() > last.jd.jobSeq()) {
+                last = parent;
+            }
+        }
+        return last == null ? null : last.job;
+    }
+
+    /**
+     * 从第一个job开始到最后一个job结束的时长
+     * @return
+     */
+    public long getMakespan() {
+        return this.start == 0 ? 0 : this.end - this.start;
+    }
+
+    /**
+     * 关键路径：按照实际运行时长计算的最长依赖链
+     * @return
+     */
+    public List<Node> criticalPath() {
+        Map<Node, Long> lengths = new HashMap<Node, Long>();
+        Map<Node, Node> prevs = new HashMap<Node, Node>();
+        Node tail = null;
+        for (Node node : topological()) {
+            long length = 0;
+            for (Node parent : node.parents) {
+                if (lengths.get(parent) > length) {
+                    length = lengths.get(parent);
+                    prevs.put(node, parent);
+                }
+            }
+            length += node.getSpend();
+            lengths.put(node, length);
+            if (tail == null || length > lengths.get(tail)) {
+                tail = node;
+            }
+        }
+        LinkedList<Node> path = new LinkedList<Node>();
+        for (Node node = tail; node != null; node = prevs.get(node)) {
+            path.addFirst(node);
+        }
+        return path;
+    }
+
+    private List<Node> topological() {
+        List<Node> sorted = new ArrayList<Node>();
+        Map<Node, Integer> degrees = new HashMap<Node, Integer>();
+        for (Node node : this.nodes) {
+            degrees.put(node, node.parents.size());
+            if (node.parents.isEmpty()) {
+                sorted.add(node);
+            }
+        }
+        for (int i = 0; i < sorted.size(); i++) {
+            for (Node child : sorted.get(i).children) {
+                int degree = degrees.get(child) - 1;
+                degrees.put(child, degree);
+                if (degree == 0) {
+                    sorted.add(child);
+                }
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * 运行结果，包括关键路径和总时长
+     * @return
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        long critical = 0;
+        for (Node node : criticalPath()) {
+            sb.append(sb.length() == 0 ? "" : " -> ").append(node.getName()).append('(').append(node.getSpend())
+                    .append(')');
+            critical += node.getSpend();
+        }
+        return String.format("makespan: %d, critical path: %d, %s", getMakespan(), critical, sb);
+    }
+
+    /**
+     * job节点
+     */
+    public static class Node {
+
+        private final JobDefine jd;
+
+        /** 解析后的输入路径 */
+        private final String input;
+
+        /** 解析后的输出路径 */
+        private final String output;
+
+        private final List<Node> parents = new ArrayList<Node>();
+
+        private final List<Node> children = new ArrayList<Node>();
+
+        private State state = State.WAITING;
+
+        private long start;
+
+        private long end;
+
+        /** 构建的job，在运行线程中设置 */
+        private volatile Job job;
+
+        /** 任务名称，在运行线程中设置 */
+        private volatile String name;
+
+        private Node(JobDefine jd, String input, String output) {
+            this.jd = jd;
+            this.input = input;
+            this.output = output;
+        }
+
+        public JobDefine getJobDefine() {
+            return this.jd;
+        }
+
+        public State getState() {
+            return this.state;
+        }
+
+        public List<Node> getParents() {
+            return this.parents;
+        }
+
+        public boolean hasChildren() {
+            return !this.children.isEmpty();
+        }
+
+        public void setJob(Job job) {
+            this.job = job;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name == null ? JobDefineHelper.getJobDesc(this.jd) : this.name;
+        }
+
+        /**
+         * 运行时长，没有运行时为0
+         * @return
+         */
+        public long getSpend() {
+            return this.end > this.start ? this.end - this.start : 0;
+        }
+    }
+}
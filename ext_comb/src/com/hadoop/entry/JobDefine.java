@@ -38,6 +38,14 @@ public @interface JobDefine {
      */
     boolean sync() default true;
     
+    /**
+     * 依赖的job（同一项目内的jobSeq），缺省为空；只在按照依赖关系运行（-Djobs.dag=并发数）时使用，见JobDag。
+     * 
+     * 未声明时根据inputPath和outputPath推断。
+     * @return
+     */
+    int[] dependsOn() default {};
+    
     /**
      * 自定义的任务名称，为空则自动生成。
      * 形如："job." + jd.project() + "."+ jd.jobSeq();
@@ -92,6 +100,31 @@ public @interface JobDefine {
     @SuppressWarnings("rawtypes")
     Class<? extends Partitioner> partitionerClass() default Partitioner.class;
     
+    /**
+     * 每个splitKey的权重，格式为 splitKey:weight[,splitKey:weight...]，缺省为空。
+     * 
+     * 配合SplitKeyWeightedPartitioner使用，按照权重为每个splitKey分配一段连续的reducer。
+     * 设置了Jobs.JOB_SPLITKEY_WEIGHTS_DIR且存在上一次运行保存的权重时，优先使用保存的权重。
+     * @return
+     */
+    String splitKeyWeights() default "";
+    
+    /**
+     * 需要打散的热点key，格式为 splitKey:URL编码的key[,...]，缺省为空；-Djob.salt.enabled=true时生效。
+     * 
+     * 设置了Jobs.JOB_SALT_KEYS_DIR时，与上一次运行检测并保存的热点key合并使用，见KeySalter。
+     * @return
+     */
+    String saltKeys() default "";
+    
+    /**
+     * 广播关联的数据集，格式为 名称=路径[,...]，缺省为空。
+     * 
+     * 通过分布式缓存分发，每个task进程只加载一次，子类通过Broadcasts.get(context, 名称)共享使用。
+     * @return
+     */
+    String broadcasts() default "";
+    
     /**
      * groupingComparator
      * @return
@@ -99,6 +132,21 @@ public @interface JobDefine {
     @SuppressWarnings("rawtypes")
     Class<? extends RawComparator> groupingComparatorClass() default RawComparator.class;
     
+    /**
+     * mapOutputKeyClass为CompositeKey时的字段定义，如 "int,string,long:desc"，缺省为空。
+     * 
+     * 格式见CompositeKeySchema，排序比较器自动设置为CompositeKeyComparator。
+     * @return
+     */
+    String compositeKeySchema() default "";
+    
+    /**
+     * CompositeKey分组（CompositeKeyGroupingComparator）和分区（CompositeKeyPartitioner）使用的前缀字段个数，
+     * 缺省为0，表示全部字段。
+     * @return
+     */
+    int compositeKeyGroupFields() default 0;
+    
     // CombinerKeyGroupingComparatorClass
     // SortComparatorClass
     
@@ -0,0 +1,348 @@
+package com.hadoop.entry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Cluster;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.JobStatus;
+
+import com.hadoop.util.Logger;
+
+/**
+ * 异步提交的job的状态监控，见ProjectRunner.PARAM_ASYNC。
+ *
+ * 一个守护线程轮询所有已提交的job，完成时回调JobListener.jobSuccessed或者jobFailed，
+ * 代替每个job一个线程阻塞在job.waitForCompletion中。
+ *
+ * 同一集群上监控的job不少于batchThreshold个（缺省DEFAULT_BATCH_THRESHOLD）时，每轮通过Cluster.getAllJobStatuses
+ * 一次获取所有job的状态；获取失败或者结果中没有的job单独获取。
+ * getAllJobStatuses返回RM保留的所有application（包括其他用户的和已结束的），一次的开销相当于几十次单个job的查询，
+ * 因此只在监控的job较多时使用。
+ *
+ * 一轮中没有job完成时轮询间隔加倍，直到maxInterval；有job完成或者新加入job时恢复为minInterval。
+ * 连续MAX_ERRORS次无法获取状态的job视为失败。
+ *
+ * 回调在监控线程中执行，耗时的处理（如提交下一个job）应当交给其他线程。
+ *
+ *
+ */
+public class JobMonitor {
+
+    /** 缺省的最小轮询间隔（毫秒） */
+    public static final long DEFAULT_MIN_INTERVAL = 1000;
+
+    /** 缺省的最大轮询间隔（毫秒） */
+    public static final long DEFAULT_MAX_INTERVAL = 30000;
+
+    /** 连续获取状态失败的次数上限 */
+    public static final int MAX_ERRORS = 10;
+
+    /** 缺省的批量获取状态的job数 */
+    public static final int DEFAULT_BATCH_THRESHOLD = 50;
+
+    /** 区分集群的配置 */
+    private static final String[] CLUSTER_KEYS = { "mapreduce.framework.name", "yarn.resourcemanager.address",
+            "mapreduce.jobtracker.address" };
+
+    private final long minInterval;
+
+    private final long maxInterval;
+
+    /** 同一集群上的job数达到该值时批量获取状态，不大于0时不批量获取 */
+    private final int batchThreshold;
+
+    /** 监控中的job，由this保护 */
+    private final List<Watched> watched = new ArrayList<Watched>();
+
+    /** 当前的轮询间隔，由this保护 */
+    private long interval;
+
+    private boolean closed;
+
+    private Thread thread;
+
+    public JobMonitor() {
+        this(DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_BATCH_THRESHOLD);
+    }
+
+    /**
+     * @param batchThreshold 同一集群上的job数达到该值时批量获取状态，不大于0时不批量获取
+     */
+    public JobMonitor(int batchThreshold) {
+        this(DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, batchThreshold);
+    }
+
+    /**
+     * @param minInterval 最小轮询间隔（毫秒）
+     * @param maxInterval 最大轮询间隔（毫秒）
+     * @param batchThreshold 同一集群上的job数达到该值时批量获取状态，不大于0时不批量获取
+     */
+    public JobMonitor(long minInterval, long maxInterval, int batchThreshold) {
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException(String.format("illegal poll interval %d-%d.", minInterval,
+                    maxInterval));
+        }
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.batchThreshold = batchThreshold;
+        this.interval = minInterval;
+    }
+
+    /**
+     * 启动监控线程
+     * @return
+     */
+    public synchronized JobMonitor start() {
+        if (this.thread == null) {
+            this.thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    poll();
+                }
+            }, "job-monitor");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+        return this;
+    }
+
+    /**
+     * 监控一个已提交的job
+     * @param job 已提交
+     * @param jobName
+     * @param listener 完成时回调
+     */
+    public synchronized void watch(Job job, String jobName, ProjectRunner.JobListener listener) {
+        if (this.closed) {
+            throw new IllegalStateException("job monitor closed.");
+        }
+        this.watched.add(new Watched(job, jobName, listener));
+        this.interval = this.minInterval;
+        notifyAll();
+    }
+
+    /**
+     * 监控中的job数
+     * @return
+     */
+    public synchronized int size() {
+        return this.watched.size();
+    }
+
+    /**
+     * 停止监控，未完成的job不再回调
+     */
+    public void close() {
+        Thread t = null;
+        synchronized (this) {
+            this.closed = true;
+            notifyAll();
+            t = this.thread;
+        }
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void poll() {
+        while (true) {
+            List<Watched> batch = null;
+            synchronized (this) {
+                while (!this.closed && this.watched.isEmpty()) {
+                    waitQuietly(0);
+                }
+                if (this.closed) {
+                    return;
+                }
+                batch = new ArrayList<Watched>(this.watched);
+            }
+
+            List<Watched> completed = pollAll(batch);
+
+            synchronized (this) {
+                this.watched.removeAll(completed);
+                if (completed.isEmpty()) {
+                    this.interval = Math.min(this.interval * 2, this.maxInterval);
+                } else {
+                    this.interval = this.minInterval;
+                }
+            }
+            for (Watched w : completed) {
+                w.fire();
+            }
+            synchronized (this) {
+                if (!this.closed && !this.watched.isEmpty()) {
+                    waitQuietly(this.interval);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取一轮状态，同一集群上的job批量获取
+     * @return 完成的job
+     */
+    private List<Watched> pollAll(List<Watched> batch) {
+        Map<String, List<Watched>> clusters = new LinkedHashMap<String, List<Watched>>();
+        for (Watched w : batch) {
+            String key = getClusterKey(w.job.getConfiguration());
+            List<Watched> list = clusters.get(key);
+            if (list == null) {
+                list = new ArrayList<Watched>();
+                clusters.put(key, list);
+            }
+            list.add(w);
+        }
+        List<Watched> completed = new ArrayList<Watched>();
+        for (List<Watched> list : clusters.values()) {
+            Map<JobID, JobStatus> statuses = this.batchThreshold > 0 && list.size() >= this.batchThreshold ? getStatuses(list) : null;
+            for (Watched w : list) {
+                JobStatus status = statuses == null ? null : statuses.get(w.job.getJobID());
+                if (status != null ? w.update(status) : w.poll()) {
+                    completed.add(w);
+                }
+            }
+        }
+        return completed;
+    }
+
+    private static String getClusterKey(Configuration conf) {
+        StringBuilder sb = new StringBuilder();
+        for (String key : CLUSTER_KEYS) {
+            sb.append(conf.get(key)).append('|');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 一次获取集群上所有job的状态，返回RM保留的所有application，开销较大
+     * @return 获取失败时返回null
+     */
+    private static Map<JobID, JobStatus> getStatuses(List<Watched> list) {
+        Cluster cluster = null;
+        for (Watched w : list) {
+            if ((cluster = w.job.getCluster()) != null) {
+                break;
+            }
+        }
+        if (cluster == null) {
+            return null;
+        }
+        JobStatus[] statuses = null;
+        try {
+            statuses = cluster.getAllJobStatuses();
+        } catch (IOException e) {
+            Logger.debug("can't get all job statuses.", e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (RuntimeException e) {
+            Logger.debug("can't get all job statuses.", e);
+            return null;
+        }
+        if (statuses == null) {
+            return null;
+        }
+        Map<JobID, JobStatus> result = new HashMap<JobID, JobStatus>();
+        for (JobStatus status : statuses) {
+            if (status != null && status.getJobID() != null) {
+                result.put(status.getJobID(), status);
+            }
+        }
+        return result;
+    }
+
+    private void waitQuietly(long timeout) {
+        try {
+            wait(timeout);
+        } catch (InterruptedException e) {
+            this.closed = true;
+        }
+    }
+
+    /**
+     * 监控中的job
+     */
+    private static class Watched {
+
+        private final Job job;
+
+        private final String jobName;
+
+        private final ProjectRunner.JobListener listener;
+
+        private int errors;
+
+        private boolean success;
+
+        Watched(Job job, String jobName, ProjectRunner.JobListener listener) {
+            this.job = job;
+            this.jobName = jobName;
+            this.listener = listener;
+        }
+
+        /**
+         * 获取一次状态
+         * @return 是否完成
+         */
+        boolean poll() {
+            try {
+                if (!this.job.isComplete()) {
+                    this.errors = 0;
+                    return false;
+                }
+                this.success = this.job.isSuccessful();
+                return true;
+            } catch (IOException e) {
+                if (++this.errors < MAX_ERRORS) {
+                    return false;
+                }
+                Logger.warn(String.format("can't get status of %s.", this.jobName), e);
+                this.success = false;
+                return true;
+            } catch (RuntimeException e) {
+                Logger.warn(String.format("can't get status of %s.", this.jobName), e);
+                this.success = false;
+                return true;
+            }
+        }
+
+        /**
+         * 使用批量获取的状态
+         * @return 是否完成
+         */
+        boolean update(JobStatus status) {
+            this.errors = 0;
+            if (!status.isJobComplete()) {
+                return false;
+            }
+            this.success = status.getState() == JobStatus.State.SUCCEEDED;
+            return true;
+        }
+
+        void fire() {
+            String jobId = String.valueOf(this.job.getJobID());
+            try {
+                if (this.success) {
+                    this.listener.jobSuccessed(jobId, this.jobName);
+                } else {
+                    this.listener.jobFailed(jobId, this.jobName);
+                }
+            } catch (RuntimeException e) {
+                Logger.warn(String.format("job listener failed: %s.", this.jobName), e);
+            }
+        }
+    }
+}
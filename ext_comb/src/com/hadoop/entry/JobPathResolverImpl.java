@@ -4,35 +4,91 @@ import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.CombineTextInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
+import com.hadoop.mapreduce.lib.input.IOETolerantCombineTextInputFormat;
+import com.hadoop.mapreduce.lib.input.SplitRecordInputFormat;
+import com.hadoop.mapreduce.lib.output.SplitRecordOutputFormat;
 import com.hadoop.util.Logger;
 
 /**
  * 简单实现，处理输入输出路径。
  * 
+ * 通过-Djob.mid.binary=true开启后，中间路径（见Jobs.isOutputMid）使用文本格式时自动改为二进制格式：
+ * 输出为SplitRecordOutputFormat，输入为SplitRecordInputFormat。读写两端的job需要使用相同的设置。
+ * 
+ * 路径可以通过-Djob.jobName.jobSeq.inputPath/outputPath覆盖（如共享扫描后改为读取合并job的输出，见ScanSharingPlanner）。
  *
  */
 public class JobPathResolverImpl implements JobPathResolver {
 
     @Override
     public void input(Job job, Configuration conf, JobDefine jc, String[] args) throws IllegalArgumentException, IOException {
-        String input = Jobs.getInput(conf) + jc.inputPath();
+        String input = getInputPath(conf, jc);
         print("Job Input: " + input);
         FileInputFormat.addInputPath(job, new Path(input));
+        if (Jobs.isMidBinary(conf) && Jobs.isOutputMid(conf, input) && isTextInput(job)) {
+            print("Job Input Format: " + SplitRecordInputFormat.class.getName());
+            job.setInputFormatClass(SplitRecordInputFormat.class);
+        }
     }
 
     @Override
     public void output(Job job, Configuration conf, JobDefine jc, String[] args) {
-      String output = Jobs.getOutputFinal(conf) + jc.outputPath();
-      String prefix = Jobs.getOutputPrefix(conf);
-      if(prefix.length() != 0) {
-          output = prefix + jc.outputPath();
-      }
+      String output = getOutputPath(conf, jc);
       print("Job Output: " + output);
       FileOutputFormat.setOutputPath(job, new Path(output));
+      if (Jobs.isMidBinary(conf) && Jobs.isOutputMid(conf, output) && TextOutputFormat.class.equals(jc.outputFormatClass())) {
+          print("Job Output Format: " + SplitRecordOutputFormat.class.getName());
+          job.setOutputFormatClass(SplitRecordOutputFormat.class);
+      }
+    }
+    
+    /**
+     * job读取的路径：Jobs.getInput + inputPath（可以通过-D覆盖）
+     * @param conf
+     * @param jc
+     * @return
+     */
+    public static String getInputPath(Configuration conf, JobDefine jc) {
+        return Jobs.getInput(conf) + new JobDefineResolver(conf, jc).parse("inputPath", jc.inputPath());
+    }
+    
+    /**
+     * job输出的路径：Jobs.getOutputFinal（设置了Jobs.getOutputPrefix时为该前缀） + outputPath（可以通过-D覆盖）
+     * @param conf
+     * @param jc
+     * @return
+     */
+    public static String getOutputPath(Configuration conf, JobDefine jc) {
+        String outputPath = new JobDefineResolver(conf, jc).parse("outputPath", jc.outputPath());
+        String prefix = Jobs.getOutputPrefix(conf);
+        if (prefix.length() != 0) {
+            return prefix + outputPath;
+        }
+        return Jobs.getOutputFinal(conf) + outputPath;
+    }
+    
+    /**
+     * 是否为按行读取的文本格式
+     * @param job
+     * @return
+     */
+    protected boolean isTextInput(Job job) {
+        Class<? extends InputFormat<?, ?>> format;
+        try {
+            format = job.getInputFormatClass();
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+        return CombineTextInputFormat.class.equals(format) || TextInputFormat.class.equals(format)
+                || IOETolerantCombineTextInputFormat.class.equals(format);
     }
     
     /**
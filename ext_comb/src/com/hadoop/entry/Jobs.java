@@ -1,5 +1,8 @@
 package com.hadoop.entry;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.hadoop.conf.Configuration;
 
 import com.hadoop.plat.util.HdfsFileUtil;
@@ -55,6 +58,9 @@ public final class Jobs {
     /** 输出内容的分隔符号 */
     public static final String JOB_OUTPUT_SEPARATOR = "job.output.separator";
     
+    /** 输入内容的字段分隔符号，缺省与输出一致 */
+    public static final String JOB_INPUT_SEPARATOR = "job.input.separator";
+    
     /** 环境变量(Configuration): 项目名称 */
     public static final String JOB_PROJECT = "job.name";
     
@@ -88,6 +94,54 @@ public final class Jobs {
     /** container容器内的子类加载不完整时，是抛出异常终止处理还是忽略缺失的子类，缺省为抛出异常 */
     public static final String JOB_COMB_CONTAINER_INCOMPLETE_WARN = "job.comb.container.incomplete.warn";
     
+    /** mapper内合并（isCombineInMapper）时每个mapper的内存上限，单位为字节 */
+    public static final String JOB_COMBINE_MEMORY = "job.combine.memory";
+    
+    /** SplitOutputKey的序列化格式：compact（缺省）或legacy，迁移期间旧版本读取方需要legacy */
+    public static final String JOB_SPLITKEY_FORMAT = "job.splitkey.format";
+    
+    /** splitKey权重（splitKey:weight[,...]），由JobBuilder按照当前任务设置，SplitKeyWeightedPartitioner使用 */
+    public static final String JOB_SPLITKEY_WEIGHTS = "job.splitkey.weights";
+    
+    /** 保存每个任务运行后按照计数器统计的splitKey权重的目录，下一次运行时优先使用 */
+    public static final String JOB_SPLITKEY_WEIGHTS_DIR = "job.splitkey.weights.dir";
+    
+    /** 是否开启热点key打散（container任务），缺省为false，见KeySalter */
+    public static final String JOB_SALT_ENABLED = "job.salt.enabled";
+    
+    /** 需要打散的热点key（splitKey:URL编码的key[,...]），由JobBuilder按照当前任务设置 */
+    public static final String JOB_SALT_KEYS = "job.salt.keys";
+    
+    /** 保存每个任务运行后检测到的热点key的目录，下一次运行时优先使用 */
+    public static final String JOB_SALT_KEYS_DIR = "job.salt.keys.dir";
+    
+    /** 每个热点key打散到的份数，缺省为8 */
+    public static final String JOB_SALT_BUCKETS = "job.salt.buckets";
+    
+    /** 热点key的判定比例（占该splitKey采样数据的比例），缺省为0.01 */
+    public static final String JOB_SALT_RATIO = "job.salt.ratio";
+    
+    /** 热点key检测的采样间隔（每多少条统计一条），缺省为16 */
+    public static final String JOB_SALT_SAMPLE = "job.salt.sample";
+    
+    /** 广播关联的数据集（名称=路径[,...]），由JobBuilder按照当前任务设置，见Broadcasts */
+    public static final String JOB_BROADCASTS = "job.broadcasts";
+    
+    /** 广播数据集中key与value的分隔符，缺省为| */
+    public static final String JOB_BROADCAST_SEPARATOR = "job.broadcast.separator";
+    
+    /**
+     * 中间路径（job.output下的mid、midN）是否使用二进制格式（SplitRecordOutputFormat/SplitRecordInputFormat），缺省为false。
+     * 
+     * 不按照读写双方的格式自动选择：写入时无法确定读取方（其他项目、其他运行或者Hive等外部工具可能按照文本读取），
+     * 读取时也无法确定已有的数据是用哪种格式写入的，因此由项目显式开启，读写双方必须使用相同的设置。
+     * 开启后只对文本输出（TextOutputFormat）、按行读取的文本输入（见JobPathResolverImpl）生效。
+     */
+    public static final String JOB_MID_BINARY = "job.mid.binary";
+    
+    /** 合并job中子类到原job输出目录的路由（子类名=目录[,...]），后缀为合并job的JOB_CURRENT，由ScanSharingPlanner设置 */
+    public static final String JOB_FUSED_ROUTES = "job.fused.routes";
+    
     /** 环境变量(Configuration): 日志启用 */
     public static final String ENV_LOG_ENABLED = "env.log.enabled";
     
@@ -340,6 +394,15 @@ public final class Jobs {
         return conf.get(Jobs.JOB_OUTPUT_SEPARATOR, "|");
     }
     
+    /**
+     * 获取输入内容的字段分隔符号，未设置时使用输出分隔符
+     * @param conf
+     * @return
+     */
+    public static String getInputSeparator(Configuration conf) {
+        return conf.get(Jobs.JOB_INPUT_SEPARATOR, getOutputSeparator(conf));
+    }
+    
     /**
      * 设置对应类的key标识
      * @param conf
@@ -371,6 +434,93 @@ public final class Jobs {
         return conf.getBoolean(Jobs.JOB_COMB_CONTAINER_INCOMPLETE_WARN, true);
     }
     
+    /**
+     * mapper内合并时每个mapper的内存上限
+     * @param conf
+     * @param def
+     * @return
+     */
+    public static long getCombineMemory(Configuration conf, long def) {
+        return conf.getLong(Jobs.JOB_COMBINE_MEMORY, def);
+    }
+    
+    /**
+     * 是否开启热点key打散
+     * @param conf
+     * @return
+     */
+    public static boolean isSaltEnabled(Configuration conf) {
+        return conf.getBoolean(Jobs.JOB_SALT_ENABLED, false);
+    }
+    
+    /**
+     * 中间路径是否使用二进制格式，缺省为false，见JOB_MID_BINARY
+     * @param conf
+     * @return
+     */
+    public static boolean isMidBinary(Configuration conf) {
+        return conf.getBoolean(Jobs.JOB_MID_BINARY, false);
+    }
+    
+    /**
+     * 当前job为合并job时，子类到原job输出目录（相对于合并job的输出目录）的路由
+     * @param conf
+     * @return 子类名 -&gt; 目录，不是合并job时为空
+     */
+    public static Map<String, String> getFusedRoutes(Configuration conf) {
+        Map<String, String> routes = new HashMap<String, String>();
+        String current = conf.get(Jobs.JOB_CURRENT);
+        String value = current == null ? null : conf.get(Jobs.JOB_FUSED_ROUTES + "." + current);
+        if (value == null || value.trim().isEmpty()) {
+            return routes;
+        }
+        for (String item : value.split(",")) {
+            int index = item.indexOf('=');
+            if (index <= 0 || index == item.length() - 1) {
+                throw new IllegalArgumentException(String.format("illegal %s: %s.", Jobs.JOB_FUSED_ROUTES, value));
+            }
+            routes.put(item.substring(0, index).trim(), item.substring(index + 1).trim());
+        }
+        return routes;
+    }
+    
+    /**
+     * 是否为中间路径（getOutputMid返回的路径及其子路径）
+     * @param conf
+     * @param path
+     * @return
+     */
+    public static boolean isOutputMid(Configuration conf, String path) {
+        String output = conf.get(Jobs.JOB_OUTPUT);
+        if (output == null || path == null) {
+            return false;
+        }
+        output = HdfsFileUtil.normalize(output);
+        path = path.replaceAll("\\\\", "/");
+        if (!path.startsWith(output)) {
+            return false;
+        }
+        String rest = path.substring(output.length());
+        int end = rest.indexOf('/');
+        return (end < 0 ? rest : rest.substring(0, end)).matches("mid\\d*");
+    }
+    
+    /**
+     * SplitOutputKey是否写旧格式
+     * @param conf
+     * @return
+     */
+    public static boolean isSplitKeyLegacyFormat(Configuration conf) {
+        String format = conf.get(Jobs.JOB_SPLITKEY_FORMAT, "compact");
+        if ("legacy".equalsIgnoreCase(format)) {
+            return true;
+        }
+        if ("compact".equalsIgnoreCase(format)) {
+            return false;
+        }
+        throw new IllegalArgumentException(String.format("illegal %s: %s.", Jobs.JOB_SPLITKEY_FORMAT, format));
+    }
+    
     /**
      * 根据命令行参数和conf初始化，由入口类负责调用。
      * @param conf
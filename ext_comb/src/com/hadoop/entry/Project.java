@@ -7,6 +7,8 @@ import com.hadoop.util.DateUtil;
 /**
  * 项目定义。
  * 
+ * 按照依赖关系运行时，多个job并发更新计数，因此计数方法是同步的。
+ * 
  *
  */
 public class Project {
@@ -49,39 +51,39 @@ public class Project {
         this.jobs = jobs;
     }
 
-    public int getCountSuccess() {
+    public synchronized int getCountSuccess() {
         return countSuccess;
     }
 
-    public void addCountSuccess() {
+    public synchronized void addCountSuccess() {
         this.countSuccess += 1;
     }
 
-    public int getCountFailure() {
+    public synchronized int getCountFailure() {
         return total - countSuccess;
     }
 
-    public int getCountSubmitted() {
+    public synchronized int getCountSubmitted() {
         return countSubmitted;
     }
 
-    public void addCountSubmitted() {
+    public synchronized void addCountSubmitted() {
         this.countSubmitted += 1;
     }
 
-    public int getTotal() {
+    public synchronized int getTotal() {
         return total;
     }
 
-    public void addTotal() {
+    public synchronized void addTotal() {
         this.total += 1;
     }
     
-    public void addSpend(long value) {
+    public synchronized void addSpend(long value) {
         this.spend += value;
     }
     
-    public long getSpend() {
+    public synchronized long getSpend() {
         return this.spend;
     }
 
@@ -1,18 +1,31 @@
 package com.hadoop.entry;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
 import com.hadoop.entry.concurrent.ConTaskCmdAdapter;
 import com.hadoop.entry.concurrent.ConTasks;
 import com.hadoop.entry.concurrent.ConTasksBuilder;
 import com.hadoop.util.DateUtil;
+import com.hadoop.util.Logger;
+import com.hadoop.util.concurrent.DaemonThreadFactory;
 import com.hadoop.util.concurrent.InterruptedRuntimeException;
 
 /**
@@ -20,6 +33,15 @@ import com.hadoop.util.concurrent.InterruptedRuntimeException;
  * 
  * 缺省为串行运行。
  * 
+ * 设置-Djobs.dag=并发数时，项目内的job按照依赖关系（见JobDag）并发运行，前置job成功后立即运行，失败时取消下游job，
+ * 结束后输出关键路径和总时长。
+ * 
+ * 设置-Djobs.fuse=true时，先把不同项目中读取相同输入的job合并运行（见ScanSharingPlanner）。
+ * 
+ * 设置-Djobs.async=true时，所有项目同时运行：job通过job.submit()提交，由一个监控线程（见JobMonitor）轮询状态，
+ * 完成时回调JobListener提交项目中的下一个job。同时运行的job数不受客户端线程数限制，
+ * jobs.threads只决定构建、提交job的线程数（缺省为1），jobs.batch为批量获取状态的job数（见JobMonitor）。
+ * 
  * 
  *
  */
@@ -40,11 +62,23 @@ public class ProjectRunner {
     /** 每个线程启动的间隔，缺省为10秒. */
     public static final String PARAM_DELAY = "delay";
     
+    /** 项目内按照依赖关系运行时的并发job数，缺省为0，按照jobSeq串行 */
+    public static final String PARAM_DAG = "dag";
+    
+    /** 是否合并读取相同输入的job（共享扫描），缺省为false */
+    public static final String PARAM_FUSE = "fuse";
+    
+    /** 是否异步提交所有项目的job，由监控线程回调推进，缺省为false */
+    public static final String PARAM_ASYNC = "async";
+    
+    /** 异步提交时批量获取状态的job数，缺省为JobMonitor.DEFAULT_BATCH_THRESHOLD */
+    public static final String PARAM_BATCH = "batch";
+    
     /** 输出分隔线 */
     private static final String PRINT_LINE = "================================================================";
     
     /** 支持的运行期参数设置  */
-    public static final String[] PARAMS = new String[]{PARAM_TIMEOUT, PARAM_THREADS, PARAM_DELAY}; //PARAM_PARALLEL
+    public static final String[] PARAMS = new String[]{PARAM_TIMEOUT, PARAM_THREADS, PARAM_DELAY, PARAM_DAG, PARAM_FUSE, PARAM_ASYNC, PARAM_BATCH}; //PARAM_PARALLEL
     
     /** 待运行的项目 */
     private List<Project> projects;
@@ -146,6 +180,56 @@ public class ProjectRunner {
         }
     }
     
+    /**
+     * 项目内按照依赖关系运行时的并发job数，缺省为0，按照jobSeq串行。
+     * @return
+     */
+    public int getDag() {
+        int defaultValue = 0;
+        String paramValue = this.params.get(PARAM_DAG);
+        if(paramValue == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.valueOf(paramValue);
+        } catch(Exception e) {
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * 是否合并读取相同输入的job，缺省为false。
+     * @return
+     */
+    public boolean isFuse() {
+        return Boolean.valueOf(this.params.get(PARAM_FUSE));
+    }
+    
+    /**
+     * 是否异步提交所有项目的job，缺省为false。
+     * @return
+     */
+    public boolean isAsync() {
+        return Boolean.valueOf(this.params.get(PARAM_ASYNC));
+    }
+    
+    /**
+     * 异步提交时批量获取状态的job数，缺省为JobMonitor.DEFAULT_BATCH_THRESHOLD，不大于0时不批量获取。
+     * @return
+     */
+    public int getBatch() {
+        int defaultValue = JobMonitor.DEFAULT_BATCH_THRESHOLD;
+        String paramValue = this.params.get(PARAM_BATCH);
+        if(paramValue == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.valueOf(paramValue);
+        } catch(Exception e) {
+            return defaultValue;
+        }
+    }
+    
     /**
      * 运行所有的项目
      * @throws ClassNotFoundException
@@ -153,8 +237,22 @@ public class ProjectRunner {
      * @throws InterruptedException
      */
     public void runJobs() throws ClassNotFoundException, IOException, InterruptedException {
-        // 串行
-        if (!isParallel()) {
+        // 合并的job在所有项目之前运行
+        ScanSharingPlanner planner = isFuse() ? new ScanSharingPlanner(this.conf) : null;
+        Project fused = planner == null ? null : planner.plan(this.projects);
+        if (fused != null) {
+            if (isAsync()) {
+                runAsync(Collections.singletonList(fused));
+            } else {
+                run(fused);
+            }
+            // 合并job的输出移动到原job的输出路径，之后的项目按照原路径读取
+            planner.publish();
+        }
+        if (isAsync()) {
+            runAsync(this.projects);
+        } else if (!isParallel()) {
+            // 串行
             for (Project p : this.projects) {
                 run(p);
             }
@@ -199,6 +297,10 @@ public class ProjectRunner {
                 }
             }
         }
+        if (fused != null) {
+            // 与其他项目一起输出结果
+            this.projects.add(0, fused);
+        }
     }
     
     /**
@@ -237,6 +339,12 @@ public class ProjectRunner {
             return;
         }
         
+        JobDag dag = getDag() > 0 ? createDag(this.conf, proj) : null;
+        if (dag != null) {
+            runDag(proj, dag, getDag());
+            return;
+        }
+        
         Configuration copy = new Configuration(this.conf); //copy
         for (JobDefine jd : jds) {
             jdr = new JobDefineResolver(copy, jd);
@@ -259,30 +367,221 @@ public class ProjectRunner {
             System.out.println(String.format("[%s]Job starting: %s", DateUtil.currentDate(), jobName));
             System.out.println(PRINT_LINE);
 
-            boolean isSync = jdr.parse("sync", jd.sync());
-            proj.addTotal();
-            if (isSync) {
-                long start = System.currentTimeMillis();
-                boolean result = job.waitForCompletion(true);
-                long spend = System.currentTimeMillis() - start;
-                
-                if(result) {
-                    proj.addCountSuccess();
-                }
-                proj.addSpend(spend);
-                
-                System.out.println(PRINT_LINE);
-                System.out.println(String.format("[%s][%s][%9d]Job finished: %s.", DateUtil.currentDate(), (result ? "S" : "F"), spend, jobName));
-            } else {
-                job.submit();
-                proj.addCountSubmitted();
-                System.out.println(String.format("[%s]Job submited: %s", DateUtil.currentDate(), jobName));
-            }
+            execute(proj, job, jobName, jdr.parse("sync", jd.sync()));
             
             System.out.println(PRINT_LINE);
         }
     }
 
+    /**
+     * 运行或者提交一个job
+     * @param proj
+     * @param job
+     * @param jobName
+     * @param isSync
+     * @return 是否成功，异步提交时为true
+     * @throws ClassNotFoundException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private boolean execute(Project proj, Job job, String jobName, boolean isSync)
+            throws ClassNotFoundException, IOException, InterruptedException {
+        proj.addTotal();
+        if (!isSync) {
+            job.submit();
+            proj.addCountSubmitted();
+            System.out.println(String.format("[%s]Job submited: %s", DateUtil.currentDate(), jobName));
+            return true;
+        }
+        long start = System.currentTimeMillis();
+        Configuration saltedConf = SaltedMergeJob.prepare(job);
+        boolean result = job.waitForCompletion(true);
+        if (result && saltedConf != null) {
+            // 合并热点key的部分结果
+            result = SaltedMergeJob.run(saltedConf, job);
+        }
+        long spend = System.currentTimeMillis() - start;
+        
+        if(result) {
+            proj.addCountSuccess();
+            saveSplitKeyWeights(job);
+            saveHotKeys(job);
+        }
+        proj.addSpend(spend);
+        
+        System.out.println(PRINT_LINE);
+        System.out.println(String.format("[%s][%s][%9d]Job finished: %s.", DateUtil.currentDate(), (result ? "S" : "F"), spend, jobName));
+        return result;
+    }
+
+    /**
+     * 按照依赖关系运行一个项目下的job，最多同时运行limit个。
+     * 
+     * 并发的job之间不能共用conf，每个job使用项目conf的副本，上一个job为jobSeq最大的前置job。
+     * @param proj
+     * @param dag
+     * @param limit
+     * @throws InterruptedException
+     */
+    private void runDag(final Project proj, JobDag dag, int limit) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(limit, new DaemonThreadFactory("dag-" + proj.getName()));
+        CompletionService<JobDag.State> completion = new ExecutorCompletionService<JobDag.State>(executor);
+        Map<Future<JobDag.State>, JobDag.Node> running = new HashMap<Future<JobDag.State>, JobDag.Node>();
+        try {
+            while (true) {
+                for (final JobDag.Node node : dag.ready()) {
+                    if (running.size() >= limit) {
+                        break;
+                    }
+                    final Job lastJob = dag.getLastJob(node);
+                    dag.start(node);
+                    running.put(completion.submit(new Callable<JobDag.State>() {
+                        @Override
+                        public JobDag.State call() throws Exception {
+                            return runNode(proj, node, lastJob);
+                        }
+                    }), node);
+                }
+                if (running.isEmpty()) {
+                    break;
+                }
+                Future<JobDag.State> future = completion.take();
+                JobDag.Node node = running.remove(future);
+                JobDag.State state;
+                try {
+                    state = future.get();
+                } catch (ExecutionException e) {
+                    Logger.warn(String.format("Job failed: %s", node.getName()), e.getCause());
+                    state = JobDag.State.FAILED;
+                }
+                for (JobDag.Node cancelled : dag.finish(node, state)) {
+                    System.out.println(String.format("[%s]Job cancelled: %s, upstream failed: %s", DateUtil.currentDate(),
+                            cancelled.getName(), node.getName()));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println(PRINT_LINE);
+        System.out.println(String.format("[%s]Project(%s) %s", DateUtil.currentDate(), proj.getName(), dag.report()));
+    }
+
+    /**
+     * 构建项目的依赖图，jobSeq重复、依赖不存在或者存在循环依赖时输出警告，按照jobSeq串行运行
+     * @param conf
+     * @param proj
+     * @return 无法构建时为null
+     */
+    private static JobDag createDag(Configuration conf, Project proj) {
+        try {
+            return new JobDag(conf, proj.getJobs());
+        } catch (IllegalArgumentException e) {
+            Logger.warn(String.format("Project(%s) runs in jobSeq order: %s", proj.getName(), e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * 异步运行多个项目，所有项目结束后返回。
+     * @param projs
+     * @throws InterruptedException
+     */
+    private void runAsync(List<Project> projs) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, getThreads()),
+                new DaemonThreadFactory("submit"));
+        JobMonitor monitor = new JobMonitor(getBatch()).start();
+        CountDownLatch done = new CountDownLatch(projs.size());
+        try {
+            for (Project p : projs) {
+                new AsyncPipeline(p, executor, monitor, done).start();
+            }
+            done.await();
+        } finally {
+            monitor.close();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 构建并运行依赖图中的一个job
+     */
+    private JobDag.State runNode(Project proj, JobDag.Node node, Job lastJob)
+            throws ClassNotFoundException, IOException, InterruptedException {
+        JobDefine jd = node.getJobDefine();
+        Configuration copy = new Configuration(this.conf); //copy
+        JobDefineResolver jdr = new JobDefineResolver(copy, jd);
+        JobBuilder jobBuilder = new JobBuilder(copy, jd, this.jco.getRemainingArgs(), jdr, lastJob);
+        if (!jobBuilder.isOk()) {
+            System.out.println("Job init failed: " + JobDefineHelper.getJobDesc(jd));
+            return JobDag.State.FAILED;
+        }
+        String jobName = jobBuilder.getJobDesc();
+        node.setName(jobName);
+        Job job = jobBuilder.build();
+        node.setJob(job);
+        if (job == null) {
+            System.out.println(String.format("[%s]Job ignored: %s", DateUtil.currentDate(), jobName));
+            return JobDag.State.IGNORED;
+        }
+        System.out.println(String.format("[%s]Job starting: %s", DateUtil.currentDate(), jobName));
+        return execute(proj, job, jobName, isSync(jdr, node)) ? JobDag.State.SUCCEEDED : JobDag.State.FAILED;
+    }
+
+    /**
+     * 依赖图中的job是否等待完成：有下游job的异步job也需要等待，否则下游job会在其输出完成之前运行
+     * @param jdr
+     * @param node
+     * @return
+     */
+    private static boolean isSync(JobDefineResolver jdr, JobDag.Node node) {
+        boolean isSync = jdr.parse("sync", node.getJobDefine().sync());
+        if (!isSync && node.hasChildren()) {
+            Logger.warn(String.format("%s is async but has downstream jobs, wait for its completion.", node.getName()));
+            return true;
+        }
+        return isSync;
+    }
+
+    /**
+     * 保存计数器中统计的splitKey权重，供下一次运行分配reducer使用（需要设置Jobs.JOB_SPLITKEY_WEIGHTS_DIR）。
+     * @param job
+     */
+    private void saveSplitKeyWeights(Job job) {
+        Configuration jobConf = job.getConfiguration();
+        if (jobConf.get(Jobs.JOB_SPLITKEY_WEIGHTS_DIR) == null) {
+            return;
+        }
+        try {
+            String weights = SplitKeyWeights.save(jobConf, jobConf.get(Jobs.JOB_CURRENT), job.getCounters());
+            if (weights != null) {
+                Logger.print(String.format("splitKey weights saved(%s): %s", jobConf.get(Jobs.JOB_CURRENT), weights));
+            }
+        } catch (IOException e) {
+            Logger.warn("save splitKey weights failed.", e);
+        }
+    }
+
+    /**
+     * 保存mapper检测到的热点key，供下一次运行打散使用（需要设置Jobs.JOB_SALT_KEYS_DIR）。
+     * @param job
+     */
+    private void saveHotKeys(Job job) {
+        Configuration jobConf = job.getConfiguration();
+        if (jobConf.get(Jobs.JOB_SALT_KEYS_DIR) == null || !Jobs.isSaltEnabled(jobConf)) {
+            return;
+        }
+        try {
+            String keys = HotKeyStore.save(jobConf, jobConf.get(Jobs.JOB_CURRENT), job.getCounters(),
+                    FileOutputFormat.getOutputPath(job));
+            Logger.print(String.format("hot keys saved(%s): %s", jobConf.get(Jobs.JOB_CURRENT), keys));
+        } catch (IOException e) {
+            Logger.warn("save hot keys failed.", e);
+        }
+    }
+
+    /**
+     * job状态的回调
+     */
     public static abstract class JobListener {
         public void jobLoaded(String jobId, String jobName) {
 
@@ -300,4 +599,301 @@ public class ProjectRunner {
 
         }
     }
+
+    /**
+     * 异步运行的一个项目：提交job后返回，job完成时（JobMonitor回调）在提交线程中提交后续的job。
+     * 
+     * 顺序与串行运行相同：sync的job完成后再提交下一个，非sync的job提交后即继续；
+     * 设置了jobs.dag时按照依赖关系提交（见JobDag）。
+     * 
+     * 状态由this保护。
+     */
+    private class AsyncPipeline extends JobListener {
+
+        private final Project proj;
+
+        private final ExecutorService executor;
+
+        private final JobMonitor monitor;
+
+        private final CountDownLatch done;
+
+        private final List<JobDefine> jds;
+
+        /** 项目内共用的conf，按照依赖关系运行时每个job使用各自的副本 */
+        private final Configuration copy;
+
+        /** 按照依赖关系运行，否则（包括无法构建依赖图时）为null */
+        private final JobDag dag;
+
+        private final int limit;
+
+        /** 运行中的sync job，jobId -> job */
+        private final Map<String, Running> running = new HashMap<String, Running>();
+
+        /** 下一个提交的job（按照jobSeq） */
+        private int next;
+
+        private Job lastJob;
+
+        private boolean finished;
+
+        AsyncPipeline(Project proj, ExecutorService executor, JobMonitor monitor, CountDownLatch done) {
+            this.proj = proj;
+            this.executor = executor;
+            this.monitor = monitor;
+            this.done = done;
+            this.jds = proj.getJobs();
+            this.copy = new Configuration(ProjectRunner.this.conf); //copy
+            this.limit = getDag();
+            this.dag = this.limit > 0 && !this.jds.isEmpty() ? createDag(this.copy, proj) : null;
+        }
+
+        void start() {
+            if (this.jds.isEmpty()) {
+                System.out.println(String.format("Project(%s) conatins no jobs.", this.proj.getName()));
+                this.done.countDown();
+                return;
+            }
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    advance();
+                }
+            });
+        }
+
+        /**
+         * 提交可以运行的job
+         */
+        private synchronized void advance() {
+            if (this.finished) {
+                return;
+            }
+            try {
+                if (this.dag != null) {
+                    advanceDag();
+                } else {
+                    advanceSeq();
+                }
+            } catch (Exception e) {
+                Logger.warn(String.format("Project(%s) aborted.", this.proj.getName()), e);
+                finish();
+            }
+        }
+
+        private void advanceSeq() throws ClassNotFoundException, IOException, InterruptedException {
+            while (this.running.isEmpty()) {
+                if (this.next >= this.jds.size()) {
+                    finish();
+                    return;
+                }
+                JobDefine jd = this.jds.get(this.next++);
+                JobDefineResolver jdr = new JobDefineResolver(this.copy, jd);
+                JobBuilder jobBuilder = new JobBuilder(this.copy, jd, jco.getRemainingArgs(), jdr, this.lastJob);
+                if (!jobBuilder.isOk()) {
+                    System.out.println("Job init failed: " + JobDefineHelper.getJobDesc(jd));
+                    continue;
+                }
+                String jobName = jobBuilder.getJobDesc();
+                Job job = jobBuilder.build();
+                this.lastJob = job;// 保留上一个job的引用 ，无论是否为null。
+                if (job == null) {
+                    System.out.println(String.format("[%s]Job ignored: %s", DateUtil.currentDate(), jobName));
+                    continue;
+                }
+                submit(job, jobName, jdr.parse("sync", jd.sync()), null);
+            }
+        }
+
+        private void advanceDag() {
+            boolean started = true;
+            while (started) {
+                started = false;
+                for (JobDag.Node node : this.dag.ready()) {
+                    if (this.running.size() >= this.limit) {
+                        break;
+                    }
+                    started = true;
+                    Job last = this.dag.getLastJob(node);
+                    this.dag.start(node);
+                    JobDag.State state = startNode(node, last);
+                    if (state != JobDag.State.RUNNING) {
+                        finishNode(node, state);
+                    }
+                }
+            }
+            if (this.running.isEmpty()) {
+                System.out.println(PRINT_LINE);
+                System.out.println(String.format("[%s]Project(%s) %s", DateUtil.currentDate(), this.proj.getName(),
+                        this.dag.report()));
+                finish();
+            }
+        }
+
+        /**
+         * 构建并提交依赖图中的一个job
+         * @return 等待完成时为RUNNING
+         */
+        private JobDag.State startNode(JobDag.Node node, Job last) {
+            JobDefine jd = node.getJobDefine();
+            try {
+                Configuration jobConf = new Configuration(ProjectRunner.this.conf); //copy
+                JobDefineResolver jdr = new JobDefineResolver(jobConf, jd);
+                JobBuilder jobBuilder = new JobBuilder(jobConf, jd, jco.getRemainingArgs(), jdr, last);
+                if (!jobBuilder.isOk()) {
+                    System.out.println("Job init failed: " + JobDefineHelper.getJobDesc(jd));
+                    return JobDag.State.FAILED;
+                }
+                String jobName = jobBuilder.getJobDesc();
+                node.setName(jobName);
+                Job job = jobBuilder.build();
+                node.setJob(job);
+                if (job == null) {
+                    System.out.println(String.format("[%s]Job ignored: %s", DateUtil.currentDate(), jobName));
+                    return JobDag.State.IGNORED;
+                }
+                return submit(job, jobName, isSync(jdr, node), node) ? JobDag.State.RUNNING
+                        : JobDag.State.SUCCEEDED;
+            } catch (Exception e) {
+                Logger.warn(String.format("Job failed: %s", node.getName()), e);
+                return JobDag.State.FAILED;
+            }
+        }
+
+        private void finishNode(JobDag.Node node, JobDag.State state) {
+            for (JobDag.Node cancelled : this.dag.finish(node, state)) {
+                System.out.println(String.format("[%s]Job cancelled: %s, upstream failed: %s", DateUtil.currentDate(),
+                        cancelled.getName(), node.getName()));
+            }
+        }
+
+        /**
+         * 提交job，sync的job交给JobMonitor监控
+         * @return 是否等待完成
+         */
+        private boolean submit(Job job, String jobName, boolean isSync, JobDag.Node node)
+                throws ClassNotFoundException, IOException, InterruptedException {
+            this.proj.addTotal();
+            if (!isSync) {
+                job.submit();
+                this.proj.addCountSubmitted();
+                System.out.println(String.format("[%s]Job submited: %s", DateUtil.currentDate(), jobName));
+                return false;
+            }
+            Running r = new Running(job, jobName, node, SaltedMergeJob.prepare(job));
+            job.submit();
+            String jobId = String.valueOf(job.getJobID());
+            this.running.put(jobId, r);
+            jobSubmitted(jobId, jobName);
+            this.monitor.watch(job, jobName, this);
+            return true;
+        }
+
+        @Override
+        public void jobSubmitted(String jobId, String jobName) {
+            System.out.println(String.format("[%s]Job submitted: %s(%s)", DateUtil.currentDate(), jobName, jobId));
+        }
+
+        @Override
+        public void jobSuccessed(String jobId, String jobName) {
+            schedule(jobId, true);
+        }
+
+        @Override
+        public void jobFailed(String jobId, String jobName) {
+            schedule(jobId, false);
+        }
+
+        /**
+         * 在提交线程中处理完成的job，不占用监控线程
+         */
+        private void schedule(final String jobId, final boolean result) {
+            try {
+                this.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        complete(jobId, result);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 已经结束
+            }
+        }
+
+        private synchronized void complete(String jobId, boolean success) {
+            Running r = this.running.remove(jobId);
+            if (r == null) {
+                return;
+            }
+            boolean result = success;
+            if (result && r.saltedConf != null) {
+                // 合并热点key的部分结果，合并任务同样交给JobMonitor监控，不占用提交线程
+                try {
+                    if (r.merge == null) {
+                        r.merge = SaltedMergeJob.submit(r.saltedConf, r.job);
+                        if (r.merge != null) {
+                            String mergeId = String.valueOf(r.merge.getJobID());
+                            this.running.put(mergeId, r);
+                            jobSubmitted(mergeId, r.merge.getJobName());
+                            this.monitor.watch(r.merge, r.merge.getJobName(), this);
+                            return;
+                        }
+                    } else {
+                        SaltedMergeJob.finish(r.saltedConf, r.job);
+                    }
+                } catch (Exception e) {
+                    Logger.warn(String.format("salted merge failed: %s", r.jobName), e);
+                    result = false;
+                }
+            }
+            long spend = System.currentTimeMillis() - r.start;
+            if (result) {
+                this.proj.addCountSuccess();
+                saveSplitKeyWeights(r.job);
+                saveHotKeys(r.job);
+            }
+            this.proj.addSpend(spend);
+            System.out.println(PRINT_LINE);
+            System.out.println(String.format("[%s][%s][%9d]Job finished: %s.", DateUtil.currentDate(),
+                    (result ? "S" : "F"), spend, r.jobName));
+            if (r.node != null && !this.finished) {
+                finishNode(r.node, result ? JobDag.State.SUCCEEDED : JobDag.State.FAILED);
+            }
+            advance();
+        }
+
+        private void finish() {
+            if (!this.finished) {
+                this.finished = true;
+                this.done.countDown();
+            }
+        }
+    }
+
+    /**
+     * 异步运行中的job
+     */
+    private static class Running {
+
+        private final Job job;
+
+        private final String jobName;
+
+        private final JobDag.Node node;
+
+        private final Configuration saltedConf;
+
+        /** 已提交的热点key合并任务，由AsyncPipeline保护 */
+        private Job merge;
+
+        private final long start = System.currentTimeMillis();
+
+        Running(Job job, String jobName, JobDag.Node node, Configuration saltedConf) {
+            this.job = job;
+            this.jobName = jobName;
+            this.node = node;
+            this.saltedConf = saltedConf;
+        }
+    }
 }
@@ -0,0 +1,162 @@
+package com.hadoop.entry;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import com.hadoop.mapreduce.ChildOutputs;
+import com.hadoop.mapreduce.KeySalter;
+import com.hadoop.util.Logger;
+
+/**
+ * 热点key打散的第二阶段：合并各reducer写出的部分结果。
+ *
+ * 使用原任务的配置（reducer、分区、比较器、输出格式等），输入改为部分结果目录，mapper为原样输出，只有1个reducer；
+ * 成功后输出文件加上"salted-"前缀移动到原任务的输出目录，并删除部分结果。
+ *
+ * 部分结果的条数不超过 热点key个数 * reducer个数，因此该任务很轻。
+ *
+ *
+ *
+ */
+public final class SaltedMergeJob {
+
+    /** 合并任务的临时输出目录（相对于原任务的输出目录） */
+    public static final String MERGE_DIR = "_salted_merge";
+
+    /** 合并结果的文件前缀 */
+    public static final String FILE_PREFIX = "salted-";
+
+    private SaltedMergeJob() {
+    }
+
+    /**
+     * 在原任务提交前保存配置（提交后配置中包含该任务的临时路径），未开启打散或者没有reduce时返回null。
+     *
+     * @param job
+     * @return
+     */
+    public static Configuration prepare(Job job) {
+        Configuration conf = job.getConfiguration();
+        if (!Jobs.isSaltEnabled(conf) || job.getNumReduceTasks() == 0) {
+            return null;
+        }
+        return new Configuration(conf);
+    }
+
+    /**
+     * 原任务成功后调用，有部分结果时运行合并任务。
+     *
+     * @param conf prepare保存的配置
+     * @param finished 原任务
+     * @return 合并任务是否成功，没有部分结果时返回true
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws ClassNotFoundException
+     */
+    public static boolean run(Configuration conf, Job finished)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Job job = create(conf, finished);
+        if (job == null) {
+            return true;
+        }
+        if (!job.waitForCompletion(true)) {
+            return false;
+        }
+        finish(conf, finished);
+        return true;
+    }
+
+    /**
+     * 原任务成功后调用，有部分结果时提交合并任务后即返回，由调用方监控；成功后调用finish。
+     *
+     * @param conf prepare保存的配置
+     * @param finished 原任务
+     * @return 已提交的合并任务，没有部分结果时返回null
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws ClassNotFoundException
+     */
+    public static Job submit(Configuration conf, Job finished)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Job job = create(conf, finished);
+        if (job != null) {
+            job.submit();
+        }
+        return job;
+    }
+
+    /**
+     * 合并任务成功后，把合并结果移动到原任务的输出目录，并删除部分结果。
+     *
+     * @param conf prepare保存的配置
+     * @param finished 原任务
+     * @throws IOException
+     */
+    public static void finish(Configuration conf, Job finished) throws IOException {
+        Path output = FileOutputFormat.getOutputPath(finished);
+        Path input = new Path(output, KeySalter.PARTIALS_DIR);
+        Path temp = new Path(output, MERGE_DIR);
+        FileSystem fs = output.getFileSystem(conf);
+        move(fs, temp, output);
+        fs.delete(temp, true);
+        fs.delete(input, true);
+    }
+
+    /**
+     * 创建合并任务
+     * @return 没有部分结果时返回null
+     */
+    private static Job create(Configuration conf, Job finished) throws IOException {
+        Counter partials = finished.getCounters().findCounter(ChildOutputs.COUNTER_GROUP, KeySalter.PARTIALS_PATH);
+        if (partials == null || partials.getValue() == 0) {
+            return null;
+        }
+        Path output = FileOutputFormat.getOutputPath(finished);
+        Path input = new Path(output, KeySalter.PARTIALS_DIR);
+        Path temp = new Path(output, MERGE_DIR);
+
+        conf.setBoolean(Jobs.JOB_SALT_ENABLED, false);
+        conf.unset(MRJobConfig.COMBINE_CLASS_ATTR);
+        Job job = Job.getInstance(conf, finished.getJobName() + "_salted");
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        FileInputFormat.setInputPaths(job, input);
+        job.setMapperClass(Mapper.class);
+        job.setNumReduceTasks(1);
+        FileOutputFormat.setOutputPath(job, temp);
+        Logger.print(String.format("merge %d salted partials of %s.", partials.getValue(), finished.getJobName()));
+        return job;
+    }
+
+    /**
+     * 移动合并结果，保持子目录（ChildOutputs的路径）结构，忽略_SUCCESS等隐藏文件
+     */
+    private static void move(FileSystem fs, Path from, Path to) throws IOException {
+        for (FileStatus status : fs.listStatus(from)) {
+            String name = status.getPath().getName();
+            if (name.startsWith("_") || name.startsWith(".")) {
+                continue;
+            }
+            if (status.isDirectory()) {
+                Path dir = new Path(to, name);
+                fs.mkdirs(dir);
+                move(fs, status.getPath(), dir);
+                continue;
+            }
+            Path target = new Path(to, FILE_PREFIX + name);
+            if (!fs.rename(status.getPath(), target)) {
+                throw new IOException(String.format("failed to move %s to %s.", status.getPath(), target));
+            }
+        }
+    }
+}
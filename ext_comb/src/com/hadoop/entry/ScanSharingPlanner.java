@@ -0,0 +1,597 @@
+package com.hadoop.entry;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+
+import com.hadoop.entry.comb.CombContainer;
+import com.hadoop.io.SplitOutputKey;
+import com.hadoop.mapreduce.Broadcasts;
+import com.hadoop.mapreduce.ContainerKeyMapperImpl;
+import com.hadoop.mapreduce.ContainerKeyReducerImpl;
+import com.hadoop.mapreduce.ContainerResolver;
+import com.hadoop.util.Logger;
+
+/**
+ * 共享扫描：把本次运行的项目中读取相同输入的job合并为一个容器job，输入只读取一次。
+ * 通过-Djobs.fuse=true开启（见ProjectRunner.PARAM_FUSE）。
+ *
+ * 可以合并的job需要满足：
+ * 1、mapper、reducer为容器（containerMappers、containerReducers）或者单个KeyWrappedMapper、KeyWrappedReducer，
+ *    所有子类按照splitKey分发（isFitToOld为false），combiner只能是容器；
+ * 2、使用缺省的路径设置、扩展动作、partitioner和groupingComparator，没有splitKeyWeights、saltKeys、compositeKeySchema，同步运行；
+ * 3、输入不是本次运行的其他job的输出；
+ * 4、输出路径不存在，且不是二进制格式的中间路径（见Jobs.isMidBinary）。
+ *
+ * 输入路径、输入格式和输出设置相同的job为一组，组内子类的splitKey不能重复（重复的job不参与合并）。
+ * 每组生成一个容器job（项目名为FUSED_PROJECT），输出到"/_fused/序号"，reducer个数为组内之和。
+ * 每个原job的子类通过ChildOutputs写入合并job输出下的"项目名.jobSeq"目录（见Jobs.JOB_FUSED_ROUTES），
+ * 内容与原job的输出一致；合并job成功后由publish移动到原job的输出路径，下游job不需要改动。
+ *
+ *
+ *
+ */
+public class ScanSharingPlanner {
+
+    /** 合并job的项目名称 */
+    public static final String FUSED_PROJECT = "fused";
+
+    /** 合并job的输出路径 */
+    private static final String FUSED_OUTPUT = "/_fused/%d";
+
+    /** 输出分隔线 */
+    private static final String PRINT_LINE = "================================================================";
+
+    /** 上下文，子类的输出路由写入其中 */
+    private final Configuration conf;
+
+    /** 合并job及其组内的job，见publish */
+    private final Map<JobDefine, List<Member>> fused = new LinkedHashMap<JobDefine, List<Member>>();
+
+    public ScanSharingPlanner(Configuration conf) {
+        this.conf = conf;
+    }
+
+    /**
+     * 生成并输出合并计划：从原项目中移除被合并的job，设置子类到原job输出目录的路由。
+     *
+     * @param projects
+     * @return 合并job组成的项目，没有可以合并的job时返回null
+     */
+    public Project plan(List<Project> projects) {
+        List<Member> all = new ArrayList<Member>();
+        for (Project proj : projects) {
+            for (JobDefine jd : proj.getJobs()) {
+                all.add(new Member(proj, jd, new JobDefineResolver(this.conf, jd)));
+            }
+        }
+        for (Member member : all) {
+            member.reason = check(member, all);
+        }
+
+        // 按照输入和输出设置分组
+        Map<String, List<Member>> candidates = new LinkedHashMap<String, List<Member>>();
+        for (Member member : all) {
+            if (member.reason != null) {
+                continue;
+            }
+            List<Member> list = candidates.get(member.groupKey);
+            if (list == null) {
+                list = new ArrayList<Member>();
+                candidates.put(member.groupKey, list);
+            }
+            list.add(member);
+        }
+        List<List<Member>> groups = new ArrayList<List<Member>>();
+        for (List<Member> list : candidates.values()) {
+            List<Member> group = select(list);
+            if (group.size() > 1) {
+                groups.add(group);
+            } else {
+                for (Member member : group) {
+                    member.reason = "no other job reads the same input";
+                }
+            }
+        }
+
+        System.out.println(PRINT_LINE);
+        if (groups.isEmpty()) {
+            System.out.println("Scan sharing: no jobs to fuse.");
+            printExcluded(all);
+            System.out.println(PRINT_LINE);
+            return null;
+        }
+        List<JobDefine> fused = new LinkedList<JobDefine>();
+        long saved = 0;
+        boolean unknown = false;
+        for (List<Member> group : groups) {
+            int seq = fused.size();
+            String outputPath = String.format(FUSED_OUTPUT, seq);
+            JobDefine jd = createJobDefine(seq, outputPath, group);
+            fused.add(jd);
+            this.fused.put(jd, group);
+            setRoutes(seq, group);
+            long bytes = getInputBytes(group.get(0).input);
+            if (bytes < 0) {
+                unknown = true;
+            } else {
+                saved += bytes * (group.size() - 1);
+            }
+            System.out.println(String.format("Scan sharing: %s.%d -> %s, input: %s, bytes: %d, saved: %s",
+                    FUSED_PROJECT, seq, outputPath, group.get(0).input, bytes,
+                    bytes < 0 ? "unknown" : String.valueOf(bytes * (group.size() - 1))));
+            for (Member member : group) {
+                member.project.getJobs().remove(member.jd);
+                System.out.println(String.format("    %s, mapKeys: %s, reduceKeys: %s, reducers: %d, output: %s",
+                        JobDefineHelper.getJobDesc(member.jd), member.mapKeys, member.reduceKeys, member.reduces,
+                        member.output));
+            }
+        }
+        printExcluded(all);
+        System.out.println(String.format("Scan sharing: %d fused jobs, %s bytes read saved%s.", fused.size(), saved,
+                unknown ? " at least" : ""));
+        System.out.println(PRINT_LINE);
+        return new Project(FUSED_PROJECT, fused);
+    }
+
+    /**
+     * 检查job是否可以合并
+     * @return 不能合并的原因，可以合并时为null
+     */
+    @SuppressWarnings("rawtypes")
+    private String check(Member member, List<Member> all) {
+        JobDefine jd = member.jd;
+        JobDefineResolver jdr = member.jdr;
+        if (jd.jobPathResolver() != JobPathResolverImpl.class || jd.extAction() != JobExtActionImpl.class) {
+            return "custom jobPathResolver or extAction";
+        }
+        member.inputPath = jdr.parse("inputPath", jd.inputPath());
+        member.input = Jobs.getInput(this.conf) + normalize(member.inputPath);
+        member.output = JobPathResolverImpl.getOutputPath(this.conf, jd);
+        if (!jdr.parse("sync", jd.sync())) {
+            return "async job";
+        }
+        if (!JobDefineHelper.isDefaultPartitionerClass(jd) || !JobDefineHelper.isDefaultGroupingComparatorClass(jd)
+                || !JobDefineHelper.isDefaultCombinerClass(jd)) {
+            return "custom partitioner, groupingComparator or combiner";
+        }
+        if (!jdr.parse("splitKeyWeights", jd.splitKeyWeights()).isEmpty()
+                || !jdr.parse("saltKeys", jd.saltKeys()).isEmpty()
+                || !jdr.parse("compositeKeySchema", jd.compositeKeySchema()).isEmpty()) {
+            return "splitKeyWeights, saltKeys or compositeKeySchema defined";
+        }
+        if (jdr.parseClass("mapOutputKeyClass", jd.mapOutputKeyClass()) != SplitOutputKey.class
+                || jdr.parseClass("mapOutputValueClass", jd.mapOutputValueClass()) != Text.class
+                || jdr.parseClass("outputKeyClass", jd.outputKeyClass()) != Text.class
+                || jdr.parseClass("outputValueClass", jd.outputValueClass()) != Text.class) {
+            return "map output is not SplitOutputKey/Text or output is not Text/Text";
+        }
+        try {
+            member.broadcasts = Broadcasts.parse(jdr.parse("broadcasts", jd.broadcasts()));
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        String reason = resolveMappers(member);
+        if (reason != null) {
+            return reason;
+        }
+        member.reduces = jdr.parse("numReduceTasks", jd.numReduceTasks());
+        if (member.reduces > 0) {
+            Class<? extends Reducer> reducer = jdr.parseReducer(jd.reducerClass());
+            List<Class<?>> reducers = JobDefineHelper.isDefaultReducerClass(reducer)
+                    || reducer == ContainerKeyReducerImpl.class
+                            ? containerClasses(jdr, "containerReducers", jd.containerReducers(),
+                                    ContainerKeyReducerImpl.class)
+                            : Arrays.<Class<?>> asList(reducer);
+            if (reducers == null || reducers.isEmpty()) {
+                return "reducers are not splitKey dispatched";
+            }
+            member.reducers = reducers;
+            if (!collectKeys(reducers, member.reduceKeys)) {
+                return "reducers are not splitKey dispatched";
+            }
+            List<Class<?>> combiners = containerClasses(jdr, "containerCombiners", jd.containerCombiners(), null);
+            if (combiners == null) {
+                return "combiners are not splitKey dispatched";
+            }
+            member.combiners = combiners;
+            if (!collectKeys(combiners, member.combineKeys)) {
+                return "combiners are not splitKey dispatched";
+            }
+        }
+
+        // 合并job在所有项目之前运行，不能读取其他job的输出
+        for (Member other : all) {
+            String output = other.jdr.parse("outputPath", other.jd.outputPath());
+            if (other == member) {
+                continue;
+            }
+            if (JobDag.isPathMatched(member.inputPath, output)) {
+                return "input is written by " + JobDefineHelper.getJobDesc(other.jd);
+            }
+            for (String path : member.broadcasts.values()) {
+                if (JobDag.isPathMatched(path, output)) {
+                    return "broadcast is written by " + JobDefineHelper.getJobDesc(other.jd);
+                }
+            }
+        }
+        // 输出由publish移动到原路径，二进制的中间路径使用不同的输出格式
+        if (Jobs.isMidBinary(this.conf) && Jobs.isOutputMid(this.conf, member.output)) {
+            return "binary mid output";
+        }
+        if (exists(member.output)) {
+            return "output exists";
+        }
+
+        Class<? extends InputFormat> inputFormat = jdr.parseInputFormat(jd.inputFormatClass());
+        member.groupKey = Arrays.asList(member.input, inputFormat.getName(), jd.inputDirRecursive(), member.reduces > 0,
+                jd.outputFormatClass().getName(), jdr.parse("compressOutput", jd.compressOutput()),
+                jdr.parseOutputCompressorClass(jd.outputCompressorClass()).getName(),
+                jdr.parse("lazyOutputEnabled", jd.lazyOutputEnabled()), jdr.parse("countersEnabled", jd.countersEnabled()),
+                jd.outputMapreduceSeparator()).toString();
+        member.inputFormat = inputFormat;
+        return null;
+    }
+
+    /**
+     * 解析mapper子类及其splitKey
+     * @return 不能按照splitKey分发的原因
+     */
+    @SuppressWarnings("rawtypes")
+    private String resolveMappers(Member member) {
+        Class<? extends Mapper> mapper = member.jdr.parseMapper(member.jd.mapperClass());
+        List<Class<?>> mappers = JobDefineHelper.isDefaultMapperClass(mapper) || mapper == ContainerKeyMapperImpl.class
+                ? containerClasses(member.jdr, "containerMappers", member.jd.containerMappers(),
+                        ContainerKeyMapperImpl.class)
+                : Arrays.<Class<?>> asList(mapper);
+        member.mapKeys.clear();
+        if (mappers == null || mappers.isEmpty() || !collectKeys(mappers, member.mapKeys)) {
+            member.mapKeys.clear();
+            return "mappers are not splitKey dispatched";
+        }
+        member.mappers = mappers;
+        return null;
+    }
+
+    /**
+     * 容器管理的子类，运行参数优先
+     *
+     * @param container 容器实现，通过-Dcontainer.containerName设置了子类时返回null（对所有job生效，无法区分）
+     * @return 没有定义时为空，加载失败时为null
+     */
+    private List<Class<?>> containerClasses(JobDefineResolver jdr, String name, Class<?>[] defined, Class<?> container) {
+        if (container != null) {
+            CombContainer c = container.getAnnotation(CombContainer.class);
+            if (c != null && this.conf.get(String.format(ContainerResolver.JOB_PARAM_PREFIX_GLOBAL, c.name())) != null) {
+                return null;
+            }
+        }
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        String value = jdr.parseContainerClasses(name, null);
+        if (value != null) {
+            for (String item : value.split(",")) {
+                Class<?> clazz = ClassFinder.loadClass(item.trim());
+                if (clazz == null) {
+                    return null;
+                }
+                classes.add(clazz);
+            }
+        } else if (!ContainerResolver.isUndefined(defined)) {
+            classes.addAll(Arrays.asList(defined));
+        }
+        return classes;
+    }
+
+    /**
+     * 实例化子类获取splitKey
+     * @return 全部按照splitKey分发且不重复时为true
+     */
+    private boolean collectKeys(List<Class<?>> classes, Set<Integer> keys) {
+        for (Class<?> clazz : classes) {
+            Object child = ClassFinder.newInstance(clazz);
+            if (!ContainerResolver.isDispatchable(child)) {
+                return false;
+            }
+            if (!keys.add(((JobOutputSplitKey) child).getOutputSplitKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 在一组候选中选出可以合并的job：splitKey和广播名称不冲突
+     */
+    private List<Member> select(List<Member> list) {
+        List<Member> group = new ArrayList<Member>();
+        Set<Integer> mapKeys = new HashSet<Integer>();
+        Set<Integer> reduceKeys = new HashSet<Integer>();
+        Set<Integer> combineKeys = new HashSet<Integer>();
+        Map<String, String> broadcasts = new HashMap<String, String>();
+        for (Member member : list) {
+            if (intersects(mapKeys, member.mapKeys) || intersects(reduceKeys, member.reduceKeys)
+                    || intersects(combineKeys, member.combineKeys)) {
+                member.reason = "splitKey conflict";
+                continue;
+            }
+            String conflict = null;
+            for (Map.Entry<String, String> entry : member.broadcasts.entrySet()) {
+                String path = broadcasts.get(entry.getKey());
+                if (path != null && !path.equals(entry.getValue())) {
+                    conflict = entry.getKey();
+                }
+            }
+            if (conflict != null) {
+                member.reason = "broadcast conflict: " + conflict;
+                continue;
+            }
+            group.add(member);
+            mapKeys.addAll(member.mapKeys);
+            reduceKeys.addAll(member.reduceKeys);
+            combineKeys.addAll(member.combineKeys);
+            broadcasts.putAll(member.broadcasts);
+        }
+        return group;
+    }
+
+    private static boolean intersects(Set<Integer> a, Set<Integer> b) {
+        for (Integer value : b) {
+            if (a.contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 组内job的子类写入合并job输出下的"项目名.jobSeq"目录
+     */
+    private void setRoutes(int seq, List<Member> group) {
+        StringBuilder sb = new StringBuilder();
+        for (Member member : group) {
+            member.dir = String.format("%s.%d", member.jd.project(), member.jd.jobSeq());
+            List<Class<?>> children = new ArrayList<Class<?>>(member.mappers);
+            children.addAll(member.reducers);
+            for (Class<?> child : children) {
+                sb.append(sb.length() == 0 ? "" : ",").append(child.getName()).append('=').append(member.dir);
+            }
+        }
+        this.conf.set(String.format("%s.%s.%d", Jobs.JOB_FUSED_ROUTES, FUSED_PROJECT, seq), sb.toString());
+    }
+
+    /**
+     * 合并job运行后，把每个job的输出目录移动到其原来的输出路径，没有数据时创建空目录。
+     * 合并job失败时不移动，与原job失败时一样，下游job找不到输入。
+     *
+     * @throws IOException
+     */
+    public void publish() throws IOException {
+        boolean marked = this.conf.getBoolean(FileOutputCommitter.SUCCESSFUL_JOB_OUTPUT_DIR_MARKER, true);
+        for (Map.Entry<JobDefine, List<Member>> entry : this.fused.entrySet()) {
+            Path output = new Path(JobPathResolverImpl.getOutputPath(this.conf, entry.getKey()));
+            FileSystem fs = output.getFileSystem(this.conf);
+            if (!fs.exists(marked ? new Path(output, FileOutputCommitter.SUCCEEDED_FILE_NAME) : output)) {
+                Logger.warn(String.format("%s failed, outputs not published.", output));
+                continue;
+            }
+            for (Member member : entry.getValue()) {
+                Path from = new Path(output, member.dir);
+                Path to = new Path(member.output);
+                if (fs.exists(to)) {
+                    Logger.warn(String.format("%s exists, output of %s not published.", to,
+                            JobDefineHelper.getJobDesc(member.jd)));
+                    continue;
+                }
+                fs.mkdirs(to.getParent());
+                if (!fs.exists(from)) {
+                    fs.mkdirs(to);
+                } else if (!fs.rename(from, to)) {
+                    throw new IOException(String.format("failed to move %s to %s.", from, to));
+                }
+                if (marked) {
+                    fs.create(new Path(to, FileOutputCommitter.SUCCEEDED_FILE_NAME)).close();
+                }
+                Logger.print(String.format("Scan sharing: published %s to %s.", from, to));
+            }
+        }
+    }
+
+    private boolean exists(String path) {
+        try {
+            Path p = new Path(path);
+            return p.getFileSystem(this.conf).exists(p);
+        } catch (IOException e) {
+            Logger.warn(String.format("failed to check %s.", path), e);
+            return true;
+        }
+    }
+
+    private static String normalize(String path) {
+        String value = path.trim();
+        while (value.endsWith("/")) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return value;
+    }
+
+    private void printExcluded(List<Member> all) {
+        Map<String, Integer> inputs = new HashMap<String, Integer>();
+        for (Member member : all) {
+            if (member.input != null) {
+                Integer count = inputs.get(member.input);
+                inputs.put(member.input, count == null ? 1 : count + 1);
+            }
+        }
+        for (Member member : all) {
+            // 只输出与其他job读取相同输入的
+            if (member.reason != null && member.input != null && inputs.get(member.input) > 1) {
+                System.out.println(String.format("    not fused %s: %s", JobDefineHelper.getJobDesc(member.jd),
+                        member.reason));
+            }
+        }
+    }
+
+    /**
+     * 输入的字节数
+     * @return 无法获取时返回-1
+     */
+    private long getInputBytes(String input) {
+        try {
+            Path path = new Path(input);
+            FileSystem fs = path.getFileSystem(this.conf);
+            FileStatus[] statuses = fs.globStatus(path);
+            long bytes = 0;
+            if (statuses != null) {
+                for (FileStatus status : statuses) {
+                    bytes += fs.getContentSummary(status.getPath()).getLength();
+                }
+            }
+            return bytes;
+        } catch (IOException e) {
+            Logger.warn(String.format("failed to get size of %s.", input), e);
+            return -1;
+        }
+    }
+
+    /**
+     * 生成合并job的定义，未覆盖的属性与组内第一个job相同
+     */
+    private JobDefine createJobDefine(final int seq, String outputPath, List<Member> group) {
+        final Member first = group.get(0);
+        final Map<String, Object> values = new HashMap<String, Object>();
+        List<Class<?>> mappers = new ArrayList<Class<?>>();
+        List<Class<?>> combiners = new ArrayList<Class<?>>();
+        List<Class<?>> reducers = new ArrayList<Class<?>>();
+        Map<String, String> broadcasts = new LinkedHashMap<String, String>();
+        int reduces = 0;
+        for (Member member : group) {
+            mappers.addAll(member.mappers);
+            combiners.addAll(member.combiners);
+            reducers.addAll(member.reducers);
+            broadcasts.putAll(member.broadcasts);
+            reduces += member.reduces;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : broadcasts.entrySet()) {
+            sb.append(sb.length() == 0 ? "" : ",").append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        values.put("project", FUSED_PROJECT);
+        values.put("jobSeq", seq);
+        values.put("jobDesc", "");
+        values.put("sync", true);
+        values.put("dependsOn", new int[0]);
+        values.put("inputPath", first.inputPath);
+        values.put("outputPath", outputPath);
+        values.put("inputFormatClass", first.inputFormat);
+        values.put("mapperClass", Mapper.class);
+        values.put("combinerClass", Reducer.class);
+        values.put("reducerClass", Reducer.class);
+        values.put("containerMappers", toArray(mappers));
+        values.put("containerCombiners", toArray(combiners));
+        values.put("containerReducers", toArray(reducers));
+        values.put("numReduceTasks", reduces);
+        values.put("broadcasts", sb.toString());
+        values.put("compressOutput", first.jdr.parse("compressOutput", first.jd.compressOutput()));
+        values.put("outputCompressorClass", first.jdr.parseOutputCompressorClass(first.jd.outputCompressorClass()));
+        // 数据都写入子类的路由，主输出为空
+        values.put("lazyOutputEnabled", true);
+        values.put("countersEnabled", first.jdr.parse("countersEnabled", first.jd.countersEnabled()));
+        return (JobDefine) Proxy.newProxyInstance(JobDefine.class.getClassLoader(), new Class<?>[] { JobDefine.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("annotationType".equals(name)) {
+                            return JobDefine.class;
+                        } else if ("equals".equals(name)) {
+                            return proxy == args[0];
+                        } else if ("hashCode".equals(name)) {
+                            return System.identityHashCode(proxy);
+                        } else if ("toString".equals(name)) {
+                            return String.format("@%s(%s.%d)", JobDefine.class.getName(), FUSED_PROJECT, seq);
+                        } else if (values.containsKey(name)) {
+                            return values.get(name);
+                        }
+                        return method.invoke(first.jd, args);
+                    }
+                });
+    }
+
+    private static Class<?>[] toArray(List<Class<?>> classes) {
+        return classes.isEmpty() ? new Class<?>[] { Object.class } : classes.toArray(new Class<?>[classes.size()]);
+    }
+
+    /**
+     * 参与计划的job
+     */
+    private static class Member {
+
+        private final Project project;
+
+        private final JobDefine jd;
+
+        private final JobDefineResolver jdr;
+
+        /** 不能合并的原因 */
+        private String reason;
+
+        /** 分组的依据 */
+        private String groupKey;
+
+        private String inputPath;
+
+        /** 解析后的输入路径 */
+        private String input;
+
+        /** 解析后的输出路径 */
+        private String output;
+
+        /** 在合并job输出中的目录 */
+        private String dir;
+
+        @SuppressWarnings("rawtypes")
+        private Class<? extends InputFormat> inputFormat;
+
+        private int reduces;
+
+        private List<Class<?>> mappers = new ArrayList<Class<?>>();
+
+        private List<Class<?>> combiners = new ArrayList<Class<?>>();
+
+        private List<Class<?>> reducers = new ArrayList<Class<?>>();
+
+        private final Set<Integer> mapKeys = new HashSet<Integer>();
+
+        private final Set<Integer> combineKeys = new HashSet<Integer>();
+
+        private final Set<Integer> reduceKeys = new HashSet<Integer>();
+
+        private Map<String, String> broadcasts = new HashMap<String, String>();
+
+        Member(Project project, JobDefine jd, JobDefineResolver jdr) {
+            this.project = project;
+            this.jd = jd;
+            this.jdr = jdr;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.hadoop.entry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+
+import com.hadoop.mapreduce.ChildCost;
+import com.hadoop.mapreduce.SplitKeyLayout;
+import com.hadoop.plat.util.BytesUtil;
+import com.hadoop.util.Logger;
+
+/**
+ * splitKey权重的来源：JobDefine中的配置，或者上一次运行时容器子类输出的计数器。
+ *
+ * 上一次运行的权重保存在 Jobs.JOB_SPLITKEY_WEIGHTS_DIR/任务标识（project.jobSeq）中，
+ * 取值为各子类计数器 MAP_OUTPUT_BYTES_SPLITKEY_* 按照splitKey的汇总（见ChildCost）。
+ *
+ *
+ *
+ */
+public final class SplitKeyWeights {
+
+    private SplitKeyWeights() {
+    }
+
+    /**
+     * 从计数器汇总每个splitKey的map输出字节数，忽略splitKey 0
+     *
+     * @param counters
+     * @return
+     */
+    public static Map<Integer, Long> fromCounters(Counters counters) {
+        Map<Integer, Long> weights = new TreeMap<Integer, Long>();
+        for (CounterGroup group : counters) {
+            for (Counter counter : group) {
+                String name = counter.getName();
+                if (!name.startsWith(ChildCost.COUNTER_OUTPUT_BYTES)) {
+                    continue;
+                }
+                int splitKey;
+                try {
+                    splitKey = Integer.parseInt(name.substring(ChildCost.COUNTER_OUTPUT_BYTES.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (splitKey == 0) {
+                    continue; // 无区分标识（如FitKeyMapper）的数据分配到全部reducer，不参与布局
+                }
+                Long value = weights.get(splitKey);
+                weights.put(splitKey, (value == null ? 0 : value) + counter.getValue());
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * 确定当前任务使用的权重：优先使用上一次运行保存的权重，其次为JobDefine中的配置。
+     *
+     * @param conf
+     * @param jobCurrent 任务标识
+     * @param defined JobDefine中的配置
+     * @return 没有权重时返回null
+     */
+    public static String resolve(Configuration conf, String jobCurrent, String defined) {
+        String saved = null;
+        try {
+            saved = load(conf, jobCurrent);
+        } catch (IOException e) {
+            Logger.warn("load splitKey weights failed: " + jobCurrent, e);
+        }
+        if (saved != null && !saved.trim().isEmpty()) {
+            return saved.trim();
+        }
+        if (defined != null && !defined.trim().isEmpty()) {
+            return defined.trim();
+        }
+        return null;
+    }
+
+    /**
+     * 读取上一次运行保存的权重
+     *
+     * @param conf
+     * @param jobCurrent
+     * @return 没有配置目录或者文件不存在时返回null
+     * @throws IOException
+     */
+    public static String load(Configuration conf, String jobCurrent) throws IOException {
+        Path path = getPath(conf, jobCurrent);
+        if (path == null) {
+            return null;
+        }
+        FileSystem fs = path.getFileSystem(conf);
+        if (!fs.exists(path)) {
+            return null;
+        }
+        InputStream in = fs.open(path);
+        try {
+            return new String(IOUtils.toByteArray(in), BytesUtil.UTF8);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * 保存任务的计数器中统计的权重，没有配置目录或者没有相关计数器时忽略。
+     *
+     * @param conf
+     * @param jobCurrent
+     * @param counters
+     * @return 保存的权重，没有保存时返回null
+     * @throws IOException
+     */
+    public static String save(Configuration conf, String jobCurrent, Counters counters) throws IOException {
+        Path path = getPath(conf, jobCurrent);
+        if (path == null || counters == null) {
+            return null;
+        }
+        Map<Integer, Long> weights = fromCounters(counters);
+        if (weights.isEmpty()) {
+            return null;
+        }
+        String value = SplitKeyLayout.formatWeights(weights);
+        OutputStream out = path.getFileSystem(conf).create(path, true);
+        try {
+            out.write(BytesUtil.toBytes(value));
+        } finally {
+            out.close();
+        }
+        return value;
+    }
+
+    private static Path getPath(Configuration conf, String jobCurrent) {
+        String dir = conf.get(Jobs.JOB_SPLITKEY_WEIGHTS_DIR);
+        if (dir == null || dir.trim().isEmpty() || jobCurrent == null) {
+            return null;
+        }
+        return new Path(dir.trim(), jobCurrent);
+    }
+}
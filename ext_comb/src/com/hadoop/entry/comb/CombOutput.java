@@ -0,0 +1,57 @@
+package com.hadoop.entry.comb;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.mapreduce.OutputFormat;
+
+/**
+ * 容器子类的独立输出定义，容器开启输出路由（-Dcontainer.containerName.route=true）时使用，见ChildOutputs。
+ * 
+ * 未定义时使用缺省值：路径为"子类简单类名/part"，格式、压缩和输出类型与job一致。
+ * 
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({java.lang.annotation.ElementType.TYPE})
+public @interface CombOutput {
+
+    /**
+     * 相对于job输出目录的文件前缀，如 "user/part"，缺省为"子类简单类名/part"。
+     * @return
+     */
+    String path() default "";
+
+    /**
+     * 输出格式，缺省与job一致
+     * @return
+     */
+    @SuppressWarnings("rawtypes")
+    Class<? extends OutputFormat> format() default OutputFormat.class;
+
+    /**
+     * 是否压缩，为false时不压缩；为true时使用codec，codec未定义时与job一致。
+     * @return
+     */
+    boolean compress() default true;
+
+    /**
+     * 压缩实现类，缺省与job一致
+     * @return
+     */
+    Class<? extends CompressionCodec> codec() default CompressionCodec.class;
+
+    /**
+     * 输出key类型，缺省与job一致
+     * @return
+     */
+    Class<?> keyClass() default Object.class;
+
+    /**
+     * 输出value类型，缺省与job一致
+     * @return
+     */
+    Class<?> valueClass() default Object.class;
+}
@@ -0,0 +1,210 @@
+package com.hadoop.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.hadoop.plat.util.BytesUtil;
+
+/**
+ * 多字段的key，字段类型为int、long、String、byte[]，字段定义见CompositeKeySchema。
+ *
+ * 使用方式（不需要为每个job实现比较器）：
+ * JobDefine中设置 mapOutputKeyClass = CompositeKey.class，compositeKeySchema = "int,string,long:desc"，
+ * 二次排序时再设置 compositeKeyGroupFields = 2，groupingComparatorClass = CompositeKeyGroupingComparator.class，
+ * partitionerClass = CompositeKeyPartitioner.class；排序比较器由JobBuilder设置为CompositeKeyComparator。
+ *
+ * 写入时按照值的类型序列化，不需要字段定义；读取和比较时需要从配置中获取字段定义。
+ *
+ *
+ *
+ */
+public class CompositeKey implements WritableComparable<CompositeKey>, Configurable {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private Configuration conf;
+
+    /** 字段定义，没有配置时比较按照升序 */
+    private CompositeKeySchema schema;
+
+    private Object[] values = EMPTY;
+
+    public CompositeKey() {
+    }
+
+    public CompositeKey(CompositeKeySchema schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * 复用当前对象，设置全部字段
+     *
+     * @param values
+     * @return
+     */
+    public CompositeKey set(Object... values) {
+        if (this.schema != null && values.length != this.schema.size()) {
+            throw new IllegalArgumentException(String.format("composite key needs %d fields, but %d.",
+                    this.schema.size(), values.length));
+        }
+        for (int i = 0; i < values.length; i++) {
+            int type = CompositeKeySchema.typeOf(values[i]);
+            if (this.schema != null && this.schema.getType(i) != type) {
+                throw new IllegalArgumentException(String.format("illegal type of field %d in schema %s: %s.", i,
+                        this.schema, values[i].getClass().getName()));
+            }
+        }
+        this.values = values.clone();
+        return this;
+    }
+
+    public Object get(int field) {
+        return this.values[field];
+    }
+
+    public int getInt(int field) {
+        return (Integer) this.values[field];
+    }
+
+    public long getLong(int field) {
+        return (Long) this.values[field];
+    }
+
+    public String getString(int field) {
+        return (String) this.values[field];
+    }
+
+    public byte[] getBytes(int field) {
+        return (byte[]) this.values[field];
+    }
+
+    public int size() {
+        return this.values.length;
+    }
+
+    public CompositeKeySchema getSchema() {
+        return this.schema;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        if (conf != null && conf.get(CompositeKeySchema.SCHEMA) != null) {
+            this.schema = CompositeKeySchema.get(conf);
+        }
+    }
+
+    @Override
+    public Configuration getConf() {
+        return this.conf;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        for (Object value : this.values) {
+            switch (CompositeKeySchema.typeOf(value)) {
+            case CompositeKeySchema.INT:
+                WritableUtils.writeVInt(out, (Integer) value);
+                break;
+            case CompositeKeySchema.LONG:
+                WritableUtils.writeVLong(out, (Long) value);
+                break;
+            case CompositeKeySchema.STRING:
+                byte[] utf8 = BytesUtil.toBytes((String) value);
+                WritableUtils.writeVInt(out, utf8.length);
+                out.write(utf8);
+                break;
+            default:
+                byte[] bytes = (byte[]) value;
+                WritableUtils.writeVInt(out, bytes.length);
+                out.write(bytes);
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        if (this.schema == null) {
+            throw new IOException(String.format("%s is not set.", CompositeKeySchema.SCHEMA));
+        }
+        int size = this.schema.size();
+        if (this.values.length != size) {
+            this.values = new Object[size];
+        }
+        for (int i = 0; i < size; i++) {
+            switch (this.schema.getType(i)) {
+            case CompositeKeySchema.INT:
+                this.values[i] = WritableUtils.readVInt(in);
+                break;
+            case CompositeKeySchema.LONG:
+                this.values[i] = WritableUtils.readVLong(in);
+                break;
+            case CompositeKeySchema.STRING:
+                byte[] utf8 = new byte[WritableUtils.readVInt(in)];
+                in.readFully(utf8);
+                this.values[i] = new String(utf8, BytesUtil.UTF8);
+                break;
+            default:
+                byte[] bytes = new byte[WritableUtils.readVInt(in)];
+                in.readFully(bytes);
+                this.values[i] = bytes;
+                break;
+            }
+        }
+    }
+
+    @Override
+    public int compareTo(CompositeKey other) {
+        int fields = Math.min(size(), other.size());
+        if (this.schema != null) {
+            int result = this.schema.compare(this, other, fields);
+            return result != 0 ? result : Integer.compare(size(), other.size());
+        }
+        for (int i = 0; i < fields; i++) {
+            int result = CompositeKeySchema.compareValue(this.values[i], other.values[i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(size(), other.size());
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return (other instanceof CompositeKey) && compareTo((CompositeKey) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return CompositeKeySchema.hash(this, size());
+    }
+
+    /**
+     * 字段以"|"分隔，byte[]输出为16进制
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.values.length; i++) {
+            if (i > 0) {
+                sb.append('|');
+            }
+            Object value = this.values[i];
+            if (value instanceof byte[]) {
+                for (byte b : (byte[]) value) {
+                    sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package com.hadoop.io;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * CompositeKey的排序比较器，按照字段定义在序列化后的字节上逐个字段比较，不反序列化。
+ *
+ * 字段定义在setConf时从CompositeKeySchema.SCHEMA读取。
+ *
+ */
+public class CompositeKeyComparator extends WritableComparator {
+
+    protected CompositeKeySchema schema;
+
+    /** 参与比较的字段个数 */
+    protected int fields;
+
+    public CompositeKeyComparator() {
+        super(CompositeKey.class);
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        super.setConf(conf);
+        if (conf != null) {
+            this.schema = CompositeKeySchema.get(conf);
+            this.fields = getFields(conf);
+        }
+    }
+
+    /**
+     * 参与比较的字段个数，排序时为全部字段。
+     * @param conf
+     * @return
+     */
+    protected int getFields(Configuration conf) {
+        return this.schema.size();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public int compare(WritableComparable o1, WritableComparable o2) {
+        return this.schema.compare((CompositeKey) o1, (CompositeKey) o2, this.fields);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        return this.schema.compare(b1, s1, b2, s2, this.fields);
+    }
+}
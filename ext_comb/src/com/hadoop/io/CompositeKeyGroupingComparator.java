@@ -0,0 +1,15 @@
+package com.hadoop.io;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * CompositeKey的分组比较器，只比较前CompositeKeySchema.GROUP_FIELDS个字段。
+ *
+ */
+public class CompositeKeyGroupingComparator extends CompositeKeyComparator {
+
+    @Override
+    protected int getFields(Configuration conf) {
+        return this.schema.getFields(conf, CompositeKeySchema.GROUP_FIELDS);
+    }
+}
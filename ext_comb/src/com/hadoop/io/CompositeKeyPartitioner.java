@@ -0,0 +1,35 @@
+package com.hadoop.io;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * 按照CompositeKey前几个字段的hash分区，字段个数为CompositeKeySchema.PARTITION_FIELDS，
+ * 缺省与分组字段一致，保证同一分组进入同一个reducer。
+ *
+ */
+public class CompositeKeyPartitioner extends Partitioner<CompositeKey, Object> implements Configurable {
+
+    private Configuration conf;
+
+    private int fields = -1;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        this.fields = conf != null && conf.get(CompositeKeySchema.SCHEMA) != null
+                ? CompositeKeySchema.get(conf).getFields(conf, CompositeKeySchema.PARTITION_FIELDS) : -1;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return this.conf;
+    }
+
+    @Override
+    public int getPartition(CompositeKey key, Object value, int numPartitions) {
+        int hash = CompositeKeySchema.hash(key, this.fields < 0 ? key.size() : Math.min(this.fields, key.size()));
+        return (hash & Integer.MAX_VALUE) % numPartitions;
+    }
+}
@@ -0,0 +1,313 @@
+package com.hadoop.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * CompositeKey的字段定义，以及按照字段定义在序列化字节上的比较。
+ *
+ * 文本格式为逗号分隔的字段类型，类型后可以跟":desc"表示降序（缺省升序），如 "int,string,long:desc"。
+ * 字段类型及序列化格式：
+ * int   - vint
+ * long  - vlong
+ * string - vint长度 + UTF-8字节，按照Unicode码点排序
+ * bytes - vint长度 + 字节，按照无符号字节排序
+ *
+ *
+ *
+ */
+public final class CompositeKeySchema {
+
+    /** 字段定义 */
+    public static final String SCHEMA = "job.compositekey.schema";
+
+    /** 分组比较的字段个数（前缀），缺省为全部字段 */
+    public static final String GROUP_FIELDS = "job.compositekey.group.fields";
+
+    /** 分区使用的字段个数（前缀），缺省与分组一致 */
+    public static final String PARTITION_FIELDS = "job.compositekey.partition.fields";
+
+    public static final int INT = 0;
+
+    public static final int LONG = 1;
+
+    public static final int STRING = 2;
+
+    public static final int BYTES = 3;
+
+    private static final String[] NAMES = { "int", "long", "string", "bytes" };
+
+    /** 最近一次解析的结果，同一个task内的比较器和key共用 */
+    private static volatile CompositeKeySchema last;
+
+    private final String text;
+
+    private final int[] types;
+
+    private final boolean[] descending;
+
+    private CompositeKeySchema(String text, int[] types, boolean[] descending) {
+        this.text = text;
+        this.types = types;
+        this.descending = descending;
+    }
+
+    /**
+     * 解析字段定义
+     *
+     * @param value 如 "int,string,long:desc"
+     * @return
+     */
+    public static CompositeKeySchema parse(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("empty composite key schema.");
+        }
+        CompositeKeySchema cached = last;
+        if (cached != null && cached.text.equals(value)) {
+            return cached;
+        }
+        String[] items = value.split(",");
+        int[] types = new int[items.length];
+        boolean[] descending = new boolean[items.length];
+        for (int i = 0; i < items.length; i++) {
+            String item = items[i].trim().toLowerCase();
+            int idx = item.indexOf(':');
+            String type = idx < 0 ? item : item.substring(0, idx).trim();
+            String order = idx < 0 ? "asc" : item.substring(idx + 1).trim();
+            types[i] = Arrays.asList(NAMES).indexOf(type);
+            if (types[i] < 0) {
+                throw new IllegalArgumentException(String.format("illegal composite key field type: %s.", items[i]));
+            }
+            if ("desc".equals(order)) {
+                descending[i] = true;
+            } else if (!"asc".equals(order)) {
+                throw new IllegalArgumentException(String.format("illegal composite key field order: %s.", items[i]));
+            }
+        }
+        cached = new CompositeKeySchema(value, types, descending);
+        last = cached;
+        return cached;
+    }
+
+    /**
+     * 从配置中读取字段定义
+     *
+     * @param conf
+     * @return
+     */
+    public static CompositeKeySchema get(Configuration conf) {
+        String value = conf == null ? null : conf.get(SCHEMA);
+        if (value == null) {
+            throw new IllegalArgumentException(String.format("%s is not set.", SCHEMA));
+        }
+        return parse(value);
+    }
+
+    /**
+     * 读取前缀字段个数，不大于0或者超过字段个数时为全部字段
+     *
+     * @param conf
+     * @param name GROUP_FIELDS或PARTITION_FIELDS
+     * @return
+     */
+    public int getFields(Configuration conf, String name) {
+        int fields = conf.getInt(name, 0);
+        if (fields <= 0 && PARTITION_FIELDS.equals(name)) {
+            fields = conf.getInt(GROUP_FIELDS, 0);
+        }
+        return fields <= 0 || fields > size() ? size() : fields;
+    }
+
+    public int size() {
+        return this.types.length;
+    }
+
+    public int getType(int field) {
+        return this.types[field];
+    }
+
+    public boolean isDescending(int field) {
+        return this.descending[field];
+    }
+
+    /**
+     * 值对应的字段类型
+     *
+     * @param value
+     * @return
+     */
+    static int typeOf(Object value) {
+        if (value instanceof Integer) {
+            return INT;
+        }
+        if (value instanceof Long) {
+            return LONG;
+        }
+        if (value instanceof String) {
+            return STRING;
+        }
+        if (value instanceof byte[]) {
+            return BYTES;
+        }
+        throw new IllegalArgumentException(String.format("unsupported composite key field: %s.",
+                value == null ? null : value.getClass().getName()));
+    }
+
+    /**
+     * 在序列化字节上比较前fields个字段
+     *
+     * @param b1
+     * @param s1
+     * @param b2
+     * @param s2
+     * @param fields
+     * @return
+     */
+    public int compare(byte[] b1, int s1, byte[] b2, int s2, int fields) {
+        for (int i = 0; i < fields; i++) {
+            int result;
+            int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+            int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+            try {
+                switch (this.types[i]) {
+                case INT:
+                case LONG: {
+                    long v1 = n1 == 1 ? b1[s1] : WritableComparator.readVLong(b1, s1);
+                    long v2 = n2 == 1 ? b2[s2] : WritableComparator.readVLong(b2, s2);
+                    result = v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+                    s1 += n1;
+                    s2 += n2;
+                    break;
+                }
+                default: {
+                    int l1 = n1 == 1 ? b1[s1] : WritableComparator.readVInt(b1, s1);
+                    int l2 = n2 == 1 ? b2[s2] : WritableComparator.readVInt(b2, s2);
+                    s1 += n1;
+                    s2 += n2;
+                    // UTF-8的无符号字节顺序与码点顺序一致
+                    result = WritableComparator.compareBytes(b1, s1, l1, b2, s2, l2);
+                    s1 += l1;
+                    s2 += l2;
+                    break;
+                }
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+            if (result != 0) {
+                result = result < 0 ? -1 : 1;
+                return this.descending[i] ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 比较两个key的前fields个字段
+     *
+     * @param k1
+     * @param k2
+     * @param fields
+     * @return
+     */
+    public int compare(CompositeKey k1, CompositeKey k2, int fields) {
+        for (int i = 0; i < fields; i++) {
+            int result = compareValue(k1.get(i), k2.get(i));
+            if (result != 0) {
+                result = result < 0 ? -1 : 1;
+                return this.descending[i] ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 比较两个同类型的字段值，与序列化字节上的比较一致
+     */
+    static int compareValue(Object v1, Object v2) {
+        switch (typeOf(v1)) {
+        case INT:
+            return Integer.compare((Integer) v1, (Integer) v2);
+        case LONG:
+            return Long.compare((Long) v1, (Long) v2);
+        case STRING:
+            return compareCodePoints((String) v1, (String) v2);
+        default:
+            byte[] a = (byte[]) v1;
+            byte[] b = (byte[]) v2;
+            return WritableComparator.compareBytes(a, 0, a.length, b, 0, b.length);
+        }
+    }
+
+    /**
+     * 按照码点比较，与UTF-8字节顺序一致（String.compareTo在补充字符上不一致）
+     */
+    private static int compareCodePoints(String s1, String s2) {
+        int len1 = s1.length();
+        int len2 = s2.length();
+        int i = 0;
+        int j = 0;
+        while (i < len1 && j < len2) {
+            char c1 = s1.charAt(i);
+            char c2 = s2.charAt(j);
+            if (c1 == c2) {
+                i++;
+                j++;
+                continue;
+            }
+            if (!Character.isSurrogate(c1) && !Character.isSurrogate(c2)) {
+                return c1 - c2;
+            }
+            int cp1 = s1.codePointAt(i);
+            int cp2 = s2.codePointAt(j);
+            if (cp1 != cp2) {
+                return cp1 - cp2;
+            }
+            i += Character.charCount(cp1);
+            j += Character.charCount(cp2);
+        }
+        return (len1 - i) - (len2 - j);
+    }
+
+    /**
+     * 前fields个字段的hash值
+     *
+     * @param key
+     * @param fields
+     * @return
+     */
+    public static int hash(CompositeKey key, int fields) {
+        int hash = 1;
+        for (int i = 0; i < fields; i++) {
+            Object value = key.get(i);
+            int h;
+            switch (typeOf(value)) {
+            case INT:
+                h = (Integer) value;
+                break;
+            case LONG:
+                long v = (Long) value;
+                h = (int) (v ^ (v >>> 32));
+                break;
+            case STRING:
+                h = value.hashCode();
+                break;
+            default:
+                byte[] bytes = (byte[]) value;
+                h = WritableComparator.hashBytes(bytes, bytes.length);
+                break;
+            }
+            hash = 31 * hash + h;
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return this.text;
+    }
+}
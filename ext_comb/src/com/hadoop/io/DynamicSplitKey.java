@@ -7,6 +7,14 @@ package com.hadoop.io;
  */
 public interface DynamicSplitKey extends SplitValue {
     
+    /**
+     * 追加区分标识，可以返回新对象。
+     * 实现InPlaceSplitKey时，context改为调用setSplitKeyPrefix在原对象上处理，不再调用该方法。
+     * 
+     * @param append
+     * @param separator
+     * @return
+     */
     DynamicSplitKey append(int append, String separator);
 
 }
@@ -0,0 +1,18 @@
+package com.hadoop.io;
+
+/**
+ * 在原对象上追加区分标识的DynamicSplitKey，避免每次输出都创建新对象。
+ * 
+ * 前缀为已编码的UTF-8字节（splitKey + 分隔符），由context在setup时计算一次并复用，实现方不能修改或持有该数组以外的假设。
+ * 实现应单独保存前缀（覆盖之前的前缀），保证同一对象多次输出时结果一致。
+ *
+ */
+public interface InPlaceSplitKey extends DynamicSplitKey {
+
+    /**
+     * 设置区分标识前缀。
+     * 
+     * @param prefix splitKey + 分隔符的UTF-8字节，只读
+     */
+    void setSplitKeyPrefix(byte[] prefix);
+}
@@ -0,0 +1,320 @@
+package com.hadoop.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * SplitOutputKey两种序列化格式的编解码和字节比较。
+ *
+ * 旧格式：int splitKey、writeUTF（2字节长度 + modified UTF-8）、long order。<br>
+ * 紧凑格式：1字节版本标识、vint splitKey、vint长度 + UTF-8字节、zig-zag varlong order。<br>
+ * 旧格式第一个字节是splitKey的最高字节，版本标识取0x81，因此旧格式中最高字节为0x81的splitKey（极大的负数）不能使用。
+ *
+ * 字符串的比较结果都与String.compareTo（UTF-16字符顺序）一致。
+ *
+ */
+final class SplitKeyCodec {
+
+    /** 紧凑格式版本1的标识 */
+    static final byte COMPACT_V1 = (byte) 0x81;
+
+    private SplitKeyCodec() {
+    }
+
+    /**
+     * 是否为紧凑格式
+     */
+    static boolean isCompact(byte[] b, int s) {
+        return b[s] == COMPACT_V1;
+    }
+
+    static int readSplitKey(byte[] b, int s) throws IOException {
+        if (isCompact(b, s)) {
+            return (int) WritableComparator.readVLong(b, s + 1);
+        }
+        return WritableComparator.readInt(b, s);
+    }
+
+    /**
+     * key字节的起始位置
+     */
+    static int keyOffset(byte[] b, int s) {
+        if (isCompact(b, s)) {
+            int pos = s + 1;
+            pos += WritableUtils.decodeVIntSize(b[pos]);
+            return pos + WritableUtils.decodeVIntSize(b[pos]);
+        }
+        return s + 6;
+    }
+
+    /**
+     * key字节的长度
+     */
+    static int keyLength(byte[] b, int s) throws IOException {
+        if (isCompact(b, s)) {
+            int pos = s + 1;
+            pos += WritableUtils.decodeVIntSize(b[pos]);
+            return (int) WritableComparator.readVLong(b, pos);
+        }
+        return WritableComparator.readUnsignedShort(b, s + 4);
+    }
+
+    static long readOrder(byte[] b, int s) throws IOException {
+        int pos = keyOffset(b, s) + keyLength(b, s);
+        if (isCompact(b, s)) {
+            return readZigZag(b, pos);
+        }
+        return WritableComparator.readLong(b, pos);
+    }
+
+    // ---------------------------------------------------------------- zig-zag varlong
+
+    static void writeZigZag(DataOutput out, long value) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readZigZag(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("malformed zig-zag varlong.");
+    }
+
+    static long readZigZag(byte[] buf, int pos) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = buf[pos++];
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("malformed zig-zag varlong.");
+    }
+
+    // ---------------------------------------------------------------- 字符编码
+
+    /**
+     * 编码为UTF-8，不成对的代理字符替换为'?'（与String.getBytes一致）。
+     *
+     * @param value
+     * @param buf 长度至少为 value.length() * 3
+     * @return 字节数
+     */
+    static int encode(String value, byte[] buf) {
+        int pos = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    buf[pos++] = '?';
+                }
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * 解码modified UTF-8（旧格式）
+     */
+    static String decodeModified(byte[] b, int s, int l) {
+        char[] chars = new char[l];
+        int count = 0;
+        int pos = s;
+        int end = s + l;
+        while (pos < end) {
+            chars[count++] = (char) decodeChar(b, pos);
+            pos += charLength(b[pos]);
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * 与String.hashCode一致的hash值，直接在UTF-8字节上计算。
+     */
+    static int stringHash(byte[] b, int s, int l) {
+        int hash = 0;
+        int pos = s;
+        int end = s + l;
+        while (pos < end) {
+            int cp = decodeCodePoint(b, pos);
+            pos += charLength(b[pos]);
+            if (cp >= 0x10000) {
+                hash = 31 * hash + Character.highSurrogate(cp);
+                hash = 31 * hash + Character.lowSurrogate(cp);
+            } else {
+                hash = 31 * hash + cp;
+            }
+        }
+        return hash;
+    }
+
+    // ---------------------------------------------------------------- 比较
+
+    /**
+     * 按照UTF-16字符顺序比较两段字节，modified表示是否为modified UTF-8（旧格式）。
+     */
+    static int compare(byte[] b1, int s1, int l1, boolean modified1, byte[] b2, int s2, int l2, boolean modified2) {
+        if (modified1 != modified2) {
+            return compareMixed(b1, s1, l1, modified1, b2, s2, l2, modified2);
+        }
+        int min = Math.min(l1, l2);
+        int i = 0;
+        while (i < min && b1[s1 + i] == b2[s2 + i]) {
+            i++;
+        }
+        if (i == min) {
+            return l1 == l2 ? 0 : (l1 < l2 ? -1 : 1);
+        }
+        // 之前的字节相同，两边的字符边界一致，回退到字符的起始位置（跳过10xxxxxx的后续字节）
+        int start = i;
+        while (start > 0 && (b1[s1 + start] & 0xC0) == 0x80) {
+            start--;
+        }
+        if (modified1) {
+            // modified UTF-8每个字符最多3字节，解码即为UTF-16字符
+            return compareUnit(decodeChar(b1, s1 + start), decodeChar(b2, s2 + start));
+        }
+        int cp1 = decodeCodePoint(b1, s1 + start);
+        int cp2 = decodeCodePoint(b2, s2 + start);
+        int result = compareUnit(firstUnit(cp1), firstUnit(cp2));
+        if (result != 0) {
+            return result;
+        }
+        // 高位代理相同，两个都是辅助平面字符
+        return compareUnit(Character.lowSurrogate(cp1), Character.lowSurrogate(cp2));
+    }
+
+    /**
+     * 两种格式混合时逐个UTF-16字符比较
+     */
+    private static int compareMixed(byte[] b1, int s1, int l1, boolean modified1, byte[] b2, int s2, int l2,
+            boolean modified2) {
+        Units u1 = new Units(b1, s1, l1, modified1);
+        Units u2 = new Units(b2, s2, l2, modified2);
+        while (true) {
+            int c1 = u1.next();
+            int c2 = u2.next();
+            if (c1 != c2 || c1 < 0) {
+                return compareUnit(c1, c2);
+            }
+        }
+    }
+
+    private static int compareUnit(int c1, int c2) {
+        return c1 == c2 ? 0 : (c1 < c2 ? -1 : 1);
+    }
+
+    private static int firstUnit(int cp) {
+        return cp >= 0x10000 ? Character.highSurrogate(cp) : cp;
+    }
+
+    private static int charLength(byte lead) {
+        int c = lead & 0xFF;
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c >= 0xF0) {
+            return 4;
+        }
+        return c >= 0xE0 ? 3 : 2;
+    }
+
+    /**
+     * 解码pos位置的一个字符（1~3字节）
+     */
+    private static int decodeChar(byte[] b, int pos) {
+        int c = b[pos] & 0xFF;
+        if (c < 0x80) {
+            return c;
+        }
+        if ((c & 0xE0) == 0xC0) {
+            return ((c & 0x1F) << 6) | (b[pos + 1] & 0x3F);
+        }
+        return ((c & 0x0F) << 12) | ((b[pos + 1] & 0x3F) << 6) | (b[pos + 2] & 0x3F);
+    }
+
+    /**
+     * 解码pos位置的一个码点（1~4字节）
+     */
+    private static int decodeCodePoint(byte[] b, int pos) {
+        int c = b[pos] & 0xFF;
+        if (c >= 0xF0) {
+            return ((c & 0x07) << 18) | ((b[pos + 1] & 0x3F) << 12) | ((b[pos + 2] & 0x3F) << 6)
+                    | (b[pos + 3] & 0x3F);
+        }
+        return decodeChar(b, pos);
+    }
+
+    /**
+     * 逐个读取UTF-16字符，结束时返回-1
+     */
+    private static final class Units {
+
+        private final byte[] bytes;
+
+        private final int end;
+
+        private final boolean modified;
+
+        private int pos;
+
+        /** 辅助平面字符的低位代理 */
+        private int pending = -1;
+
+        Units(byte[] bytes, int offset, int length, boolean modified) {
+            this.bytes = bytes;
+            this.pos = offset;
+            this.end = offset + length;
+            this.modified = modified;
+        }
+
+        int next() {
+            if (this.pending >= 0) {
+                int c = this.pending;
+                this.pending = -1;
+                return c;
+            }
+            if (this.pos >= this.end) {
+                return -1;
+            }
+            int cp = this.modified ? decodeChar(this.bytes, this.pos) : decodeCodePoint(this.bytes, this.pos);
+            this.pos += charLength(this.bytes[this.pos]);
+            if (cp >= 0x10000) {
+                this.pending = Character.lowSurrogate(cp);
+                return Character.highSurrogate(cp);
+            }
+            return cp;
+        }
+    }
+}
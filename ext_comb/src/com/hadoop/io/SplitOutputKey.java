@@ -3,22 +3,39 @@ package com.hadoop.io;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Objects;
+import java.util.Arrays;
 
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.hadoop.plat.util.BytesUtil;
 
 /**
- *  二次排序移植。 
+ *  二次排序移植。
+ *
+ *  key以UTF-8字节保存在可复用的缓冲区中，mapper可以对每条输出调用set复用同一个对象。
+ *  序列化缺省使用紧凑格式（vint splitKey、vint长度 + UTF-8字节、zig-zag varlong order），
+ *  读取时两种格式都支持，迁移期间可以通过setLegacyFormat(true)继续写旧格式，格式说明见SplitKeyCodec。
  */
 public class SplitOutputKey implements SplitKey, WritableComparable<SplitOutputKey> {
 
+    private static final byte[] EMPTY = new byte[0];
+
+    /** 是否写旧格式，在task的setup中根据配置设置 */
+    private static volatile boolean legacyFormat = false;
+
     /** 新增的拆分key */
     private int splitKey = 0;
-    
-    /** 业务需要的key value */
+
+    /** 业务需要的key value，UTF-8字节 */
+    private byte[] bytes = EMPTY;
+
+    private int length = 0;
+
+    /** 解码后的key，setKey(String)时直接保存 */
     private String key = "";
-    
+
     /** 排序字段 */
     private long order = 0l;
 
@@ -26,33 +43,108 @@ public class SplitOutputKey implements SplitKey, WritableComparable<SplitOutputK
     }
 
     public SplitOutputKey(String key) {
-        this.key = key;
+        setKey(key);
         this.order = 0l;
     }
 
     public SplitOutputKey(String key, long order) {
-        this.key = key;
+        setKey(key);
         this.order = order;
     }
-    
+
     public SplitOutputKey(int splitKey, String key, long order) {
         this.splitKey = splitKey;
-        this.key = key;
+        setKey(key);
+        this.order = order;
+    }
+
+    /**
+     * 是否写旧格式（int、writeUTF、long），供还未升级的读取方使用。
+     * @param legacy
+     */
+    public static void setLegacyFormat(boolean legacy) {
+        legacyFormat = legacy;
+    }
+
+    public static boolean isLegacyFormat() {
+        return legacyFormat;
+    }
+
+    /**
+     * 复用当前对象
+     * @param splitKey
+     * @param key
+     * @param order
+     * @return
+     */
+    public SplitOutputKey set(int splitKey, String key, long order) {
+        this.splitKey = splitKey;
+        setKey(key);
+        this.order = order;
+        return this;
+    }
+
+    /**
+     * 复用当前对象，key为UTF-8字节（复制）
+     * @param splitKey
+     * @param utf8
+     * @param offset
+     * @param length
+     * @param order
+     * @return
+     */
+    public SplitOutputKey set(int splitKey, byte[] utf8, int offset, int length, long order) {
+        this.splitKey = splitKey;
+        setKey(utf8, offset, length);
         this.order = order;
+        return this;
     }
 
     public String getKey() {
+        if (this.key == null) {
+            this.key = new String(this.bytes, 0, this.length, BytesUtil.UTF8);
+        }
         return this.key;
     }
 
+    /**
+     * key的UTF-8字节，有效长度见getKeyLength，只读。
+     * @return
+     */
+    public byte[] getKeyBytes() {
+        return this.bytes;
+    }
+
+    public int getKeyLength() {
+        return this.length;
+    }
+
     public long getOrder() {
         return this.order;
     }
 
     public void setKey(String key) {
+        if (key == null) {
+            throw new NullPointerException("null key.");
+        }
+        ensureCapacity(key.length() * 3);
+        this.length = SplitKeyCodec.encode(key, this.bytes);
         this.key = key;
     }
 
+    /**
+     * 设置UTF-8字节（复制）
+     * @param utf8
+     * @param offset
+     * @param length
+     */
+    public void setKey(byte[] utf8, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(utf8, offset, this.bytes, 0, length);
+        this.length = length;
+        this.key = null;
+    }
+
     public void setOrder(long order) {
         this.order = order;
     }
@@ -67,71 +159,111 @@ public class SplitOutputKey implements SplitKey, WritableComparable<SplitOutputK
         this.splitKey = splitKey;
     }
 
+    private void ensureCapacity(int capacity) {
+        if (this.bytes.length < capacity) {
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(capacity, this.bytes.length * 2));
+        }
+    }
+
     @Override
     public void readFields(DataInput in) throws IOException {
-        this.splitKey = in.readInt();
-        this.key = in.readUTF();
+        byte first = in.readByte();
+        if (first == SplitKeyCodec.COMPACT_V1) {
+            this.splitKey = WritableUtils.readVInt(in);
+            int len = WritableUtils.readVInt(in);
+            ensureCapacity(len);
+            in.readFully(this.bytes, 0, len);
+            this.length = len;
+            this.key = null;
+            this.order = SplitKeyCodec.readZigZag(in);
+            return;
+        }
+        // 旧格式，已经读取了splitKey的第一个字节
+        this.splitKey = ((first & 0xFF) << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8)
+                | in.readUnsignedByte();
+        int len = in.readUnsignedShort();
+        byte[] utf = new byte[len];
+        in.readFully(utf);
+        setKey(SplitKeyCodec.decodeModified(utf, 0, len));
         this.order = in.readLong();
     }
 
     @Override
     public void write(DataOutput out) throws IOException {
-        out.writeInt(this.splitKey);
-        out.writeUTF(key);
-        out.writeLong(this.order);
+        if (legacyFormat) {
+            out.writeInt(this.splitKey);
+            out.writeUTF(getKey());
+            out.writeLong(this.order);
+            return;
+        }
+        out.writeByte(SplitKeyCodec.COMPACT_V1);
+        WritableUtils.writeVInt(out, this.splitKey);
+        WritableUtils.writeVInt(out, this.length);
+        out.write(this.bytes, 0, this.length);
+        SplitKeyCodec.writeZigZag(out, this.order);
     }
 
     @Override
     public int compareTo(SplitOutputKey other) {
-        int result = this.splitKey - other.splitKey;
-        if(result != 0) {
-            return result > 0 ? 1 : -1;
-        }
-        
-        result = this.key.compareTo(other.key);
+        int result = groupCompareTo(other);
         if (result == 0) {
-            long tmp = this.order - other.order;
-            return tmp > 0 ? 1 : (tmp == 0 ? 0 : -1) ;
+            // 不能相减，避免溢出
+            return this.order < other.order ? -1 : (this.order == other.order ? 0 : 1);
         }
         return result;
     }
-    
+
     public boolean equals(Object other){
         return (other instanceof SplitOutputKey) && compareTo((SplitOutputKey) other) == 0;
     }
-    
+
     @Override
     public int hashCode() {
-        return Objects.hash(this.splitKey, this.key, this.order);
+        // 与Objects.hash(splitKey, key, order)一致
+        return 31 * partitionHashCode() + (int) (this.order ^ (this.order >>> 32));
     }
-    
+
     /**
      * 分区使用的hashCode值。
      * @return
      */
     public int partitionHashCode() {
-        return Objects.hash(this.splitKey, this.key);
+        // 与Objects.hash(splitKey, key)的结果一致，但不创建数组和Integer
+        int keyHash = this.key != null ? this.key.hashCode() : SplitKeyCodec.stringHash(this.bytes, 0, this.length);
+        return 31 * (31 + this.splitKey) + keyHash;
     }
-    
+
+    /**
+     * splitKey和key的UTF-8字节的hash值，不解码也不创建对象。
+     *
+     * 结果与在序列化字节上调用SplitOutputKeyComparator.groupHash一致。
+     * @return
+     */
+    public int serializedHashCode() {
+        return 31 * WritableComparator.hashBytes(this.bytes, this.length) + this.splitKey;
+    }
+
     /**
      * 分组使用的比较器。
      * @return
      */
     public int groupCompareTo(SplitOutputKey other) {
-        int result = this.splitKey - other.splitKey;
-        if(result != 0) {
-            return result > 0 ? 1 : -1;
+        if (this.splitKey != other.splitKey) {
+            return this.splitKey < other.splitKey ? -1 : 1;
         }
-        
-        result = this.key.compareTo(other.key);
-        return result > 0 ? 1 : (result == 0 ? 0 : -1) ;
+
+        if (this.key != null && other.key != null) {
+            int result = this.key.compareTo(other.key);
+            return result > 0 ? 1 : (result == 0 ? 0 : -1) ;
+        }
+        return SplitKeyCodec.compare(this.bytes, 0, this.length, false, other.bytes, 0, other.length, false);
     }
 
     @Override
     public String toString() {
     	return this.getKey();
     }
-    
+
     @Override
     public String toReal() {
         return this.getKey();
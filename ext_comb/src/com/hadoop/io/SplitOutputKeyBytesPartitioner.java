@@ -0,0 +1,19 @@
+package com.hadoop.io;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * 按照序列化后的splitKey和key的字节计算hash的分区器。
+ * 
+ * hash直接在key的UTF-8字节上计算，不解码也不创建对象，
+ * 与在序列化字节上调用SplitOutputKeyComparator.groupHash的结果一致。
+ *
+ */
+public class SplitOutputKeyBytesPartitioner extends Partitioner<SplitOutputKey, Text> {
+
+    @Override
+    public int getPartition(SplitOutputKey key, Text value, int numPartitions) {
+        return (key.serializedHashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+}
@@ -1,12 +1,21 @@
 package com.hadoop.io;
 
+import java.io.IOException;
+
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
 
+/**
+ * SplitOutputKey的排序比较器，直接在序列化后的字节上比较，不反序列化。
+ * 
+ * 支持紧凑格式和旧格式（int splitKey、writeUTF写入的key、long order），格式说明见SplitKeyCodec。
+ * 比较结果与SplitOutputKey.compareTo一致。
+ *
+ */
 public class SplitOutputKeyComparator extends WritableComparator {
     
     protected SplitOutputKeyComparator() {
-        super(SplitOutputKey.class, true);
+        super(SplitOutputKey.class);
     }
 
     @SuppressWarnings("rawtypes")
@@ -16,4 +25,64 @@ public class SplitOutputKeyComparator extends WritableComparator {
         SplitOutputKey p2 = (SplitOutputKey) w2;
         return p1.compareTo(p2);
     }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        try {
+            int result = compareGroup(b1, s1, b2, s2);
+            if (result != 0) {
+                return result;
+            }
+            long order1 = SplitKeyCodec.readOrder(b1, s1);
+            long order2 = SplitKeyCodec.readOrder(b2, s2);
+            return order1 < order2 ? -1 : (order1 == order2 ? 0 : 1);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * 比较splitKey和key，与SplitOutputKey.groupCompareTo一致。
+     * 
+     * @param b1
+     * @param s1
+     * @param b2
+     * @param s2
+     * @return
+     * @throws IOException
+     */
+    static int compareGroup(byte[] b1, int s1, byte[] b2, int s2) throws IOException {
+        int split1 = SplitKeyCodec.readSplitKey(b1, s1);
+        int split2 = SplitKeyCodec.readSplitKey(b2, s2);
+        if (split1 != split2) {
+            return split1 < split2 ? -1 : 1;
+        }
+        return SplitKeyCodec.compare(b1, SplitKeyCodec.keyOffset(b1, s1), SplitKeyCodec.keyLength(b1, s1),
+                !SplitKeyCodec.isCompact(b1, s1), b2, SplitKeyCodec.keyOffset(b2, s2),
+                SplitKeyCodec.keyLength(b2, s2), !SplitKeyCodec.isCompact(b2, s2));
+    }
+
+    /**
+     * splitKey和key的hash值，与SplitOutputKey.serializedHashCode一致。
+     * 
+     * @param b
+     * @param s
+     * @return
+     * @throws IOException
+     */
+    public static int groupHash(byte[] b, int s) throws IOException {
+        int offset = SplitKeyCodec.keyOffset(b, s);
+        int length = SplitKeyCodec.keyLength(b, s);
+        int splitKey = SplitKeyCodec.readSplitKey(b, s);
+        if (!SplitKeyCodec.isCompact(b, s)) {
+            // 旧格式只有'\u0000'和辅助平面字符与UTF-8不同，出现时重新编码
+            for (int i = offset; i < offset + length; i++) {
+                if (b[i] == (byte) 0xC0 || b[i] == (byte) 0xED) {
+                    return new SplitOutputKey(splitKey, SplitKeyCodec.decodeModified(b, offset, length), 0)
+                            .serializedHashCode();
+                }
+            }
+        }
+        return 31 * hashBytes(b, offset, length) + splitKey;
+    }
 }
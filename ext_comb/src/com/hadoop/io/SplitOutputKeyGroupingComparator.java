@@ -1,12 +1,18 @@
 package com.hadoop.io;
 
+import java.io.IOException;
+
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
 
+/**
+ * SplitOutputKey的分组比较器，只比较splitKey和key，直接在序列化后的字节上比较。
+ *
+ */
 public class SplitOutputKeyGroupingComparator extends WritableComparator {
     
     public SplitOutputKeyGroupingComparator() {
-        super(SplitOutputKey.class, true);
+        super(SplitOutputKey.class);
     }
 
     @SuppressWarnings("rawtypes")
@@ -16,4 +22,13 @@ public class SplitOutputKeyGroupingComparator extends WritableComparator {
         SplitOutputKey p2 = (SplitOutputKey) o2;
         return p1.groupCompareTo(p2);
     }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        try {
+            return SplitOutputKeyComparator.compareGroup(b1, s1, b2, s2);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
 }
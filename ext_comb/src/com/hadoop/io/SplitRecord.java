@@ -0,0 +1,97 @@
+package com.hadoop.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * 中间结果的一条记录，见SplitRecordOutputFormat和SplitRecordInputFormat。
+ *
+ * 内容与文本输出的一行相同（兼容按照Text读取的mapper），另外保存已经解析的区分标识和实际值在字节中的起始位置，
+ * 下游的容器直接在字节上分发，不需要再拆分文本。
+ *
+ * 序列化格式：vint splitKey、vint 实际值的起始位置、Text（vint长度 + UTF-8字节）。
+ *
+ * 只用于输入输出，不作为shuffle的key。
+ *
+ *
+ *
+ */
+public class SplitRecord extends Text implements SplitKey {
+
+    /** 区分标识，0为没有 */
+    private int splitKey;
+
+    /** 实际值在字节中的起始位置 */
+    private int offset;
+
+    public SplitRecord() {
+    }
+
+    /**
+     * 复用当前对象
+     *
+     * @param splitKey 区分标识，0为没有
+     * @param utf8 一行的内容
+     * @param start
+     * @param length
+     * @param offset 实际值相对于start的起始位置
+     * @return
+     */
+    public SplitRecord set(int splitKey, byte[] utf8, int start, int length, int offset) {
+        if (offset < 0 || offset > length) {
+            throw new IllegalArgumentException(String.format("illegal offset %d of length %d.", offset, length));
+        }
+        set(utf8, start, length);
+        this.splitKey = splitKey;
+        this.offset = offset;
+        return this;
+    }
+
+    @Override
+    public int getSplitKey() {
+        return this.splitKey;
+    }
+
+    @Override
+    public void setSplitKey(int splitKey) {
+        this.splitKey = splitKey;
+    }
+
+    /**
+     * 实际值在字节中的起始位置
+     * @return
+     */
+    public int getOffset() {
+        return this.offset;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, this.splitKey);
+        WritableUtils.writeVInt(out, this.offset);
+        super.write(out);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        this.splitKey = WritableUtils.readVInt(in);
+        this.offset = WritableUtils.readVInt(in);
+        super.readFields(in);
+    }
+
+    /**
+     * 返回去掉区分标识的实际值
+     */
+    @Override
+    public String toReal() {
+        try {
+            return Text.decode(getBytes(), this.offset, getLength() - this.offset);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
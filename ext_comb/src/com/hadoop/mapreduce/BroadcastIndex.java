@@ -0,0 +1,227 @@
+package com.hadoop.mapreduce;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+import com.hadoop.plat.util.BytesUtil;
+
+/**
+ * 不可修改的key-value索引，用于广播关联（见Broadcasts）。
+ *
+ * 所有key和value的UTF-8字节连续保存在一个byte[]中（key长度、key、value长度、value），
+ * 开放寻址的哈希表只保存记录的偏移量和哈希值（两个int[]），没有每条记录的对象，内存约为 数据字节数 + 16 * 记录数。
+ *
+ * 构建后只读，可以被多个线程（容器内的多个子类、并行执行的子类）共享。
+ *
+ *
+ *
+ */
+public final class BroadcastIndex {
+
+    /** 哈希表的最大装载比例 */
+    private static final float LOAD_FACTOR = 0.5f;
+
+    /** 记录数据 */
+    private final byte[] data;
+
+    /** 槽位 -&gt; 记录偏移量 + 1，0为空 */
+    private final int[] slots;
+
+    /** 槽位 -&gt; key的哈希值 */
+    private final int[] hashes;
+
+    private final int mask;
+
+    private final int size;
+
+    private BroadcastIndex(byte[] data, int[] slots, int[] hashes, int size) {
+        this.data = data;
+        this.slots = slots;
+        this.hashes = hashes;
+        this.mask = slots.length - 1;
+        this.size = size;
+    }
+
+    /**
+     * 记录数
+     * @return
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * 占用的字节数（估算）
+     * @return
+     */
+    public long getBytes() {
+        return this.data.length + 8L * this.slots.length;
+    }
+
+    public boolean contains(String key) {
+        byte[] bytes = BytesUtil.toBytes(key);
+        return find(bytes, 0, bytes.length) >= 0;
+    }
+
+    /**
+     * 查找key对应的value
+     * @param key
+     * @return 不存在时返回null
+     */
+    public String get(String key) {
+        byte[] bytes = BytesUtil.toBytes(key);
+        int offset = find(bytes, 0, bytes.length);
+        if (offset < 0) {
+            return null;
+        }
+        int length = readLength(offset);
+        return new String(this.data, offset + 4, length, BytesUtil.UTF8);
+    }
+
+    /**
+     * 在字节上查找，value复制到out中，不产生新对象
+     *
+     * @param key
+     * @param start
+     * @param length
+     * @param out
+     * @return 是否存在
+     */
+    public boolean get(byte[] key, int start, int length, Text out) {
+        int offset = find(key, start, length);
+        if (offset < 0) {
+            return false;
+        }
+        out.set(this.data, offset + 4, readLength(offset));
+        return true;
+    }
+
+    /**
+     * 查找key
+     * @return value长度字段的偏移量，不存在时返回-1
+     */
+    private int find(byte[] key, int start, int length) {
+        int hash = hash(key, start, length);
+        for (int slot = hash & this.mask;; slot = (slot + 1) & this.mask) {
+            int entry = this.slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (this.hashes[slot] != hash) {
+                continue;
+            }
+            int offset = entry - 1;
+            int keyLength = readLength(offset);
+            if (WritableComparator.compareBytes(this.data, offset + 4, keyLength, key, start, length) == 0) {
+                return offset + 4 + keyLength;
+            }
+        }
+    }
+
+    private int readLength(int offset) {
+        return WritableComparator.readInt(this.data, offset);
+    }
+
+    private static int hash(byte[] bytes, int start, int length) {
+        int hash = WritableComparator.hashBytes(bytes, start, length);
+        // 打散低位
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * 构建索引，key重复时保留最后一条（与HashMap.put一致）。
+     *
+     * 非线程安全。
+     */
+    public static class Builder {
+
+        private byte[] data = new byte[4096];
+
+        private int length;
+
+        private int[] offsets = new int[256];
+
+        private int count;
+
+        /**
+         * 增加一条记录
+         *
+         * @param bytes
+         * @param keyStart
+         * @param keyLength
+         * @param valueStart
+         * @param valueLength
+         * @return
+         */
+        public Builder add(byte[] bytes, int keyStart, int keyLength, int valueStart, int valueLength) {
+            long required = (long) this.length + 8 + keyLength + valueLength;
+            if (required > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException(String.format("broadcast data is too large: %d bytes.", required));
+            }
+            if (required > this.data.length) {
+                this.data = Arrays.copyOf(this.data, (int) Math.min(Integer.MAX_VALUE - 8,
+                        Math.max(required, 2L * this.data.length)));
+            }
+            if (this.count == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, 2 * this.count);
+            }
+            this.offsets[this.count++] = this.length;
+            writeInt(keyLength);
+            System.arraycopy(bytes, keyStart, this.data, this.length, keyLength);
+            this.length += keyLength;
+            writeInt(valueLength);
+            System.arraycopy(bytes, valueStart, this.data, this.length, valueLength);
+            this.length += valueLength;
+            return this;
+        }
+
+        public Builder add(String key, String value) {
+            byte[] k = BytesUtil.toBytes(key);
+            byte[] v = BytesUtil.toBytes(value);
+            byte[] bytes = Arrays.copyOf(k, k.length + v.length);
+            System.arraycopy(v, 0, bytes, k.length, v.length);
+            return add(bytes, 0, k.length, k.length, v.length);
+        }
+
+        private void writeInt(int value) {
+            this.data[this.length++] = (byte) (value >>> 24);
+            this.data[this.length++] = (byte) (value >>> 16);
+            this.data[this.length++] = (byte) (value >>> 8);
+            this.data[this.length++] = (byte) value;
+        }
+
+        public BroadcastIndex build() {
+            int capacity = Integer.highestOneBit(Math.max(2, (int) Math.ceil(this.count / LOAD_FACTOR)) - 1) << 1;
+            int[] slots = new int[capacity];
+            int[] hashes = new int[capacity];
+            int mask = capacity - 1;
+            int size = 0;
+            for (int i = 0; i < this.count; i++) {
+                int offset = this.offsets[i];
+                int keyLength = WritableComparator.readInt(this.data, offset);
+                int hash = hash(this.data, offset + 4, keyLength);
+                for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+                    if (slots[slot] == 0) {
+                        slots[slot] = offset + 1;
+                        hashes[slot] = hash;
+                        size++;
+                        break;
+                    }
+                    int other = slots[slot] - 1;
+                    if (hashes[slot] == hash && WritableComparator.compareBytes(this.data, other + 4,
+                            WritableComparator.readInt(this.data, other), this.data, offset + 4, keyLength) == 0) {
+                        // 重复的key，保留最后一条
+                        slots[slot] = offset + 1;
+                        break;
+                    }
+                }
+            }
+            byte[] compact = this.data.length == this.length ? this.data : Arrays.copyOf(this.data, this.length);
+            this.data = null;
+            this.offsets = null;
+            return new BroadcastIndex(compact, slots, hashes, size);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.hadoop.mapreduce;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.util.LineReader;
+
+import com.hadoop.entry.Jobs;
+import com.hadoop.plat.util.BytesUtil;
+import com.hadoop.util.Logger;
+
+/**
+ * 广播关联：JobDefine.broadcasts中登记的数据集通过分布式缓存分发，每个task进程只加载一次，
+ * 容器内的所有子类共享同一个只读的BroadcastIndex，不再各自在setup0中加载到私有的HashMap。
+ *
+ * 使用方式：
+ * JobDefine中设置 broadcasts = "city=/dim/city"，子类在setup0中调用
+ * BroadcastIndex city = Broadcasts.get(context, "city");
+ *
+ * 数据集为文本文件（或者目录下的所有文件，支持压缩），每行第一个分隔符（Jobs.JOB_BROADCAST_SEPARATOR）之前为key，之后为value。
+ * 索引按照"名称=路径"缓存在进程内，开启JVM重用或者uber模式时后续的task直接使用；加载新任务的数据集时释放不再登记的数据集。
+ *
+ * 计数器分组为COUNTER_GROUP，LOADS_名称为实际加载的次数，RECORDS_名称为加载的记录数。
+ *
+ *
+ *
+ */
+public final class Broadcasts {
+
+    /** 计数器分组 */
+    public static final String COUNTER_GROUP = "Broadcast";
+
+    public static final String COUNTER_LOADS = "LOADS_";
+
+    public static final String COUNTER_RECORDS = "RECORDS_";
+
+    /** 名称=路径 -&gt; 索引 */
+    private static final Map<String, BroadcastIndex> INDEXES = new HashMap<String, BroadcastIndex>();
+
+    private Broadcasts() {
+    }
+
+    /**
+     * 解析登记的数据集
+     *
+     * @param value 名称=路径[,...]
+     * @return 名称 -&gt; 路径，保持登记的顺序
+     */
+    public static Map<String, String> parse(String value) {
+        Map<String, String> datasets = new LinkedHashMap<String, String>();
+        if (value == null) {
+            return datasets;
+        }
+        for (String item : value.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            int index = item.indexOf('=');
+            String name = index < 0 ? "" : item.substring(0, index).trim();
+            String path = index < 0 ? "" : item.substring(index + 1).trim();
+            if (!name.matches("[A-Za-z0-9_.\\-]+") || path.isEmpty()) {
+                throw new IllegalArgumentException(String.format("illegal broadcast %s, should be name=path.", item));
+            }
+            if (datasets.put(name, path) != null) {
+                throw new IllegalArgumentException(String.format("duplicate broadcast %s.", name));
+            }
+        }
+        return datasets;
+    }
+
+    /**
+     * 将登记的数据集加入分布式缓存，在task的工作目录下以名称作为链接
+     *
+     * @param job
+     * @throws IOException
+     */
+    public static void addCacheFiles(Job job) throws IOException {
+        Map<String, String> datasets = parse(job.getConfiguration().get(Jobs.JOB_BROADCASTS));
+        for (Map.Entry<String, String> entry : datasets.entrySet()) {
+            Path path = new Path(entry.getValue());
+            path = path.getFileSystem(job.getConfiguration()).makeQualified(path);
+            URI uri = path.toUri();
+            try {
+                job.addCacheFile(new URI(uri.getScheme(), uri.getAuthority(), uri.getPath(), null, entry.getKey()));
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException(String.format("illegal broadcast path %s.", path), e);
+            }
+            Logger.print(String.format("broadcast %s: %s", entry.getKey(), path));
+        }
+    }
+
+    /**
+     * 获取数据集的索引，当前进程内第一次使用时加载
+     *
+     * @param context
+     * @param name 登记的名称
+     * @return
+     * @throws IOException
+     */
+    public static BroadcastIndex get(TaskInputOutputContext<?, ?, ?, ?> context, String name) throws IOException {
+        Configuration conf = context.getConfiguration();
+        Map<String, String> datasets = parse(conf.get(Jobs.JOB_BROADCASTS));
+        String path = datasets.get(name);
+        if (path == null) {
+            throw new IllegalArgumentException(String.format("broadcast %s is not defined.", name));
+        }
+        String cacheKey = name + "=" + path;
+        synchronized (INDEXES) {
+            BroadcastIndex index = INDEXES.get(cacheKey);
+            if (index != null) {
+                return index;
+            }
+            release(datasets);
+            long start = System.currentTimeMillis();
+            index = load(conf, name, path);
+            INDEXES.put(cacheKey, index);
+            Logger.info(String.format("broadcast %s loaded, %d records, %d bytes, %d ms.", name, index.size(),
+                    index.getBytes(), System.currentTimeMillis() - start));
+            context.getCounter(COUNTER_GROUP, COUNTER_LOADS + name).increment(1);
+            context.getCounter(COUNTER_GROUP, COUNTER_RECORDS + name).increment(index.size());
+            return index;
+        }
+    }
+
+    /**
+     * 释放当前任务没有登记的数据集（JVM重用时上一个任务的数据集）
+     */
+    private static void release(Map<String, String> datasets) {
+        Iterator<String> keys = INDEXES.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            int index = key.indexOf('=');
+            if (!key.substring(index + 1).equals(datasets.get(key.substring(0, index)))) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * 优先读取分布式缓存在工作目录下的链接，不存在时（如本地模式）直接读取原路径
+     */
+    private static BroadcastIndex load(Configuration conf, String name, String path) throws IOException {
+        byte[] separator = BytesUtil.toBytes(conf.get(Jobs.JOB_BROADCAST_SEPARATOR, "|"));
+        CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+        BroadcastIndex.Builder builder = new BroadcastIndex.Builder();
+        File link = new File(name);
+        if (link.exists()) {
+            for (File file : listFiles(link)) {
+                CompressionCodec codec = codecs.getCodec(new Path(file.getName()));
+                InputStream in = new FileInputStream(file);
+                read(codec == null ? in : codec.createInputStream(in), separator, builder);
+            }
+            return builder.build();
+        }
+        Path root = new Path(path);
+        FileSystem fs = root.getFileSystem(conf);
+        List<Path> files = new ArrayList<Path>();
+        if (fs.getFileStatus(root).isDirectory()) {
+            for (FileStatus status : fs.listStatus(root)) {
+                if (status.isFile() && !isHidden(status.getPath().getName())) {
+                    files.add(status.getPath());
+                }
+            }
+        } else {
+            files.add(root);
+        }
+        for (Path file : files) {
+            CompressionCodec codec = codecs.getCodec(file);
+            InputStream in = fs.open(file);
+            read(codec == null ? in : codec.createInputStream(in), separator, builder);
+        }
+        return builder.build();
+    }
+
+    private static List<File> listFiles(File link) {
+        List<File> files = new ArrayList<File>();
+        if (!link.isDirectory()) {
+            files.add(link);
+            return files;
+        }
+        File[] children = link.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isFile() && !isHidden(child.getName())) {
+                    files.add(child);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static boolean isHidden(String name) {
+        return name.startsWith("_") || name.startsWith(".");
+    }
+
+    /**
+     * 按行读取，没有分隔符的行忽略
+     */
+    private static void read(InputStream in, byte[] separator, BroadcastIndex.Builder builder) throws IOException {
+        LineReader reader = new LineReader(in);
+        Text line = new Text();
+        try {
+            while (reader.readLine(line) > 0) {
+                byte[] bytes = line.getBytes();
+                int length = line.getLength();
+                int index = BytesUtil.indexOf(bytes, 0, length, separator);
+                if (index < 0) {
+                    continue;
+                }
+                int valueStart = index + separator.length;
+                builder.add(bytes, 0, index, valueStart, length - valueStart);
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.hadoop.mapreduce;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * 容器内单个子类的开销统计，在cleanup时以计数器输出，分组名称为子类的类名。
+ *
+ * 输入、输出条数为精确值；耗时和输出字节数按照1/sample的比例采样后推算，
+ * 避免每条数据都调用System.nanoTime和获取线程CPU时间。
+ *
+ * 同一时间只应在一个线程中使用（并行执行时由Lane保证）。
+ *
+ * 默认关闭，通过-Dcontainer.containerName.cost=true开启。每个子类一个计数器分组，
+ * 子类较多时会超过计数器上限（mapreduce.job.counters.max，默认120），只在排查问题时开启。
+ *
+ *
+ *
+ */
+public class ChildCost {
+
+    /** 输入条数（mapper为记录数，reducer为分组数） */
+    public static final String COUNTER_RECORDS_IN = "RECORDS_IN";
+
+    /** 输出条数 */
+    public static final String COUNTER_RECORDS_OUT = "RECORDS_OUT";
+
+    /** map0/reduce0 的耗时（毫秒，推算） */
+    public static final String COUNTER_WALL_MS = "WALL_TIME_MS";
+
+    /** map0/reduce0 的CPU耗时（毫秒，推算） */
+    public static final String COUNTER_CPU_MS = "CPU_TIME_MS";
+
+    /** map输出的字节数（推算），后缀为splitKey */
+    public static final String COUNTER_OUTPUT_BYTES = "MAP_OUTPUT_BYTES_SPLITKEY_";
+
+    /** 缺省采样比例 */
+    public static final int DEFAULT_SAMPLE = 128;
+
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    /** 计数器分组 */
+    private final String group;
+
+    private final int splitKey;
+
+    /** 采样掩码，sample为2的幂 */
+    private final long mask;
+
+    /** 是否支持线程CPU时间 */
+    private final boolean cpuSupported;
+
+    private long recordsIn;
+
+    private long recordsOut;
+
+    private long sampledIn;
+
+    private long sampledWall;
+
+    private long sampledCpu;
+
+    private long sampledOut;
+
+    private long sampledBytes;
+
+    /** 当前调用是否被采样 */
+    private boolean sampling;
+
+    private long wallStart;
+
+    private long cpuStart;
+
+    /**
+     *
+     * @param child 子类
+     * @param splitKey
+     * @param sample 采样比例，向上取整为2的幂
+     */
+    public ChildCost(Object child, int splitKey, int sample) {
+        this.group = child.getClass().getName();
+        this.splitKey = splitKey;
+        int rate = sample <= 1 ? 1 : Integer.highestOneBit(sample - 1) << 1;
+        this.mask = rate - 1;
+        this.cpuSupported = THREAD_BEAN.isCurrentThreadCpuTimeSupported();
+    }
+
+    /**
+     * 调用map0/reduce0前
+     */
+    public void start() {
+        if ((this.recordsIn++ & this.mask) != 0) {
+            return;
+        }
+        this.sampling = true;
+        this.sampledIn++;
+        if (this.cpuSupported) {
+            this.cpuStart = THREAD_BEAN.getCurrentThreadCpuTime();
+        }
+        this.wallStart = System.nanoTime();
+    }
+
+    /**
+     * 调用map0/reduce0后
+     */
+    public void stop() {
+        if (!this.sampling) {
+            return;
+        }
+        this.sampledWall += System.nanoTime() - this.wallStart;
+        if (this.cpuSupported) {
+            this.sampledCpu += THREAD_BEAN.getCurrentThreadCpuTime() - this.cpuStart;
+        }
+        this.sampling = false;
+    }
+
+    /**
+     * 输出一条数据，被采样时记录map输出字节数的变化。
+     *
+     * @param context 实际写入的context
+     * @param key
+     * @param value
+     */
+    public <KEYOUT, VALUEOUT> void write(TaskInputOutputContext<?, ?, KEYOUT, VALUEOUT> context, KEYOUT key,
+            VALUEOUT value) throws IOException, InterruptedException {
+        if ((this.recordsOut++ & this.mask) != 0) {
+            context.write(key, value);
+            return;
+        }
+        Counter counter = context.getCounter(TaskCounter.MAP_OUTPUT_BYTES);
+        // 并行执行时其它子类也在写入，需要和写入使用同一个锁
+        synchronized (context) {
+            long before = counter.getValue();
+            context.write(key, value);
+            this.sampledBytes += counter.getValue() - before;
+        }
+        this.sampledOut++;
+    }
+
+    /**
+     * 记录一条不经过context的输出（如容器的输出路由）
+     */
+    public void written() {
+        this.recordsOut++;
+    }
+
+    /**
+     * 输出到计数器
+     * @param context
+     */
+    public void publish(TaskAttemptContext context) {
+        context.getCounter(this.group, COUNTER_RECORDS_IN).increment(this.recordsIn);
+        context.getCounter(this.group, COUNTER_RECORDS_OUT).increment(this.recordsOut);
+        context.getCounter(this.group, COUNTER_WALL_MS).increment(estimate(this.sampledWall, this.sampledIn, this.recordsIn) / 1000000);
+        if (this.cpuSupported) {
+            context.getCounter(this.group, COUNTER_CPU_MS).increment(estimate(this.sampledCpu, this.sampledIn, this.recordsIn) / 1000000);
+        }
+        if (this.sampledBytes > 0) {
+            context.getCounter(this.group, COUNTER_OUTPUT_BYTES + this.splitKey)
+                    .increment(estimate(this.sampledBytes, this.sampledOut, this.recordsOut));
+        }
+    }
+
+    /**
+     * 按照采样比例推算总量
+     */
+    private static long estimate(long sampled, long samples, long total) {
+        if (samples == 0) {
+            return 0;
+        }
+        return (long) ((double) sampled * total / samples);
+    }
+
+    @Override
+    public String toString() {
+        return "ChildCost [group=" + group + ", splitKey=" + splitKey + ", recordsIn=" + recordsIn + ", recordsOut="
+                + recordsOut + "]";
+    }
+}
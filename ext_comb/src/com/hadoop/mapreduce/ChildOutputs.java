@@ -0,0 +1,261 @@
+package com.hadoop.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.hadoop.entry.comb.CombOutput;
+
+/**
+ * 容器子类的独立输出，每个子类写入job输出目录下自己的路径，可以使用不同的输出格式和压缩。
+ *
+ * 与MultipleOutputs一样通过mapreduce.output.basename指定文件前缀，使用job的OutputCommitter提交；
+ * 区别是每个输出有自己的配置副本，因此可以单独设置压缩（MultipleOutputs的所有命名输出共用job的压缩配置）。
+ * 输出文件在第一次写入时才创建（与LazyOutputFormat一致），没有数据的子类不产生空文件。
+ *
+ * 注意：主输出可能因此没有数据，建议job开启lazyOutputEnabled。
+ *
+ *
+ *
+ */
+public class ChildOutputs {
+
+    /** 计数器分组，计数器名称为输出路径 */
+    public static final String COUNTER_GROUP = "ChildOutputs";
+
+    /** FileOutputFormat中文件前缀的配置名 */
+    private static final String BASE_OUTPUT_NAME = "mapreduce.output.basename";
+
+    private final TaskInputOutputContext<?, ?, ?, ?> context;
+
+    private final List<Output<?, ?>> outputs = new ArrayList<Output<?, ?>>();
+
+    private final Set<String> paths = new HashSet<String>();
+
+    public ChildOutputs(TaskInputOutputContext<?, ?, ?, ?> context) {
+        this.context = context;
+    }
+
+    /**
+     * 根据子类上的CombOutput定义创建输出，未定义时使用缺省值。
+     *
+     * @param child 子类
+     * @return
+     * @throws IOException
+     */
+    public <K, V> Output<K, V> create(Class<?> child) throws IOException {
+        return create(child, null);
+    }
+
+    /**
+     * 根据子类上的CombOutput定义在指定目录下创建输出，合并job（见ScanSharingPlanner）中写入原job的输出时使用。
+     *
+     * @param child 子类
+     * @param dir 相对于job输出目录，为null时为job输出目录
+     * @return
+     * @throws IOException
+     */
+    @SuppressWarnings("rawtypes")
+    public <K, V> Output<K, V> create(Class<?> child, String dir) throws IOException {
+        CombOutput define = child.getAnnotation(CombOutput.class);
+        String path = define == null || define.path().isEmpty() ? child.getSimpleName() + "/part" : define.path();
+        if (dir != null) {
+            path = dir + "/" + path;
+        }
+        Class<? extends OutputFormat> format = define == null ? OutputFormat.class : define.format();
+        boolean compress = define == null || define.compress();
+        Class<? extends CompressionCodec> codec = define == null ? CompressionCodec.class : define.codec();
+        Class<?> keyClass = define == null ? Object.class : define.keyClass();
+        Class<?> valueClass = define == null ? Object.class : define.valueClass();
+        return create(path, format, compress, codec, keyClass, valueClass);
+    }
+
+    /**
+     * 创建输出
+     *
+     * @param path 相对于job输出目录的文件前缀
+     * @param format 为OutputFormat.class时与job一致
+     * @param compress 是否压缩
+     * @param codec 为CompressionCodec.class时与job一致
+     * @param keyClass 为Object.class时与job一致
+     * @param valueClass 为Object.class时与job一致
+     * @return
+     * @throws IOException
+     */
+    @SuppressWarnings("rawtypes")
+    public <K, V> Output<K, V> create(String path, Class<? extends OutputFormat> format, boolean compress,
+            Class<? extends CompressionCodec> codec, Class<?> keyClass, Class<?> valueClass) throws IOException {
+        if (path == null || path.isEmpty() || "part".equals(path)) {
+            throw new IllegalArgumentException(String.format("illegal output path: %s.", path));
+        }
+        if (!this.paths.add(path)) {
+            throw new IllegalArgumentException(String.format("duplicate output path: %s.", path));
+        }
+        Job job = Job.getInstance(new Configuration(this.context.getConfiguration()));
+        job.setOutputFormatClass(OutputFormat.class.equals(format) ? getJobOutputFormat() : format);
+        if (!Object.class.equals(keyClass)) {
+            job.setOutputKeyClass(keyClass);
+        }
+        if (!Object.class.equals(valueClass)) {
+            job.setOutputValueClass(valueClass);
+        }
+        if (!compress) {
+            FileOutputFormat.setCompressOutput(job, false);
+        } else if (!CompressionCodec.class.equals(codec)) {
+            FileOutputFormat.setCompressOutput(job, true);
+            FileOutputFormat.setOutputCompressorClass(job, codec);
+        }
+        job.getConfiguration().set(BASE_OUTPUT_NAME, path);
+        Output<K, V> output = new Output<K, V>(path,
+                new TaskAttemptContextImpl(job.getConfiguration(), this.context.getTaskAttemptID()));
+        this.outputs.add(output);
+        return output;
+    }
+
+    /**
+     * 合并job中原job的主输出：写入dir/part，格式和压缩与job一致，保留区分标识；同一个原job的子类共用一个输出。
+     *
+     * @param dir 相对于job输出目录
+     * @return
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> Output<K, V> createMember(String dir) throws IOException {
+        String path = dir + "/part";
+        for (Output<?, ?> output : this.outputs) {
+            if (output.getPath().equals(path)) {
+                return (Output<K, V>) output;
+            }
+        }
+        Output<K, V> output = create(path, OutputFormat.class, true, CompressionCodec.class, Object.class,
+                Object.class);
+        output.splitKeyKept = true;
+        return output;
+    }
+
+    /**
+     * job的实际输出格式（去掉LazyOutputFormat）
+     */
+    @SuppressWarnings("rawtypes")
+    private Class<? extends OutputFormat> getJobOutputFormat() throws IOException {
+        Class<? extends OutputFormat> format;
+        try {
+            format = this.context.getOutputFormatClass();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        if (LazyOutputFormat.class.equals(format)) {
+            format = this.context.getConfiguration().getClass(LazyOutputFormat.OUTPUT_FORMAT, null,
+                    OutputFormat.class);
+        }
+        return format;
+    }
+
+    /**
+     * 关闭所有输出并输出计数器
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void close() throws IOException, InterruptedException {
+        IOException error = null;
+        for (Output<?, ?> output : this.outputs) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                error = e;
+            }
+            this.context.getCounter(COUNTER_GROUP, output.getPath()).increment(output.getRecords());
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 单个子类的输出
+     *
+     * @param <K>
+     * @param <V>
+     */
+    public static final class Output<K, V> {
+
+        private final String path;
+
+        private final TaskAttemptContext context;
+
+        private RecordWriter<K, V> writer;
+
+        private long records;
+
+        /** 是否保留区分标识，见createMember */
+        private boolean splitKeyKept;
+
+        private Output(String path, TaskAttemptContext context) {
+            this.path = path;
+            this.context = context;
+        }
+
+        /**
+         * 写入一条数据，第一次写入时创建文件；并行的子类可能同时写入，因此同步。
+         *
+         * @param key
+         * @param value
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        @SuppressWarnings("unchecked")
+        public synchronized void write(K key, V value) throws IOException, InterruptedException {
+            if (this.writer == null) {
+                OutputFormat<K, V> format;
+                try {
+                    format = (OutputFormat<K, V>) ReflectionUtils.newInstance(this.context.getOutputFormatClass(),
+                            this.context.getConfiguration());
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+                this.writer = format.getRecordWriter(this.context);
+            }
+            this.writer.write(key, value);
+            this.records++;
+        }
+
+        synchronized void close() throws IOException, InterruptedException {
+            if (this.writer != null) {
+                this.writer.close(this.context);
+                this.writer = null;
+            }
+        }
+
+        public String getPath() {
+            return this.path;
+        }
+
+        public boolean isSplitKeyKept() {
+            return this.splitKeyKept;
+        }
+
+        public synchronized long getRecords() {
+            return this.records;
+        }
+
+        @Override
+        public String toString() {
+            return "Output [path=" + path + ", records=" + records + "]";
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.hadoop.mapreduce;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * combiner容器按照splitKey决定是否跳过合并。
+ *
+ * 每个splitKey在预热阶段（输入累计达到warmup条之前）正常调用子类并统计输入、输出条数，
+ * 预热结束时若合并比例（1 - 输出/输入）低于reduction，之后该splitKey的数据直接原样输出。
+ * 跳过合并不影响结果，combiner本身就是可选的。
+ *
+ * 框架在每次溢写时重新创建combiner，因此统计保存在进程内（按照容器类区分），同一个task的多次溢写共用一次决策；
+ * 进程被复用（JVM reuse）执行下一个task时清除上一个task的统计。
+ *
+ * 计数器分组为COUNTER_GROUP，后缀为splitKey：
+ * WARMUP_IN/WARMUP_OUT 为预热阶段的输入、输出条数（可以汇总计算整个job的合并比例），
+ * BYPASSED 为跳过合并的task数，PASSTHROUGH_RECORDS 为跳过合并后原样输出的条数。
+ *
+ * 默认关闭，通过-Dcontainer.containerName.bypass=true开启。每个splitKey最多4个计数器，
+ * splitKey较多时会超过计数器上限（mapreduce.job.counters.max，默认120）。
+ *
+ *
+ *
+ */
+public class CombinerBypass {
+
+    /** 计数器分组 */
+    public static final String COUNTER_GROUP = "CombinerBypass";
+
+    public static final String COUNTER_WARMUP_IN = "WARMUP_IN_SPLITKEY_";
+
+    public static final String COUNTER_WARMUP_OUT = "WARMUP_OUT_SPLITKEY_";
+
+    public static final String COUNTER_BYPASSED = "BYPASSED_SPLITKEY_";
+
+    public static final String COUNTER_PASSTHROUGH = "PASSTHROUGH_RECORDS_SPLITKEY_";
+
+    /** 缺省预热条数 */
+    public static final long DEFAULT_WARMUP = 10000;
+
+    /** 缺省最低合并比例 */
+    public static final double DEFAULT_REDUCTION = 0.1;
+
+    /** 容器类名 -&gt; 统计，只保存当前task的 */
+    private static final Map<String, CombinerBypass> INSTANCES = new HashMap<String, CombinerBypass>();
+
+    /** INSTANCES所属的task */
+    private static TaskAttemptID task;
+
+    private final long warmup;
+
+    private final double reduction;
+
+    /** splitKey -&gt; 统计 */
+    private final Map<Integer, Stat> stats = new HashMap<Integer, Stat>();
+
+    private CombinerBypass(long warmup, double reduction) {
+        if (warmup <= 0) {
+            throw new IllegalArgumentException(String.format("illegal warmup %d.", warmup));
+        }
+        if (reduction < 0 || reduction > 1) {
+            throw new IllegalArgumentException(String.format("illegal reduction %s.", reduction));
+        }
+        this.warmup = warmup;
+        this.reduction = reduction;
+    }
+
+    /**
+     * 获取容器在当前task内的统计，参数只在第一次创建时生效
+     *
+     * @param container 容器类
+     * @param attempt 当前task，与上一次不同时清除之前的统计
+     * @param warmup 预热条数
+     * @param reduction 最低合并比例
+     * @return
+     */
+    public static synchronized CombinerBypass get(Class<?> container, TaskAttemptID attempt, long warmup,
+            double reduction) {
+        if (task == null || !task.equals(attempt)) {
+            INSTANCES.clear();
+            task = attempt;
+        }
+        CombinerBypass bypass = INSTANCES.get(container.getName());
+        if (bypass == null) {
+            bypass = new CombinerBypass(warmup, reduction);
+            INSTANCES.put(container.getName(), bypass);
+        }
+        return bypass;
+    }
+
+    /**
+     * 获取splitKey的统计
+     *
+     * @param splitKey
+     * @return
+     */
+    public Stat getStat(int splitKey) {
+        Stat stat = this.stats.get(splitKey);
+        if (stat == null) {
+            stat = new Stat(splitKey);
+            this.stats.put(splitKey, stat);
+        }
+        return stat;
+    }
+
+    /**
+     * 输出本次运行以来的增量到计数器
+     *
+     * @param context
+     */
+    public void publish(TaskInputOutputContext<?, ?, ?, ?> context) {
+        for (Stat stat : this.stats.values()) {
+            stat.publish(context);
+        }
+    }
+
+    /**
+     * 单个splitKey的统计
+     */
+    public final class Stat {
+
+        private final int splitKey;
+
+        private long in;
+
+        private long out;
+
+        private long passed;
+
+        private boolean bypassed;
+
+        /** 已经输出到计数器的值 */
+        private long publishedIn;
+
+        private long publishedOut;
+
+        private long publishedPassed;
+
+        private boolean publishedBypassed;
+
+        private Stat(int splitKey) {
+            this.splitKey = splitKey;
+        }
+
+        /**
+         * 是否已经决定跳过合并
+         * @return
+         */
+        public boolean isBypassed() {
+            return this.bypassed;
+        }
+
+        /**
+         * 是否还在预热阶段
+         * @return
+         */
+        public boolean isWarming() {
+            return this.in < CombinerBypass.this.warmup;
+        }
+
+        /**
+         * 记录预热阶段一次合并的输入、输出条数，达到预热条数时决策
+         *
+         * @param in
+         * @param out
+         */
+        public void combined(long in, long out) {
+            this.in += in;
+            this.out += out;
+            if (!isWarming()) {
+                this.bypassed = 1 - (double) this.out / this.in < CombinerBypass.this.reduction;
+            }
+        }
+
+        /**
+         * 记录跳过合并后原样输出的条数
+         *
+         * @param records
+         */
+        public void passed(long records) {
+            this.passed += records;
+        }
+
+        private void publish(TaskInputOutputContext<?, ?, ?, ?> context) {
+            increment(context, COUNTER_WARMUP_IN, this.in - this.publishedIn);
+            increment(context, COUNTER_WARMUP_OUT, this.out - this.publishedOut);
+            increment(context, COUNTER_PASSTHROUGH, this.passed - this.publishedPassed);
+            if (this.bypassed && !this.publishedBypassed) {
+                increment(context, COUNTER_BYPASSED, 1);
+                this.publishedBypassed = true;
+            }
+            this.publishedIn = this.in;
+            this.publishedOut = this.out;
+            this.publishedPassed = this.passed;
+        }
+
+        private void increment(TaskInputOutputContext<?, ?, ?, ?> context, String name, long value) {
+            if (value != 0) {
+                context.getCounter(COUNTER_GROUP, name + this.splitKey).increment(value);
+            }
+        }
+    }
+}
@@ -2,12 +2,17 @@ package com.hadoop.mapreduce;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
 import com.hadoop.entry.ClassFinder;
 import com.hadoop.entry.Jobs;
+import com.hadoop.io.SplitOutputKey;
+import com.hadoop.io.SplitRecord;
+import com.hadoop.plat.util.BytesUtil;
 import com.hadoop.plat.util.StringUtil;
 import com.hadoop.util.Logger;
 
@@ -34,12 +39,33 @@ public abstract class ContainerKeyMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> exten
      */
     // protected List<KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> mappers = new ArrayList<KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>>();
     
-    /** key与 mapper的映射表 */
-    protected Map<Integer, KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> keyMapperMap = new HashMap<Integer, KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>>();
+    /** key与 mapper的分发表，在setup时构建 */
+    protected SplitKeyTable<KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> keyMappers = new SplitKeyTable.Builder<KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>>().build();
     
     /** 老版本（未切换新平台）混合mapper */
     protected List<KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> elderMappers = new ArrayList<KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>>();
 
+    /** 并行执行子类，未开启时为null */
+    protected ParallelMappers<KEYIN, VALUEIN, KEYOUT, VALUEOUT> parallelMappers;
+
+    /** 并行执行时所有输出共享的串行化context */
+    protected Context collector;
+
+    /** isMapOnly的子类的独立输出，没有时为null */
+    protected ChildOutputs childOutputs;
+
+    /** 声明了字段的mapper共享的视图，没有mapper声明时为null */
+    protected RecordView view;
+
+    /** 当前数据的序号 */
+    private long recordSeq;
+
+    /** 视图对应的数据序号，同一条数据只reset一次 */
+    private long viewSeq = -1;
+
+    /** 所有子类输入条件的路由索引，没有子类声明条件时为null */
+    protected PredicateIndex predicateIndex;
+
     /**
      * 创建解析器
      * @param context
@@ -92,12 +118,24 @@ public abstract class ContainerKeyMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> exten
     @Override
     public void setup(Context context) throws IOException, InterruptedException {
 
+        ContainerResolver resolver = createResolver(context);
+        boolean parallel = resolver.getBoolean("parallel", false);
+        if (parallel) {
+            // 并行时所有写入都经过同一个串行化的context
+            this.collector = ParallelMappers.synchronize(context);
+            context = this.collector;
+        }
+        
+        SplitOutputKey.setLegacyFormat(Jobs.isSplitKeyLegacyFormat(context.getConfiguration()));
         this.separator = Jobs.getOutputSeparator(context.getConfiguration());
+        this.separatorBytes = BytesUtil.toBytes(this.separator);
+        this.inputSeparator = Jobs.getInputSeparator(context.getConfiguration());
         this.splitKey = getOutputSplitKey();// buildSplitKey(context.getConfiguration());
         this.context = getKeyMapContext(context, this.splitKey, this.separator);
         Logger.init(context.getConfiguration());
 
         List<KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> mappers = createMappers(context);
+        SplitKeyTable.Builder<KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> builder = new SplitKeyTable.Builder<KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>>();
         for (KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper : mappers) {
             // setup
             mapper.setup(context); // 使用原来的context
@@ -105,13 +143,67 @@ public abstract class ContainerKeyMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> exten
             if(mapper.isFitToOld()) {
                 this.elderMappers.add(mapper);
             } else {
-                this.keyMapperMap.put(mapper.getOutputSplitKey(), mapper);
+                builder.add(mapper.getOutputSplitKey(), mapper);
+            }
+        }
+        // 编译为不可修改的分发表
+        this.keyMappers = builder.build();
+        this.view = createRecordView();
+        if (resolver.getBoolean("cost", false)) {
+            // 统计每个子类的开销，并行执行时由工作线程统计
+            int sample = (int) resolver.getLong("cost.sample", ChildCost.DEFAULT_SAMPLE);
+            for (KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper : mappers) {
+                mapper.setCost(new ChildCost(mapper, mapper.getOutputSplitKey(), sample));
             }
         }
+        if (context.getNumReduceTasks() > 0 || !Jobs.getFusedRoutes(context.getConfiguration()).isEmpty()) {
+            // 只需要map的子类不经过shuffle；没有reduce的合并job中子类写入原job的输出
+            this.childOutputs = createChildOutputs(context);
+        }
+        if (context.getNumReduceTasks() > 0) {
+            // 热点key打散，独立输出的子类不经过shuffle，不需要
+            for (int i = 0; i < this.keyMappers.size(); i++) {
+                KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper = this.keyMappers.valueAt(i);
+                if (mapper.getRoute() == null) {
+                    mapper.setSalter(KeySalter.create(context.getConfiguration(), mapper.getOutputSplitKey()));
+                }
+            }
+        }
+        if (parallel) {
+            this.parallelMappers = createParallelMappers(resolver);
+        }
         // 容器类不应该有自己的业务逻辑，建议不实现。
         setup0(this.context);
     }
 
+    /**
+     * 为分发表中isMapOnly的子类创建独立输出。
+     * 合并job（见ScanSharingPlanner）中写入原job的输出目录：isMapOnly的子类为目录下CombOutput定义的路径，没有reduce时为原job的主输出。
+     * @param context
+     * @return 没有这样的子类时返回null
+     * @throws IOException
+     */
+    protected ChildOutputs createChildOutputs(Context context) throws IOException {
+        ChildOutputs outputs = null;
+        boolean reduce = context.getNumReduceTasks() > 0;
+        Map<String, String> fused = Jobs.getFusedRoutes(context.getConfiguration());
+        for (int i = 0; i < this.keyMappers.size(); i++) {
+            KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper = this.keyMappers.valueAt(i);
+            String dir = fused.get(mapper.getClass().getName());
+            if (reduce ? !mapper.isMapOnly() : dir == null) {
+                continue;
+            }
+            if (outputs == null) {
+                outputs = new ChildOutputs(context);
+            }
+            ChildOutputs.Output<KEYOUT, VALUEOUT> output = !reduce ? outputs.<KEYOUT, VALUEOUT> createMember(dir)
+                    : outputs.<KEYOUT, VALUEOUT> create(mapper.getClass(), dir);
+            mapper.setRoute(output);
+            Logger.info(String.format("map-only %s writes to %s.", mapper.getClass().getName(), output.getPath()));
+        }
+        return outputs;
+    }
+
     /**
      * 子类不允许实现该方法，调整为实现map0方法。
      * 
@@ -121,11 +213,29 @@ public abstract class ContainerKeyMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> exten
      */
     @Override
     protected void map(KEYIN key, VALUEIN text, Context context) throws IOException, InterruptedException {
+        if (this.collector != null) {
+            context = this.collector;
+        }
+        this.recordSeq++;
         // 输入数据
         // String value = text.toString().trim();
         
         // map 需要判定value中是否包含splitKey
+        if (text instanceof SplitRecord) {
+            // 中间结果已经解析了splitKey，不再拆分文本
+            if (mapRecord(key, (SplitRecord) text, context)) {
+                mapElders(key, text, context);
+            }
+            return;
+        }
         boolean isSubSplitKey = text instanceof com.hadoop.io.SplitKey;
+        if (!isSubSplitKey && text instanceof Text) {
+            // Text直接在字节上拆分splitKey，只有被mapper处理的数据才解码。
+            if (mapBytes(key, text, context)) {
+                mapElders(key, text, context);
+            }
+            return;
+        }
         // 利用toString返回实际值，自定义类型也需要利用toString返回实际值。
         String value = isSubSplitKey ? ((com.hadoop.io.SplitKey)text).toReal() : text.toString();
 
@@ -158,28 +268,295 @@ public abstract class ContainerKeyMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> exten
         }
         
         if(keyData != null) {
-            KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper = this.keyMapperMap.get(keyData);
-            if(mapper != null) {
+            KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper = this.keyMappers.get(keyData);
+            if (mapper != null && mapper.inputPredicate != null && !mapper.inputPredicate.test(viewOf(valueData))) {
+                // 不满足子类的输入条件，丢弃
+            } else if(mapper != null && this.parallelMappers != null) {
+                this.parallelMappers.get(keyData).map(valueData);
+            } else if(mapper != null) {
                 // 调整为只有SPLITKEY匹配的数据才处理
-                mapper.map0(valueData, mapper.getWrappedContext());// 注意，要使用自己的context
+                invoke(mapper, valueData);// 注意，要使用自己的context
             } else {
                 // 找不到SPLITKEY对应的mapper实现
                 writeDirectly(key, text, context);//使用原来的context
             }
             
         } else {
-            // 没有SPLITKEY的情况，只能挨个调用
-            for (KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper : this.keyMapperMap.values()) {
-                mapper.map0(valueData, mapper.getWrappedContext());// 注意，要使用自己的context
+            // 没有SPLITKEY的情况，只能挨个调用，不满足输入条件的子类跳过
+            boolean[] selected = this.predicateIndex == null ? null : this.predicateIndex.select(viewOf(valueData));
+            for (int i = 0; i < this.keyMappers.size(); i++) {
+                if (selected != null && !selected[i]) {
+                    continue;
+                }
+                if (this.parallelMappers != null) {
+                    this.parallelMappers.valueAt(i).map(valueData);
+                    continue;
+                }
+                KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper = this.keyMappers.valueAt(i);
+                invoke(mapper, valueData);// 注意，要使用自己的context
+            }
+        }
+        mapElders(key, text, context);
+    }
+    
+    /**
+     * 在Text的UTF-8字节上拆分splitKey并分发给对应的mapper。
+     * 
+     * @param key
+     * @param text
+     * @param context
+     * @return 数据格式不符合要求（缺少区分标识）时返回false
+     */
+    private boolean mapBytes(KEYIN key, VALUEIN text, Context context) throws IOException, InterruptedException {
+        Text tmp = (Text) text;
+        byte[] bytes = tmp.getBytes();
+        int start = 0;
+        int end = tmp.getLength();
+        
+        long keyData = BytesUtil.NOT_INT;
+        // 输入数据没有携带key标识，通过container的isKeyDataIn获取
+        if (isKeyDataIn() && this.separatorBytes != null) {
+            int index = BytesUtil.indexOf(bytes, 0, end, this.separatorBytes);
+            if (index < 0) {
+                return false;
+            }
+            keyData = BytesUtil.parseInt(bytes, 0, index);
+            start = index + this.separatorBytes.length;
+        }
+        mapBytes(key, text, keyData, bytes, start, end - start, context);
+        return true;
+    }
+    
+    /**
+     * 分发SplitRecordInputFormat读取的中间结果，使用记录中的splitKey和实际值的起始位置。
+     * 
+     * 没有splitKey或者分隔符与当前不一致时按照Text处理。
+     * @param key
+     * @param record
+     * @param context
+     * @return 数据格式不符合要求（缺少区分标识）时返回false
+     */
+    @SuppressWarnings("unchecked")
+    private boolean mapRecord(KEYIN key, SplitRecord record, Context context) throws IOException, InterruptedException {
+        byte[] bytes = record.getBytes();
+        int offset = record.getOffset();
+        if (!isKeyDataIn() || this.separatorBytes == null || record.getSplitKey() == 0) {
+            return mapBytes(key, (VALUEIN) record, context);
+        }
+        int length = this.separatorBytes.length;
+        if (offset > 0 && (offset < length
+                || !BytesUtil.equals(bytes, offset - length, length, this.separatorBytes, 0, length))) {
+            return mapBytes(key, (VALUEIN) record, context);
+        }
+        mapBytes(key, (VALUEIN) record, record.getSplitKey(), bytes, offset, record.getLength() - offset, context);
+        return true;
+    }
+    
+    /**
+     * 按照splitKey分发[start, start + length)范围内的字节。
+     * 
+     * @param key
+     * @param text
+     * @param keyData 为BytesUtil.NOT_INT时分发给所有mapper
+     * @param bytes
+     * @param start
+     * @param length
+     * @param context
+     */
+    private void mapBytes(KEYIN key, VALUEIN text, long keyData, byte[] bytes, int start, int length, Context context)
+            throws IOException, InterruptedException {
+        if (keyData != BytesUtil.NOT_INT) {
+            KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper = this.keyMappers.get((int) keyData);
+            if (mapper != null && mapper.inputPredicate != null
+                    && !mapper.inputPredicate.test(viewOf(bytes, start, length))) {
+                // 不满足子类的输入条件，丢弃
+            } else if (mapper != null && this.parallelMappers != null) {
+                // 复制到子类的队列，由工作线程处理
+                this.parallelMappers.get((int) keyData).map(bytes, start, length);
+            } else if (mapper != null) {
+                // 调整为只有SPLITKEY匹配的数据才处理
+                invoke(mapper, bytes, start, length);// 注意，要使用自己的context
+            } else {
+                // 找不到SPLITKEY对应的mapper实现
+                writeDirectly(key, text, context);//使用原来的context
+            }
+        } else {
+            // 没有SPLITKEY的情况，只能挨个调用，不处理字节的mapper共享一次解码的结果
+            String value = null;
+            boolean[] selected = this.predicateIndex == null ? null
+                    : this.predicateIndex.select(viewOf(bytes, start, length));
+            for (int i = 0; i < this.keyMappers.size(); i++) {
+                if (selected != null && !selected[i]) {
+                    continue;
+                }
+                if (this.parallelMappers != null) {
+                    // 解码也在工作线程中进行
+                    this.parallelMappers.valueAt(i).map(bytes, start, length);
+                    continue;
+                }
+                KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper = this.keyMappers.valueAt(i);
+                if (mapper.isBytesIn() || mapper.isViewIn()) {
+                    invoke(mapper, bytes, start, length);
+                    continue;
+                }
+                if (value == null) {
+                    value = Text.decode(bytes, start, length);
+                }
+                invoke(mapper, value);// 注意，要使用自己的context
+            }
+        }
+    }
+    
+    /**
+     * 创建并行执行器，参数：<br>
+     * -Dcontainer.containerName.parallel=true 开启并行<br>
+     * -Dcontainer.containerName.parallel.threads 工作线程数，缺省为min(子类个数, CPU个数)<br>
+     * -Dcontainer.containerName.parallel.queue 每个子类的队列长度（批次数），缺省为4<br>
+     * -Dcontainer.containerName.parallel.batch 每个批次的记录数，缺省为256<br>
+     * 
+     * @param resolver
+     * @return
+     */
+    protected ParallelMappers<KEYIN, VALUEIN, KEYOUT, VALUEOUT> createParallelMappers(ContainerResolver resolver) {
+        int defaultThreads = Math.max(1, Math.min(this.keyMappers.size(), Runtime.getRuntime().availableProcessors()));
+        int threads = (int) resolver.getLong("parallel.threads", defaultThreads);
+        int queue = (int) resolver.getLong("parallel.queue", 4);
+        int batch = (int) resolver.getLong("parallel.batch", 256);
+        Logger.info(String.format("container %s runs %d mappers in %d threads.", getClass().getName(),
+                this.keyMappers.size(), threads));
+        return new ParallelMappers<KEYIN, VALUEIN, KEYOUT, VALUEOUT>(this.keyMappers, threads, queue, batch,
+                "container-" + getClass().getSimpleName());
+    }
+    
+    /**
+     * 创建共享的视图和输入条件的路由索引，视图只需要扫描到所有mapper声明的最大字段。
+     * @return 没有mapper声明字段或者输入条件时返回null
+     */
+    protected RecordView createRecordView() {
+        int max = -1;
+        boolean used = false;
+        InputPredicate[] predicates = new InputPredicate[this.keyMappers.size()];
+        for (int i = 0; i < this.keyMappers.size(); i++) {
+            KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper = this.keyMappers.valueAt(i);
+            if (mapper.isViewIn()) {
+                used = true;
+                max = Math.max(max, maxField(mapper.getFieldsIn()));
             }
+            predicates[i] = mapper.inputPredicate;
+        }
+        PredicateIndex index = new PredicateIndex(predicates);
+        if (!index.isEmpty()) {
+            this.predicateIndex = index;
+            used = true;
+            max = Math.max(max, index.getMaxField());
+        }
+        return used ? new RecordView(this.inputSeparator, max + 1) : null;
+    }
+    
+    /**
+     * 当前数据的视图，同一条数据只reset一次
+     * @param value
+     * @return
+     */
+    private RecordView viewOf(String value) {
+        if (this.viewSeq != this.recordSeq) {
+            this.view.reset(value);
+            this.viewSeq = this.recordSeq;
+        }
+        return this.view;
+    }
+    
+    /**
+     * 当前数据的视图，同一条数据只reset一次
+     * @param bytes
+     * @param start
+     * @param length
+     * @return
+     */
+    private RecordView viewOf(byte[] bytes, int start, int length) {
+        if (this.viewSeq != this.recordSeq) {
+            this.view.reset(bytes, start, length);
+            this.viewSeq = this.recordSeq;
+        }
+        return this.view;
+    }
+    
+    /**
+     * 调用子类处理字符串数据，并统计开销
+     * @param mapper
+     * @param value
+     */
+    private void invoke(KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper, String value)
+            throws IOException, InterruptedException {
+        ChildCost cost = mapper.getCost();
+        if (cost != null) {
+            cost.start();
         }
+        if (mapper.isViewIn()) {
+            mapper.map0(viewOf(value), mapper.getWrappedContext());
+        } else {
+            mapper.map0(value, mapper.getWrappedContext());
+        }
+        if (cost != null) {
+            cost.stop();
+        }
+    }
+    
+    /**
+     * 调用子类处理字节数据，并统计开销
+     * @param mapper
+     * @param bytes
+     * @param start
+     * @param length
+     */
+    private void invoke(KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper, byte[] bytes, int start,
+            int length) throws IOException, InterruptedException {
+        ChildCost cost = mapper.getCost();
+        if (cost != null) {
+            cost.start();
+        }
+        if (mapper.isViewIn()) {
+            mapper.map0(viewOf(bytes, start, length), mapper.getWrappedContext());
+        } else {
+            mapper.map0(bytes, start, length, mapper.getWrappedContext());
+        }
+        if (cost != null) {
+            cost.stop();
+        }
+    }
+    
+    /**
+     * 子类开销输出到计数器
+     * @param mapper
+     * @param context
+     */
+    private void publishCost(KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper, Context context) {
+        if (mapper.getCost() != null) {
+            mapper.getCost().publish(context);
+        }
+    }
+    
+    /**
+     * 调用老版本的mapper。
+     * 
+     * @param key
+     * @param text
+     * @param context
+     */
+    private void mapElders(KEYIN key, VALUEIN text, Context context) throws IOException, InterruptedException {
         if (!this.elderMappers.isEmpty()) {
             // 继续兼容未实现平台的mapper
             for (KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> oldMapper : this.elderMappers) {
+                ChildCost cost = oldMapper.getCost();
+                if (cost != null) {
+                    cost.start();
+                }
                 oldMapper.map(key, text, context);// 使用原来的context
+                if (cost != null) {
+                    cost.stop();
+                }
             }
         }
-
     }
 
     @Override
@@ -192,18 +569,45 @@ public abstract class ContainerKeyMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> exten
      */
     @Override
     public void cleanup(Context context) throws IOException, InterruptedException {
+        if (this.collector != null) {
+            context = this.collector;
+        }
+        if (this.parallelMappers != null) {
+            // 等待所有子类处理完队列中的数据，cleanup在当前线程中执行
+            this.parallelMappers.finish();
+        }
         
-        for (KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper : this.keyMapperMap.values()) {
+        ChildOutputs hotKeyOutputs = null;
+        ChildOutputs.Output<Text, LongWritable> candidates = null;
+        for (int i = 0; i < this.keyMappers.size(); i++) {
+            KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper = this.keyMappers.valueAt(i);
             mapper.cleanup(mapper.getWrappedContext());// 注意，要使用自己的context
+            publishCost(mapper, context);
+            if (mapper.getSalter() != null) {
+                if (hotKeyOutputs == null && context.getConfiguration().get(Jobs.JOB_SALT_KEYS_DIR) != null) {
+                    // 检测到的热点key只在需要保存时写入，见HotKeyStore
+                    hotKeyOutputs = new ChildOutputs(context);
+                    candidates = KeySalter.createCandidates(hotKeyOutputs);
+                }
+                mapper.getSalter().publish(context, candidates);
+            }
+        }
+        if (hotKeyOutputs != null) {
+            hotKeyOutputs.close();
         }
 
         if (!this.elderMappers.isEmpty()) {
             // 继续兼容未实现平台的reducer
             for (KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper : this.elderMappers) {
                 mapper.cleanup(context);// 使用原来的context
+                publishCost(mapper, context);
             }
         }
         
+        if (this.childOutputs != null) {
+            this.childOutputs.close();
+        }
+        
         cleanup0(this.context);
     }
 
@@ -2,12 +2,22 @@ package com.hadoop.mapreduce;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
 import com.hadoop.entry.ClassFinder;
 import com.hadoop.entry.Jobs;
+import com.hadoop.io.SplitOutputKey;
+import com.hadoop.io.SplitOutputKeyGroupingComparator;
 import com.hadoop.plat.util.StringUtil;
 import com.hadoop.util.Logger;
 
@@ -16,6 +26,11 @@ import com.hadoop.util.Logger;
  * 
  * 目前只支持KeyWrappedReducer类型（其实也可以支持普通的Reducer）。
  * 
+ * 开启输出路由（-Dcontainer.containerName.route=true）时，每个子类的输出去掉区分标识后直接写入自己的路径，见ChildOutputs。
+ * 开启热点key打散（-Djob.salt.enabled=true）时，isSaltable的子类的加盐分组只合并为部分结果，见KeySalter。
+ * splitKey相同的KeyJoinReducer组成关联组，共用一次shuffle完成多路关联，见KeyJoinReducer。
+ * 作为combiner时，合并比例过低的splitKey在预热后跳过合并直接输出（-Dcontainer.containerName.bypass=false关闭），见CombinerBypass。
+ * 
  * 
  *
  * @param <KEYIN>
@@ -32,12 +47,42 @@ public abstract class ContainerKeyReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
      */
     // protected List<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> reducers = new ArrayList<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>>();
     
-    /** key与 reducer的映射表 */
-    protected Map<Integer, KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> keyReducerMap = new HashMap<Integer, KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>>();
+    /** key与 reducer的分发表，在setup时构建 */
+    protected SplitKeyTable<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> keyReducers = new SplitKeyTable.Builder<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>>().build();
     
     /** 老版本（未切换新平台）混合reducer */
     protected List<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> elderReducers = new ArrayList<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>>();
 
+    /** 关联的子类 */
+    protected List<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> joinReducers = new ArrayList<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>>();
+    
+    /** splitKey与关联组的分发表，没有关联的子类时为null */
+    protected SplitKeyTable<KeyJoinGroup<VALUEIN>> joinGroups;
+
+    /** 输出路由开启时各子类的独立输出，未开启时为null */
+    protected ChildOutputs childOutputs;
+
+    /** 热点key打散的部分结果输出，未开启或者没有子类支持时为null */
+    protected ChildOutputs saltedOutputs;
+    
+    /** 部分结果，key为去掉盐后的原始key */
+    protected ChildOutputs.Output<KEYIN, VALUEIN> saltedPartials;
+    
+    /** 去掉盐的复用对象 */
+    private KeySalter.Unsalter<KEYIN> unsalter;
+    
+    /** combiner跳过合并的统计，不是combiner或者未开启时为null */
+    protected CombinerBypass bypass;
+    
+    /** splitKey与跳过合并统计的分发表 */
+    private SplitKeyTable<CombinerBypass.Stat> bypassStats;
+    
+    /** 统计子类读取value条数的复用对象 */
+    private final CountingValues<VALUEIN> countingValues = new CountingValues<VALUEIN>();
+    
+    /** 同一组数据交给多个子类时的缓存，为null时说明不支持value的序列化，只有第一个子类能读取到数据 */
+    protected ReplayableValues<VALUEIN> replayValues;
+
     
     /**
      * 创建解析器
@@ -94,23 +139,173 @@ public abstract class ContainerKeyReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
         
         this.splitKey = getOutputSplitKey();//buildSplitKey(context.getConfiguration());
         this.separator = Jobs.getOutputSeparator(context.getConfiguration());
+        SplitOutputKey.setLegacyFormat(Jobs.isSplitKeyLegacyFormat(context.getConfiguration()));
         this.context = getReducerContext(context, this.splitKey, this.separator);
         Logger.init(context.getConfiguration());    
         // this.reducers.addAll(createReducers(context));
         List<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> reducers = createReducers(context);
+        SplitKeyTable.Builder<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> builder = new SplitKeyTable.Builder<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>>();
         for (KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer : reducers) {
             // setup
             reducer.setup(context); // 使用原来的context
             // cache
             if(reducer.isFitToOld()) {
                 this.elderReducers.add(reducer);
+            } else if (reducer instanceof KeyJoinReducer) {
+                this.joinReducers.add(reducer);
             } else {
-                this.keyReducerMap.put(reducer.getOutputSplitKey(), reducer);
+                builder.add(reducer.getOutputSplitKey(), reducer);
+            }
+        }
+        // 编译为不可修改的分发表
+        this.keyReducers = builder.build();
+        if (!this.joinReducers.isEmpty()) {
+            this.joinGroups = createJoinGroups(context);
+        }
+        this.replayValues = createReplayValues(context);
+        ContainerResolver resolver = createResolver(context);
+        if (resolver.getBoolean("cost", false)) {
+            // 统计每个子类的开销
+            int sample = (int) resolver.getLong("cost.sample", ChildCost.DEFAULT_SAMPLE);
+            for (KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer : reducers) {
+                reducer.setCost(new ChildCost(reducer, reducer.getOutputSplitKey(), sample));
             }
         }
+        if (resolver.getBoolean("route", false)
+                || (!resolver.isCombiner() && !Jobs.getFusedRoutes(context.getConfiguration()).isEmpty())) {
+            // 每个子类直接写入自己的输出，不再需要按照区分标识拆分的任务；合并job中写入原job的输出
+            this.childOutputs = createChildOutputs(context);
+        }
+        if (!resolver.isCombiner() && Jobs.isSaltEnabled(context.getConfiguration())) {
+            // 部分结果只在reduce阶段写入，combiner的输出仍然进入shuffle
+            createSaltedPartials(context);
+        }
+        if (resolver.isCombiner() && resolver.getBoolean("bypass", false)) {
+            createBypass(resolver);
+        }
         // 容器类不应该有自己的业务逻辑，建议不实现。
         setup0(this.context);
     }
+    
+    /**
+     * 按照splitKey把关联的子类组成关联组，每个小表的内存上限通过-Dcontainer.containerName.join.buffer.limit配置，单位为字节。
+     * @param context
+     * @return
+     * @throws IOException
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected SplitKeyTable<KeyJoinGroup<VALUEIN>> createJoinGroups(Context context) throws IOException {
+        if (!(context.getGroupingComparator() instanceof SplitOutputKeyGroupingComparator)) {
+            throw new IllegalArgumentException(String.format("join needs grouping comparator %s, but %s.",
+                    SplitOutputKeyGroupingComparator.class.getName(), context.getGroupingComparator().getClass().getName()));
+        }
+        Map<Integer, List<KeyJoinReducer<VALUEIN, ?, ?>>> members = new LinkedHashMap<Integer, List<KeyJoinReducer<VALUEIN, ?, ?>>>();
+        for (KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer : this.joinReducers) {
+            List<KeyJoinReducer<VALUEIN, ?, ?>> list = members.get(reducer.getOutputSplitKey());
+            if (list == null) {
+                list = new ArrayList<KeyJoinReducer<VALUEIN, ?, ?>>();
+                members.put(reducer.getOutputSplitKey(), list);
+            }
+            list.add((KeyJoinReducer) reducer);
+        }
+        Class<VALUEIN> valueClass = (Class<VALUEIN>) context.getMapOutputValueClass();
+        long limit = createResolver(context).getLong("join.buffer.limit", ReplayableValues.DEFAULT_LIMIT);
+        SplitKeyTable.Builder<KeyJoinGroup<VALUEIN>> builder = new SplitKeyTable.Builder<KeyJoinGroup<VALUEIN>>();
+        for (Map.Entry<Integer, List<KeyJoinReducer<VALUEIN, ?, ?>>> entry : members.entrySet()) {
+            if (entry.getKey() == 0 || this.keyReducers.get(entry.getKey()) != null) {
+                throw new IllegalArgumentException(String.format("join group needs its own splitKey, but %d.", entry.getKey()));
+            }
+            KeyJoinGroup<VALUEIN> group = new KeyJoinGroup<VALUEIN>(context.getConfiguration(), valueClass, limit,
+                    entry.getValue());
+            builder.add(entry.getKey(), group);
+            Logger.info(String.format("join group of splitKey %d: %d reducers, stream order %d.", entry.getKey(),
+                    entry.getValue().size(), group.getStreamOrder()));
+        }
+        return builder.build();
+    }
+    
+    /**
+     * 有子类支持热点key打散时创建部分结果的输出（SequenceFile，写入job输出目录下的KeySalter.PARTIALS_DIR），
+     * 并通过计数器告知driver哪些splitKey支持打散。
+     * @param context
+     * @throws IOException
+     */
+    protected void createSaltedPartials(Context context) throws IOException {
+        boolean saltable = false;
+        for (int i = 0; i < this.keyReducers.size(); i++) {
+            KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer = this.keyReducers.valueAt(i);
+            if (reducer.isSaltable()) {
+                context.getCounter(KeySalter.COUNTER_GROUP, KeySalter.COUNTER_SALTABLE + reducer.getOutputSplitKey())
+                        .increment(1);
+                saltable = true;
+            }
+        }
+        if (!saltable) {
+            return;
+        }
+        this.unsalter = new KeySalter.Unsalter<KEYIN>(context.getConfiguration());
+        this.saltedOutputs = new ChildOutputs(context);
+        this.saltedPartials = this.saltedOutputs.create(KeySalter.PARTIALS_PATH, SequenceFileOutputFormat.class,
+                false, CompressionCodec.class, context.getMapOutputKeyClass(), context.getMapOutputValueClass());
+    }
+    
+    /**
+     * 为分发表中的子类创建跳过合并的统计，通过-Dcontainer.containerName.bypass=true开启。
+     * 
+     * 预热条数和最低合并比例通过-Dcontainer.containerName.bypass.warmup、bypass.reduction配置。
+     * @param resolver
+     */
+    protected void createBypass(ContainerResolver resolver) {
+        this.bypass = CombinerBypass.get(getClass(), this.context.getTaskAttemptID(),
+                resolver.getLong("bypass.warmup", CombinerBypass.DEFAULT_WARMUP),
+                resolver.getDouble("bypass.reduction", CombinerBypass.DEFAULT_REDUCTION));
+        SplitKeyTable.Builder<CombinerBypass.Stat> builder = new SplitKeyTable.Builder<CombinerBypass.Stat>();
+        for (int i = 0; i < this.keyReducers.size(); i++) {
+            KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer = this.keyReducers.valueAt(i);
+            // 输出条数通过包装的context统计
+            if (reducer.getWritten() >= 0) {
+                builder.add(reducer.getOutputSplitKey(), this.bypass.getStat(reducer.getOutputSplitKey()));
+            }
+        }
+        this.bypassStats = builder.build();
+    }
+    
+    /**
+     * 为分发表中的子类创建独立输出，老版本的子类仍然使用原来的context。
+     * 
+     * 路径、格式和压缩通过子类上的CombOutput定义。
+     * 合并job（见ScanSharingPlanner）中子类写入原job的输出目录：开启路由时为目录下CombOutput定义的路径，否则为原job的主输出。
+     * @param context
+     * @return
+     * @throws IOException
+     */
+    protected ChildOutputs createChildOutputs(Context context) throws IOException {
+        ChildOutputs outputs = new ChildOutputs(context);
+        ContainerResolver resolver = createResolver(context);
+        boolean route = resolver.getBoolean("route", false);
+        Map<String, String> fused = resolver.isCombiner() ? Collections.<String, String> emptyMap()
+                : Jobs.getFusedRoutes(context.getConfiguration());
+        List<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> reducers =
+                new ArrayList<KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>>(this.joinReducers);
+        for (int i = 0; i < this.keyReducers.size(); i++) {
+            reducers.add(i, this.keyReducers.valueAt(i));
+        }
+        for (KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer : reducers) {
+            String dir = fused.get(reducer.getClass().getName());
+            ChildOutputs.Output<KEYOUT, VALUEOUT> output = null;
+            if (dir == null) {
+                output = route ? outputs.<KEYOUT, VALUEOUT> create(reducer.getClass()) : null;
+            } else {
+                output = route ? outputs.<KEYOUT, VALUEOUT> create(reducer.getClass(), dir)
+                        : outputs.<KEYOUT, VALUEOUT> createMember(dir);
+            }
+            if (output != null) {
+                reducer.setRoute(output);
+                Logger.info(String.format("route %s to %s.", reducer.getClass().getName(), output.getPath()));
+            }
+        }
+        return outputs;
+    }
 
     /**
      * 子类不允许实现该方法，调整为实现reduce0方法。
@@ -150,30 +345,215 @@ public abstract class ContainerKeyReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
             }
         }
         
+        KeyJoinGroup<VALUEIN> join = keyData == null || this.joinGroups == null ? null : this.joinGroups.get(keyData);
+        if (join != null) {
+            // 关联依赖遍历时key上变化的order，直接使用原始数据，不与老版本的reducer共享
+            join.reduce(valueData, key, values, context);
+            return;
+        }
+        KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer = keyData == null ? null : this.keyReducers.get(keyData);
+        if (reducer != null && this.saltedPartials != null && reducer.isSaltable()) {
+            KEYIN unsalted = this.unsalter.unsalt(key, keyData);
+            if (unsalted != null) {
+                // 加盐的热点key只合并为部分结果，老版本的子类也在合并任务中再处理
+                mergeSalted(reducer, unsalted, values, context);
+                return;
+            }
+        }
+        // 同一组数据有多个处理者时，缓存后重复遍历
+        int consumers = (keyData == null ? this.keyReducers.size() : 1) + this.elderReducers.size();
+        Iterable<VALUEIN> replay = values;
+        if (consumers > 1 && this.replayValues != null) {
+            this.replayValues.reset(values, key);
+            countReplay(context);
+            replay = this.replayValues;
+        }
+        
         if(keyData != null) {
-            KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer = this.keyReducerMap.get(keyData);
-            if(reducer != null) {
+            CombinerBypass.Stat stat = reducer == null || this.bypassStats == null ? null : this.bypassStats.get(keyData);
+            if (stat != null) {
+                combine(reducer, stat, valueData, key, replay, context);
+            } else if(reducer != null) {
                 // 调整为只有SPLITKEY匹配的数据才处理
-                reducer.reduce0(valueData, key, values, reducer.getWrappedContext());// 注意，要使用reducer自己的context
+                invoke(reducer, valueData, key, replay);// 注意，要使用reducer自己的context
             } else {
                 // 找不到SPLITKEY对应的reducer实现
-                writeDirectly(key, values, context);//使用原来的context
+                writeDirectly(key, replay, context);//使用原来的context
             }
             
         } else {
             // 没有SPLITKEY的情况，只能挨个调用
-            for (KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer : this.keyReducerMap.values()) {
-                reducer.reduce0(valueData, key, values, reducer.getWrappedContext());// 注意，要使用reducer自己的context
+            for (int i = 0; i < this.keyReducers.size(); i++) {
+                reducer = this.keyReducers.valueAt(i);
+                invoke(reducer, valueData, key, replay);// 注意，要使用reducer自己的context
             }
         }
         if (!this.elderReducers.isEmpty()) {
             // 继续兼容未实现平台的reducer
             for (KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> tmpReducer : this.elderReducers) {
-                tmpReducer.reduce(key, values, context);// 使用原来的context
+                ChildCost cost = tmpReducer.getCost();
+                if (cost != null) {
+                    cost.start();
+                }
+                tmpReducer.reduce(key, replay, context);// 使用原来的context
+                if (cost != null) {
+                    cost.stop();
+                }
             }
         }
     }
     
+    /**
+     * 创建value缓存，value类型不支持序列化时返回null。
+     * 
+     * 内存上限通过-Dcontainer.containerName.buffer.limit配置，单位为字节。
+     * @param context
+     * @return
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    protected ReplayableValues<VALUEIN> createReplayValues(Context context) throws IOException {
+        Configuration conf = context.getConfiguration();
+        Class<VALUEIN> valueClass = (Class<VALUEIN>) context.getMapOutputValueClass();
+        if (!ReplayableValues.isSupported(conf, valueClass)) {
+            Logger.warn(String.format("values of %s can't be replayed, only the first reducer can read them.", valueClass));
+            return null;
+        }
+        ContainerResolver resolver = createResolver(context);
+        long limit = resolver.getLong("buffer.limit", ReplayableValues.DEFAULT_LIMIT);
+        ReplayableValues<VALUEIN> replay = new ReplayableValues<VALUEIN>(conf, valueClass, limit);
+        String grouping = resolver.isCombiner() ? MRJobConfig.COMBINER_GROUP_COMPARATOR_CLASS
+                : MRJobConfig.GROUP_COMPARATOR_CLASS;
+        if (conf.get(grouping) != null) {
+            // 分组比较器使组内每条数据的key不同，重复遍历时恢复每条数据的key
+            replay.trackKeys(context.getMapOutputKeyClass());
+        }
+        return replay;
+    }
+    
+    /**
+     * 调用子类并统计开销
+     * @param reducer
+     * @param valueData
+     * @param key
+     * @param values
+     */
+    private void invoke(KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer, String valueData, KEYIN key,
+            Iterable<VALUEIN> values) throws IOException, InterruptedException {
+        ChildCost cost = reducer.getCost();
+        if (cost == null) {
+            reducer.reduce0(valueData, key, values, reducer.getWrappedContext());
+            return;
+        }
+        cost.start();
+        reducer.reduce0(valueData, key, values, reducer.getWrappedContext());
+        cost.stop();
+    }
+    
+    /**
+     * 作为combiner调用子类：预热阶段统计输入、输出条数，决定跳过合并后直接输出
+     * @param reducer
+     * @param stat
+     * @param valueData
+     * @param key
+     * @param values
+     * @param context
+     */
+    private void combine(KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer, CombinerBypass.Stat stat,
+            String valueData, KEYIN key, Iterable<VALUEIN> values, Context context)
+            throws IOException, InterruptedException {
+        if (stat.isBypassed()) {
+            this.countingValues.reset(values);
+            passThrough(key, this.countingValues, context);// 使用原来的context
+            stat.passed(this.countingValues.getCount());
+            return;
+        }
+        if (!stat.isWarming()) {
+            invoke(reducer, valueData, key, values);
+            return;
+        }
+        long written = reducer.getWritten();
+        this.countingValues.reset(values);
+        invoke(reducer, valueData, key, this.countingValues);
+        stat.combined(this.countingValues.getCount(), reducer.getWritten() - written);
+        if (stat.isBypassed()) {
+            Logger.info(String.format("bypass combiner %s, reduction is too low.", reducer.getClass().getName()));
+        }
+    }
+    
+    /**
+     * 跳过合并时原样输出，combiner的输入输出类型一致，不依赖子类实现writeDirectly
+     * @param key
+     * @param values
+     * @param context
+     */
+    @SuppressWarnings("unchecked")
+    private void passThrough(KEYIN key, Iterable<VALUEIN> values, Context context)
+            throws IOException, InterruptedException {
+        for (VALUEIN value : values) {
+            context.write((KEYOUT) key, (VALUEOUT) value);
+        }
+    }
+    
+    /**
+     * 用子类的merge合并加盐分组的value，写入部分结果
+     * @param reducer
+     * @param key 去掉盐的key
+     * @param values
+     * @param context
+     */
+    private void mergeSalted(KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer, KEYIN key,
+            Iterable<VALUEIN> values, Context context) throws IOException, InterruptedException {
+        ChildCost cost = reducer.getCost();
+        if (cost != null) {
+            cost.start();
+        }
+        Configuration conf = context.getConfiguration();
+        VALUEIN merged = null;
+        for (VALUEIN value : values) {
+            // value对象被框架复用，第一个需要复制
+            merged = merged == null ? copy(conf, value) : reducer.merge(merged, value);
+        }
+        if (merged != null) {
+            this.saltedPartials.write(key, merged);
+        }
+        if (cost != null) {
+            cost.stop();
+        }
+        context.getCounter(KeySalter.COUNTER_GROUP, KeySalter.COUNTER_SALTED_GROUPS + reducer.getOutputSplitKey())
+                .increment(1);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private VALUEIN copy(Configuration conf, VALUEIN value) throws IOException {
+        return ReflectionUtils.copy(conf, value, (VALUEIN) ReflectionUtils.newInstance(value.getClass(), conf));
+    }
+    
+    /**
+     * 子类开销输出到计数器
+     * @param reducer
+     * @param context
+     */
+    private void publishCost(KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer, Context context) {
+        if (reducer.getCost() != null) {
+            reducer.getCost().publish(context);
+        }
+    }
+    
+    /**
+     * 记录缓存的字节数
+     * @param context
+     */
+    private void countReplay(Context context) {
+        context.getCounter(ReplayableValues.COUNTER_GROUP, ReplayableValues.COUNTER_BYTES_BUFFERED)
+                .increment(this.replayValues.getBufferedBytes());
+        if (this.replayValues.isSpilled()) {
+            context.getCounter(ReplayableValues.COUNTER_GROUP, ReplayableValues.COUNTER_BYTES_SPILLED)
+                    .increment(this.replayValues.getSpilledBytes());
+            context.getCounter(ReplayableValues.COUNTER_GROUP, ReplayableValues.COUNTER_GROUPS_SPILLED).increment(1);
+        }
+    }
+    
     @Override
     public void reduce0(String key, Iterable<VALUEIN> values, Context context)
             throws IOException, InterruptedException {
@@ -189,17 +569,46 @@ public abstract class ContainerKeyReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
     public void cleanup(Context context) throws IOException, InterruptedException {
         
         // 没有SPLITKEY的情况，只能挨个调用
-        for (KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer : this.keyReducerMap.values()) {
+        for (int i = 0; i < this.keyReducers.size(); i++) {
+            KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer = this.keyReducers.valueAt(i);
+            reducer.cleanup(reducer.getWrappedContext());// 注意，要使用reducer自己的context
+            publishCost(reducer, context);
+        }
+
+        for (KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reducer : this.joinReducers) {
             reducer.cleanup(reducer.getWrappedContext());// 注意，要使用reducer自己的context
+            publishCost(reducer, context);
+        }
+        if (this.joinGroups != null) {
+            for (int i = 0; i < this.joinGroups.size(); i++) {
+                this.joinGroups.valueAt(i).close();
+            }
         }
 
         if (!this.elderReducers.isEmpty()) {
             // 继续兼容未实现平台的reducer
             for (KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> tmpReducer : this.elderReducers) {
                 tmpReducer.cleanup(context);// 使用原来的context
+                publishCost(tmpReducer, context);
             }
         }
         
+        if (this.replayValues != null) {
+            this.replayValues.close();
+        }
+        
+        if (this.childOutputs != null) {
+            this.childOutputs.close();
+        }
+        
+        if (this.saltedOutputs != null) {
+            this.saltedOutputs.close();
+        }
+        
+        if (this.bypass != null) {
+            this.bypass.publish(context);
+        }
+        
         // 容器类不应该有自己的业务逻辑，建议不实现。
         cleanup0(this.context);
     }
@@ -255,4 +664,47 @@ public abstract class ContainerKeyReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
             throws IOException, InterruptedException {
         // nothing
     }
+    
+    /**
+     * 统计读取条数的value包装，只能遍历一次
+     * 
+     * @param <T>
+     */
+    private static final class CountingValues<T> implements Iterable<T>, Iterator<T> {
+        
+        private Iterator<T> values;
+        
+        private long count;
+        
+        void reset(Iterable<T> values) {
+            this.values = values.iterator();
+            this.count = 0;
+        }
+        
+        long getCount() {
+            return this.count;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return this;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.values.hasNext();
+        }
+
+        @Override
+        public T next() {
+            T value = this.values.next();
+            this.count++;
+            return value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
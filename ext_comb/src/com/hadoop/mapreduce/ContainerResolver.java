@@ -13,6 +13,11 @@ import com.hadoop.entry.comb.CombContainer;
  * 样例：
  * -Dcontainer.containerName.jobName.jobSeq=a.class,b.class
  * -Dcontainer.containerName=a.class,b.class
+ * -Dcontainer.containerName.buffer.limit=33554432 （容器自身的运行参数）
+ * -Dcontainer.containerName.parallel=true
+ * -Dcontainer.containerName.cost=false （关闭子类开销统计）
+ * -Dcontainer.containerName.route=true （reducer子类直接写入各自的输出）
+ * -Dcontainer.containerName.bypass.reduction=0.1 （combiner合并比例低于该值的splitKey跳过合并，见CombinerBypass）
  * 
  * 
  *
@@ -127,6 +132,76 @@ public class ContainerResolver {
     }
     
     
+    /**
+     * 获取容器的运行参数，形如-Dcontainer.containerName.name=value
+     * @param name
+     * @return 容器未定义名称或者参数不存在时返回null
+     */
+    public String getProperty(String name) {
+        if (this.keyGlobal == null || this.conf == null) {
+            return null;
+        }
+        return this.conf.get(this.keyGlobal + "." + name, null);
+    }
+
+    /**
+     * 获取容器的整型运行参数
+     * @param name
+     * @param def
+     * @return
+     */
+    public long getLong(String name, long def) {
+        String value = getProperty(name);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("illegal number %s of %s.%s.", value, this.keyGlobal, name));
+        }
+    }
+
+    /**
+     * 获取容器的浮点运行参数
+     * @param name
+     * @param def
+     * @return
+     */
+    public double getDouble(String name, double def) {
+        String value = getProperty(name);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("illegal number %s of %s.%s.", value, this.keyGlobal, name));
+        }
+    }
+
+    /**
+     * 是否为combiner容器
+     * @return
+     */
+    public boolean isCombiner() {
+        return this.type == TYPE_COMBINER;
+    }
+
+    /**
+     * 获取容器的布尔运行参数
+     * @param name
+     * @param def
+     * @return
+     */
+    public boolean getBoolean(String name, boolean def) {
+        String value = getProperty(name);
+        if (value == null) {
+            return def;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+    
     /**
      * container管理类未定义
      * @param args
@@ -156,7 +231,22 @@ public class ContainerResolver {
 		}
 		return false;
 	}
-    
+
+	/**
+	 * 子类是否由容器按照splitKey分发（KeyWrappedMapper或者KeyWrappedReducer，且isFitToOld为false）
+	 * @param child 子类实例
+	 * @return
+	 */
+	public static boolean isDispatchable(Object child) {
+		if (child instanceof KeyWrappedMapper) {
+			return !((KeyWrappedMapper<?, ?, ?, ?>) child).isFitToOld();
+		}
+		if (child instanceof KeyWrappedReducer) {
+			return !((KeyWrappedReducer<?, ?, ?, ?>) child).isFitToOld();
+		}
+		return false;
+	}
+
 	/**
 	 * 获取运行参数或者Annotation中定义的被管理类。<br>
 	 * 
@@ -0,0 +1,159 @@
+package com.hadoop.mapreduce;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * 热点key统计（Space-Saving算法），只保留固定个数的计数器，内存与数据量无关。
+ *
+ * 计数器已满时新的key替换计数最小的key，并继承其计数作为误差上限，
+ * 因此出现次数超过 total / capacity 的key一定会被保留。
+ *
+ * 非线程安全。
+ *
+ *
+ *
+ */
+public class HotKeySketch {
+
+    /** 缺省计数器个数 */
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private final int capacity;
+
+    /** key -&gt; {计数, 误差} */
+    private final Map<Text, long[]> counters = new HashMap<Text, long[]>();
+
+    /** 查找用的复用对象 */
+    private final Text probe = new Text();
+
+    private long total;
+
+    public HotKeySketch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public HotKeySketch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("illegal capacity %d.", capacity));
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * 统计一次出现
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     */
+    public void offer(byte[] bytes, int offset, int length) {
+        this.total++;
+        this.probe.set(bytes, offset, length);
+        long[] counter = this.counters.get(this.probe);
+        if (counter != null) {
+            counter[0]++;
+            return;
+        }
+        if (this.counters.size() < this.capacity) {
+            this.counters.put(new Text(this.probe), new long[] { 1, 0 });
+            return;
+        }
+        // 替换计数最小的key
+        Text min = null;
+        long[] minCounter = null;
+        for (Map.Entry<Text, long[]> entry : this.counters.entrySet()) {
+            if (minCounter == null || entry.getValue()[0] < minCounter[0]) {
+                min = entry.getKey();
+                minCounter = entry.getValue();
+            }
+        }
+        this.counters.remove(min);
+        min.set(this.probe);
+        minCounter[1] = minCounter[0];
+        minCounter[0]++;
+        this.counters.put(min, minCounter);
+    }
+
+    /**
+     * 统计的总次数
+     * @return
+     */
+    public long getTotal() {
+        return this.total;
+    }
+
+    /**
+     * 确定次数（估算次数 - 误差）不少于 ratio * total 的key，按照次数从大到小排列。
+     *
+     * @param ratio 占比
+     * @param limit 最多返回的个数
+     * @return
+     */
+    public List<Hit> top(double ratio, int limit) {
+        List<Hit> hits = new ArrayList<Hit>();
+        double threshold = ratio * this.total;
+        for (Map.Entry<Text, long[]> entry : this.counters.entrySet()) {
+            long[] counter = entry.getValue();
+            if (counter[0] - counter[1] >= threshold) {
+                hits.add(new Hit(new Text(entry.getKey()), counter[0], counter[1]));
+            }
+        }
+        Collections.sort(hits, new Comparator<Hit>() {
+            @Override
+            public int compare(Hit o1, Hit o2) {
+                return Long.compare(o2.count, o1.count);
+            }
+        });
+        return hits.size() > limit ? hits.subList(0, limit) : hits;
+    }
+
+    /**
+     * 统计结果
+     */
+    public static final class Hit {
+
+        private final Text key;
+
+        private final long count;
+
+        private final long error;
+
+        private Hit(Text key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public Text getKey() {
+            return this.key;
+        }
+
+        /**
+         * 估算次数（不小于实际次数）
+         * @return
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * 估算次数的误差上限
+         * @return
+         */
+        public long getError() {
+            return this.error;
+        }
+
+        @Override
+        public String toString() {
+            return "Hit [key=" + key + ", count=" + count + ", error=" + error + "]";
+        }
+    }
+}
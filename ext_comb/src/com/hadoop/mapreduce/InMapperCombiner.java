@@ -0,0 +1,211 @@
+package com.hadoop.mapreduce;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BinaryComparable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * mapper内的按key合并，替代部分combiner的工作，减少序列化、排序和溢写。
+ *
+ * 相同key的输出通过Merger合并后保存在HashMap中，估算的内存超过上限时和cleanup时写入实际的context。
+ * 内存在每次新增或者合并时增量估算，不遍历整个HashMap。
+ *
+ * 注意：
+ * 1、合并必须满足结合律，因为同一个key在不同批次、不同mapper中仍会各自输出；
+ * 2、第一次出现的key和value会被复制（Writable），之后传入的对象可以被调用方复用；
+ * 3、非线程安全。
+ *
+ *
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class InMapperCombiner<K, V> {
+
+    /** 缺省内存上限 8M */
+    public static final long DEFAULT_BUDGET = 8L * 1024 * 1024;
+
+    /** 合并次数 */
+    public static final String COUNTER_FLUSHES = "COMBINE_FLUSHES";
+
+    /** 合并前的输出条数 */
+    public static final String COUNTER_RECORDS_IN = "COMBINE_RECORDS_IN";
+
+    /** 合并后实际写入的条数 */
+    public static final String COUNTER_RECORDS_OUT = "COMBINE_RECORDS_OUT";
+
+    /** 每个HashMap条目的估算开销（Entry、引用和对象头） */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /** 无法估算大小的对象的缺省值 */
+    private static final int DEFAULT_OBJECT_SIZE = 32;
+
+    /**
+     * 合并函数
+     *
+     * @param <V>
+     */
+    public interface Merger<V> {
+
+        /**
+         * 合并两个值，可以修改并返回previous，不能持有current。
+         *
+         * @param previous 已经保存的值
+         * @param current 新的值
+         * @return 合并后的值
+         */
+        V merge(V previous, V current);
+    }
+
+    private final Merger<V> merger;
+
+    private final long budget;
+
+    private final Configuration conf;
+
+    private final Map<K, V> buffer = new HashMap<K, V>();
+
+    /** 当前估算的内存 */
+    private long memory;
+
+    private long recordsIn;
+
+    private long recordsOut;
+
+    private long flushes;
+
+    /**
+     *
+     * @param merger
+     * @param budget 内存上限（字节）
+     * @param conf 用于复制Writable
+     */
+    public InMapperCombiner(Merger<V> merger, long budget, Configuration conf) {
+        if (merger == null) {
+            throw new NullPointerException("empty merger.");
+        }
+        this.merger = merger;
+        this.budget = budget;
+        this.conf = conf;
+    }
+
+    /**
+     * 输出一条数据，超过内存上限时写入context。
+     *
+     * @param key
+     * @param value
+     * @param context
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void emit(K key, V value, TaskInputOutputContext<?, ?, K, V> context) throws IOException,
+            InterruptedException {
+        this.recordsIn++;
+        V previous = this.buffer.get(key);
+        if (previous == null) {
+            V copy = copy(value);
+            this.buffer.put(copy(key), copy);
+            this.memory += ENTRY_OVERHEAD + sizeOf(key) + sizeOf(copy);
+        } else {
+            long before = sizeOf(previous);
+            V merged = this.merger.merge(previous, value);
+            if (merged != previous) {
+                // 返回了新对象，需要放回
+                this.buffer.put(key, merged);
+            }
+            this.memory += sizeOf(merged) - before;
+        }
+        if (this.memory >= this.budget) {
+            flush(context);
+        }
+    }
+
+    /**
+     * 将合并结果写入context并清空。
+     *
+     * @param context
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void flush(TaskInputOutputContext<?, ?, K, V> context) throws IOException, InterruptedException {
+        if (this.buffer.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<K, V> entry : this.buffer.entrySet()) {
+            context.write(entry.getKey(), entry.getValue());
+        }
+        this.recordsOut += this.buffer.size();
+        this.flushes++;
+        this.buffer.clear();
+        this.memory = 0;
+    }
+
+    /**
+     * 输出到计数器
+     *
+     * @param context
+     * @param group 计数器分组
+     */
+    public void publish(TaskAttemptContext context, String group) {
+        context.getCounter(group, COUNTER_FLUSHES).increment(this.flushes);
+        context.getCounter(group, COUNTER_RECORDS_IN).increment(this.recordsIn);
+        context.getCounter(group, COUNTER_RECORDS_OUT).increment(this.recordsOut);
+    }
+
+    /**
+     * 合并掉的记录比例
+     * @return
+     */
+    public double getSavedRatio() {
+        if (this.recordsIn == 0) {
+            return 0;
+        }
+        return 1.0 - (double) this.recordsOut / this.recordsIn;
+    }
+
+    public long getFlushes() {
+        return this.flushes;
+    }
+
+    public long getMemory() {
+        return this.memory;
+    }
+
+    /**
+     * 复制Writable，其它类型认为是不可变对象
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T copy(T obj) {
+        if (obj instanceof Writable) {
+            return (T) WritableUtils.clone((Writable) obj, this.conf);
+        }
+        return obj;
+    }
+
+    /**
+     * 估算对象大小
+     */
+    static long sizeOf(Object obj) {
+        if (obj instanceof BinaryComparable) {
+            // Text、BytesWritable等
+            return 24 + ((BinaryComparable) obj).getLength();
+        }
+        if (obj instanceof String) {
+            return 40 + 2 * ((String) obj).length();
+        }
+        return DEFAULT_OBJECT_SIZE;
+    }
+
+    @Override
+    public String toString() {
+        return "InMapperCombiner [size=" + buffer.size() + ", memory=" + memory + ", recordsIn=" + recordsIn
+                + ", recordsOut=" + recordsOut + ", flushes=" + flushes + "]";
+    }
+}
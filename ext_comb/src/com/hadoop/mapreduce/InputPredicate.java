@@ -0,0 +1,131 @@
+package com.hadoop.mapreduce;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.hadoop.plat.util.BytesUtil;
+
+/**
+ * 子类声明的输入过滤条件：某个字段等于常量、以常量开始或者属于常量集合。
+ *
+ * 由KeyWrappedMapper.getInputPredicate返回，框架在调用map0之前判断，不满足条件的数据不会交给子类。
+ * 字段按照输入分隔符拆分，从0开始。
+ *
+ *
+ *
+ */
+public final class InputPredicate {
+
+    /** 等于 */
+    public static final byte TYPE_EQUALS = 0;
+
+    /** 前缀 */
+    public static final byte TYPE_PREFIX = 1;
+
+    /** 属于集合 */
+    public static final byte TYPE_IN = 2;
+
+    /** 字段下标 */
+    private final int field;
+
+    private final byte type;
+
+    private final String[] values;
+
+    /** values的UTF-8字节 */
+    private final byte[][] valueBytes;
+
+    /** TYPE_IN 时的集合 */
+    private final Set<String> set;
+
+    private InputPredicate(int field, byte type, String... values) {
+        if (field < 0) {
+            throw new IllegalArgumentException(String.format("illegal field %d.", field));
+        }
+        if (values == null || values.length == 0) {
+            throw new IllegalArgumentException("empty predicate values.");
+        }
+        this.field = field;
+        this.type = type;
+        this.values = values.clone();
+        this.valueBytes = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                throw new IllegalArgumentException("null predicate value.");
+            }
+            this.valueBytes[i] = BytesUtil.toBytes(values[i]);
+        }
+        this.set = type == TYPE_IN ? new HashSet<String>(Arrays.asList(values)) : null;
+    }
+
+    /**
+     * 字段等于value
+     * @param field
+     * @param value
+     * @return
+     */
+    public static InputPredicate fieldEquals(int field, String value) {
+        return new InputPredicate(field, TYPE_EQUALS, value);
+    }
+
+    /**
+     * 字段以prefix开始
+     * @param field
+     * @param prefix
+     * @return
+     */
+    public static InputPredicate fieldStartsWith(int field, String prefix) {
+        return new InputPredicate(field, TYPE_PREFIX, prefix);
+    }
+
+    /**
+     * 字段属于values之一
+     * @param field
+     * @param values
+     * @return
+     */
+    public static InputPredicate fieldIn(int field, String... values) {
+        return new InputPredicate(field, TYPE_IN, values);
+    }
+
+    /**
+     * 判断数据是否满足条件，等于和前缀在字节模式下不解码。
+     *
+     * @param view
+     * @return 字段不存在时返回false
+     */
+    public boolean test(RecordView view) {
+        switch (this.type) {
+        case TYPE_EQUALS:
+            return view.fieldEquals(this.field, this.values[0], this.valueBytes[0]);
+        case TYPE_PREFIX:
+            return view.fieldStartsWith(this.field, this.values[0], this.valueBytes[0]);
+        default:
+            String value = view.get(this.field);
+            return value != null && this.set.contains(value);
+        }
+    }
+
+    public int getField() {
+        return this.field;
+    }
+
+    public byte getType() {
+        return this.type;
+    }
+
+    /**
+     * 常量值，TYPE_EQUALS和TYPE_PREFIX时只有一个
+     * @return
+     */
+    public String[] getValues() {
+        return this.values.clone();
+    }
+
+    @Override
+    public String toString() {
+        String[] names = { "equals", "prefix", "in" };
+        return "InputPredicate [field=" + field + ", " + names[type] + "=" + Arrays.toString(values) + "]";
+    }
+}
@@ -0,0 +1,315 @@
+package com.hadoop.mapreduce;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+import com.hadoop.io.SplitOutputKey;
+
+/**
+ * splitKey相同的KeyJoinReducer组成的关联组，一次遍历分组数据完成组内所有子类的关联，见KeyJoinReducer。
+ *
+ * 依赖Hadoop遍历value时在同一个key对象上更新order（分组比较器忽略order），
+ * 因此values必须是框架提供的原始数据，不能是ReplayableValues等缓存。
+ *
+ * 非线程安全。
+ *
+ *
+ *
+ * @param <VALUEIN>
+ */
+public class KeyJoinGroup<VALUEIN> implements Closeable {
+
+    /** 关联的子类 */
+    private final List<KeyJoinReducer<VALUEIN, ?, ?>> members;
+
+    /** 声明了大表的子类 */
+    private final List<KeyJoinReducer<VALUEIN, ?, ?>> streamers = new ArrayList<KeyJoinReducer<VALUEIN, ?, ?>>();
+
+    /** 大表的order */
+    private final long streamOrder;
+
+    private final Sides<VALUEIN> sides;
+
+    /**
+     *
+     * @param conf
+     * @param valueClass
+     * @param limit 每个小表的内存上限（字节），超过后溢写到本地临时文件
+     * @param members
+     * @throws IOException
+     */
+    public KeyJoinGroup(Configuration conf, Class<VALUEIN> valueClass, long limit,
+            List<? extends KeyJoinReducer<VALUEIN, ?, ?>> members) throws IOException {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("join group is empty.");
+        }
+        if (!ReplayableValues.isSupported(conf, valueClass)) {
+            throw new IllegalArgumentException(String.format("values of %s can't be buffered for join.", valueClass));
+        }
+        this.members = new ArrayList<KeyJoinReducer<VALUEIN, ?, ?>>(members);
+        long max = Long.MIN_VALUE;
+        for (KeyJoinReducer<VALUEIN, ?, ?> member : members) {
+            long[] orders = member.getJoinOrders();
+            if (orders == null || orders.length == 0) {
+                throw new IllegalArgumentException(String.format("%s has no join orders.", member.getClass().getName()));
+            }
+            for (long order : orders) {
+                max = Math.max(max, order);
+            }
+        }
+        this.streamOrder = max;
+        Map<Long, ReplayableValues<VALUEIN>> buffers = new HashMap<Long, ReplayableValues<VALUEIN>>();
+        for (KeyJoinReducer<VALUEIN, ?, ?> member : members) {
+            boolean streamed = false;
+            for (long order : member.getJoinOrders()) {
+                if (order == max) {
+                    streamed = true;
+                } else if (!buffers.containsKey(order)) {
+                    buffers.put(order, new ReplayableValues<VALUEIN>(conf, valueClass, limit));
+                }
+            }
+            if (streamed) {
+                this.streamers.add(member);
+            }
+        }
+        this.sides = new Sides<VALUEIN>(buffers);
+    }
+
+    /**
+     * 大表的order
+     * @return
+     */
+    public long getStreamOrder() {
+        return this.streamOrder;
+    }
+
+    /**
+     * 处理一组数据
+     *
+     * @param key 去掉区分标识的key
+     * @param oriKey 原始key，遍历values时order随之变化
+     * @param values
+     * @param context 用于输出缓存的计数器
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void reduce(String key, Object oriKey, Iterable<VALUEIN> values, TaskInputOutputContext<?, ?, ?, ?> context)
+            throws IOException, InterruptedException {
+        if (!(oriKey instanceof SplitOutputKey)) {
+            throw new IllegalArgumentException(String.format("join needs SplitOutputKey, but %s.",
+                    oriKey == null ? null : oriKey.getClass().getName()));
+        }
+        TaggedValues<VALUEIN> tagged = new TaggedValues<VALUEIN>((SplitOutputKey) oriKey, values.iterator());
+        this.sides.clear();
+        // 小表先到达，逐个缓存
+        while (tagged.hasSegment() && tagged.order() < this.streamOrder) {
+            long order = tagged.order();
+            ReplayableValues<VALUEIN> buffer = this.sides.buffers.get(order);
+            if (buffer == null) {
+                tagged.skipSegment();
+                continue;
+            }
+            buffer.reset(tagged.segment());
+            this.sides.present.put(order, buffer);
+            countBuffer(buffer, context);
+        }
+        long streamed = 0;
+        if (tagged.hasSegment() && tagged.order() == this.streamOrder) {
+            for (VALUEIN value : tagged.segment()) {
+                streamed++;
+                for (KeyJoinReducer member : this.streamers) {
+                    member.join0(key, this.sides, value, member.getWrappedContext());
+                    // 子类可能没有遍历完小表，及时关闭溢写文件
+                    this.sides.endReplay();
+                }
+            }
+        }
+        // 未声明的数据集
+        while (tagged.hasSegment()) {
+            tagged.skipSegment();
+        }
+        for (KeyJoinReducer member : this.members) {
+            member.finish0(key, this.sides, streamed, member.getWrappedContext());
+            this.sides.endReplay();
+        }
+    }
+
+    private void countBuffer(ReplayableValues<VALUEIN> buffer, TaskInputOutputContext<?, ?, ?, ?> context) {
+        context.getCounter(ReplayableValues.COUNTER_GROUP, ReplayableValues.COUNTER_BYTES_BUFFERED)
+                .increment(buffer.getBufferedBytes());
+        if (buffer.isSpilled()) {
+            context.getCounter(ReplayableValues.COUNTER_GROUP, ReplayableValues.COUNTER_BYTES_SPILLED)
+                    .increment(buffer.getSpilledBytes());
+            context.getCounter(ReplayableValues.COUNTER_GROUP, ReplayableValues.COUNTER_GROUPS_SPILLED).increment(1);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ReplayableValues<VALUEIN> buffer : this.sides.buffers.values()) {
+            buffer.close();
+        }
+    }
+
+    /**
+     * 当前分组中缓存的小表，可以重复遍历，value对象是复用的
+     *
+     * @param <V>
+     */
+    public static final class Sides<V> {
+
+        /** order -&gt; 缓存 */
+        private final Map<Long, ReplayableValues<V>> buffers;
+
+        /** 当前分组中出现的小表 */
+        private final Map<Long, ReplayableValues<V>> present = new HashMap<Long, ReplayableValues<V>>();
+
+        private Sides(Map<Long, ReplayableValues<V>> buffers) {
+            this.buffers = buffers;
+        }
+
+        private void clear() {
+            this.present.clear();
+        }
+
+        /**
+         * 结束当前分组中小表的遍历，关闭打开的溢写文件
+         */
+        private void endReplay() {
+            for (ReplayableValues<V> buffer : this.present.values()) {
+                buffer.endReplay();
+            }
+        }
+
+        /**
+         * 小表的数据，当前分组中没有时返回空
+         * @param order
+         * @return
+         */
+        public Iterable<V> get(long order) {
+            ReplayableValues<V> buffer = this.present.get(order);
+            return buffer == null ? Collections.<V> emptyList() : buffer;
+        }
+
+        /**
+         * 当前分组中小表的条数
+         * @param order
+         * @return
+         */
+        public long size(long order) {
+            ReplayableValues<V> buffer = this.present.get(order);
+            return buffer == null ? 0 : buffer.size();
+        }
+
+        /**
+         * 当前分组中是否有该小表
+         * @param order
+         * @return
+         */
+        public boolean contains(long order) {
+            return size(order) > 0;
+        }
+    }
+
+    /**
+     * 按照order把values切分为连续的段。
+     *
+     * 框架的value对象是复用的，因此只在调用方取走当前value之后（下一次hasNext时）才读取下一条。
+     *
+     * @param <V>
+     */
+    private static final class TaggedValues<V> {
+
+        private final SplitOutputKey key;
+
+        private final Iterator<V> values;
+
+        private V current;
+
+        private long order;
+
+        /** current是否已经被取走 */
+        private boolean consumed = true;
+
+        private boolean exhausted;
+
+        private final Iterable<V> segment = new Iterable<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                final long segmentOrder = TaggedValues.this.order;
+                return new Iterator<V>() {
+                    @Override
+                    public boolean hasNext() {
+                        return hasSegment() && TaggedValues.this.order == segmentOrder;
+                    }
+
+                    @Override
+                    public V next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        TaggedValues.this.consumed = true;
+                        return TaggedValues.this.current;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+
+        TaggedValues(SplitOutputKey key, Iterator<V> values) {
+            this.key = key;
+            this.values = values;
+        }
+
+        /**
+         * 是否还有数据，需要时读取下一条
+         */
+        boolean hasSegment() {
+            if (this.consumed && !this.exhausted) {
+                if (this.values.hasNext()) {
+                    this.current = this.values.next();
+                    this.order = this.key.getOrder();
+                    this.consumed = false;
+                } else {
+                    this.exhausted = true;
+                }
+            }
+            return !this.exhausted;
+        }
+
+        /**
+         * 当前数据的order，调用前需要hasSegment返回true
+         */
+        long order() {
+            return this.order;
+        }
+
+        /**
+         * 当前order的数据
+         */
+        Iterable<V> segment() {
+            return this.segment;
+        }
+
+        void skipSegment() {
+            for (Iterator<V> it = this.segment.iterator(); it.hasNext();) {
+                it.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.hadoop.mapreduce;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import com.hadoop.io.SplitOutputKey;
+
+/**
+ * reduce端多路关联的子类。
+ *
+ * 参与关联的数据集通过SplitOutputKey.order标识（tag），order小的先到达：
+ * map端同一个关联组的mapper子类（同一个splitKey）按照输入路径（见MapperPath）设置order，输出一次；
+ * job需要设置 groupingComparatorClass = SplitOutputKeyGroupingComparator.class（按照splitKey和key分组，忽略order）。
+ *
+ * 容器中splitKey相同的多个KeyJoinReducer组成一个关联组（KeyJoinGroup），共用一次shuffle和分组：
+ * 组内声明的最大order为大表，逐条流式读取；其余order为小表，缓存后（超过内存上限时溢写）供所有子类重复读取。
+ * 每条大表数据调用声明了大表的子类的join0，一组结束后调用所有子类的finish0（可用于外连接或者只关联小表）。
+ *
+ * 关联组不与老版本（isFitToOld）的reducer共享数据，没有splitKey的数据也不参与关联。
+ *
+ *
+ *
+ * @param <VALUEIN>
+ * @param <KEYOUT>
+ * @param <VALUEOUT>
+ */
+public abstract class KeyJoinReducer<VALUEIN, KEYOUT, VALUEOUT>
+        extends KeyWrappedReducer<SplitOutputKey, VALUEIN, KEYOUT, VALUEOUT> {
+
+    /** 单独运行（不在容器中）时使用的关联组 */
+    private KeyJoinGroup<VALUEIN> standalone;
+
+    /**
+     * 参与关联的数据集（order）
+     * @return
+     */
+    public abstract long[] getJoinOrders();
+
+    /**
+     * 每条大表数据调用一次，只有声明了大表order的子类才会调用
+     *
+     * @param key 去掉区分标识的key
+     * @param sides 小表
+     * @param value 大表的一条数据，对象是复用的
+     * @param context
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public abstract void join0(String key, KeyJoinGroup.Sides<VALUEIN> sides, VALUEIN value, Context context)
+            throws IOException, InterruptedException;
+
+    /**
+     * 一组数据处理结束后调用，缺省不处理
+     *
+     * @param key
+     * @param sides 小表
+     * @param streamed 大表的条数
+     * @param context
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void finish0(String key, KeyJoinGroup.Sides<VALUEIN> sides, long streamed, Context context)
+            throws IOException, InterruptedException {
+        // NOTHING
+    }
+
+    /**
+     * 不在容器中运行时，以自身为关联组处理
+     */
+    @Override
+    public void reduce0(String key, SplitOutputKey oriKey, Iterable<VALUEIN> values, Context context)
+            throws IOException, InterruptedException {
+        if (this.standalone == null) {
+            @SuppressWarnings("unchecked")
+            Class<VALUEIN> valueClass = (Class<VALUEIN>) context.getMapOutputValueClass();
+            this.standalone = new KeyJoinGroup<VALUEIN>(context.getConfiguration(), valueClass,
+                    ReplayableValues.DEFAULT_LIMIT, Collections.<KeyJoinReducer<VALUEIN, ?, ?>> singletonList(this));
+        }
+        this.standalone.reduce(key, oriKey, values, context);
+    }
+
+    /**
+     * 关联需要原始key上的order，不支持该方法
+     */
+    @Override
+    public final void reduce0(String key, Iterable<VALUEIN> values, Context context)
+            throws IOException, InterruptedException {
+        throw new UnsupportedOperationException(String.format("%s needs the SplitOutputKey.", getClass().getName()));
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        super.cleanup(context);
+        if (this.standalone != null) {
+            this.standalone.close();
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.hadoop.mapreduce;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import com.hadoop.entry.ClassFinder;
+import com.hadoop.entry.Jobs;
+import com.hadoop.io.SplitOutputKey;
+import com.hadoop.plat.util.BytesUtil;
+import com.hadoop.util.Logger;
+
+/**
+ * 热点key打散（加盐），解决少数key（热门域名、空key等）集中到单个reducer导致的长尾。
+ *
+ * 流程（-Djob.salt.enabled=true）：
+ * 1、mapper容器为每个子类挂载KeySalter，对Jobs.JOB_SALT_KEYS中的热点key在key末尾追加 SALT_MARK(0x01) + 序号，
+ *    轮流分散到 Jobs.JOB_SALT_BUCKETS 份，由分区器分配到不同的reducer；
+ * 2、reducer容器对加盐的分组调用子类的merge（必须满足结合律，子类通过isSaltable声明）得到部分结果，
+ *    去掉盐后写入job输出目录下的 _salted（不会被下游任务读取）；只有去掉盐后在同一个热点key列表中的分组才视为加盐，
+ *    普通数据中形如 key + 0x01 + 数字 的key（如Hive的\x01分隔）不受影响；
+ * 3、任务成功后再运行一个只有1个reducer的合并任务（SaltedMergeJob），部分结果按照原来的key分组后正常reduce。
+ *
+ * 热点key列表对所有map必须一致，因此只使用配置的列表；每个map同时用HotKeySketch采样统计，
+ * 检测到的热点key写入job输出目录下的 _hotkeys（每行为 splitKey:URL编码的key 和采样条数，不会被下游任务读取），
+ * 采样条数输出到计数器，任务结束后保存，作为下一次运行的热点key（见HotKeyStore）。
+ * 热点key不使用计数器名称，避免计数器个数随key增长超过上限。
+ *
+ * 只支持Text和SplitOutputKey类型的key。同一时间只应在一个线程中使用。
+ *
+ *
+ *
+ */
+public class KeySalter {
+
+    /** 计数器分组 */
+    public static final String COUNTER_GROUP = "HotKeys";
+
+    /** 参与检测的采样条数，后缀为splitKey */
+    public static final String COUNTER_SAMPLED = "SAMPLED_SPLITKEY_";
+
+    /** 加盐的输出条数，后缀为splitKey */
+    public static final String COUNTER_SALTED = "SALTED_RECORDS_SPLITKEY_";
+
+    /** 声明了merge的reducer子类，后缀为splitKey */
+    public static final String COUNTER_SALTABLE = "SALTABLE_SPLITKEY_";
+
+    /** reducer合并的加盐分组数，后缀为splitKey */
+    public static final String COUNTER_SALTED_GROUPS = "SALTED_GROUPS_SPLITKEY_";
+
+    /** 部分结果的目录（相对于job输出目录） */
+    public static final String PARTIALS_DIR = "_salted";
+
+    /** 部分结果的输出文件前缀，见ChildOutputs */
+    public static final String PARTIALS_PATH = PARTIALS_DIR + "/part";
+
+    /** 检测到的热点key的目录（相对于job输出目录） */
+    public static final String CANDIDATES_DIR = "_hotkeys";
+
+    /** 检测到的热点key的输出文件前缀，见ChildOutputs */
+    public static final String CANDIDATES_PATH = CANDIDATES_DIR + "/part";
+
+    /** 盐的分隔字节 */
+    public static final byte SALT_MARK = 0x01;
+
+    public static final int DEFAULT_BUCKETS = 8;
+
+    public static final double DEFAULT_RATIO = 0.01;
+
+    public static final int DEFAULT_SAMPLE = 16;
+
+    /** 每个子类最多输出的热点key个数 */
+    private static final int REPORT_LIMIT = 3;
+
+    private final int splitKey;
+
+    /** 需要加盐的key */
+    private final byte[][] hotKeys;
+
+    /** 每个盐的字节（SALT_MARK + 序号） */
+    private final byte[][] suffixes;
+
+    private final int sample;
+
+    private final double ratio;
+
+    private final HotKeySketch sketch;
+
+    private long records;
+
+    private long salted;
+
+    /** 下一个盐 */
+    private int next;
+
+    private byte[] buffer = new byte[64];
+
+    private final Text textKey = new Text();
+
+    private final SplitOutputKey splitOutputKey = new SplitOutputKey();
+
+    public KeySalter(int splitKey, List<byte[]> hotKeys, int buckets, int sample, double ratio) {
+        if (buckets <= 0 || sample <= 0) {
+            throw new IllegalArgumentException(String.format("illegal salt buckets %d or sample %d.", buckets, sample));
+        }
+        this.splitKey = splitKey;
+        this.hotKeys = hotKeys.toArray(new byte[hotKeys.size()][]);
+        this.suffixes = new byte[buckets][];
+        for (int i = 0; i < buckets; i++) {
+            byte[] digits = BytesUtil.toBytes(Integer.toString(i));
+            this.suffixes[i] = new byte[digits.length + 1];
+            this.suffixes[i][0] = SALT_MARK;
+            System.arraycopy(digits, 0, this.suffixes[i], 1, digits.length);
+        }
+        this.sample = sample;
+        this.ratio = ratio;
+        // 计数器个数不少于2 / ratio，误差不超过判定阈值的一半
+        this.sketch = new HotKeySketch(ratio > 0 ? Math.max(HotKeySketch.DEFAULT_CAPACITY, (int) Math.ceil(2 / ratio))
+                : HotKeySketch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 根据配置为子类创建，未开启时返回null
+     *
+     * @param conf
+     * @param splitKey 子类的splitKey
+     * @return
+     */
+    public static KeySalter create(Configuration conf, int splitKey) {
+        if (!Jobs.isSaltEnabled(conf)) {
+            return null;
+        }
+        List<byte[]> keys = parseKeys(conf.get(Jobs.JOB_SALT_KEYS)).get(splitKey);
+        return new KeySalter(splitKey, keys == null ? new ArrayList<byte[]>() : keys,
+                conf.getInt(Jobs.JOB_SALT_BUCKETS, DEFAULT_BUCKETS), conf.getInt(Jobs.JOB_SALT_SAMPLE, DEFAULT_SAMPLE),
+                getRatio(conf));
+    }
+
+    /**
+     * 只保留reducer子类支持打散（isSaltable）的splitKey的热点key，其余的输出警告后去掉。
+     *
+     * @param keys splitKey:URL编码的key[,...]
+     * @param reducers reducer子类，不是KeyWrappedReducer或者无法实例化的视为不支持；isSaltable但没有覆写merge时抛出IllegalArgumentException
+     * @return 没有保留的key时返回null
+     */
+    public static String retainSaltable(String keys, Class<?>[] reducers) {
+        Set<Integer> saltable = new HashSet<Integer>();
+        for (Class<?> clazz : reducers) {
+            Object reducer = clazz == null ? null : ClassFinder.newInstance(clazz);
+            if (reducer instanceof KeyWrappedReducer && ((KeyWrappedReducer<?, ?, ?, ?>) reducer).isSaltable()) {
+                ((KeyWrappedReducer<?, ?, ?, ?>) reducer).checkMerge();
+                saltable.add(((KeyWrappedReducer<?, ?, ?, ?>) reducer).getOutputSplitKey());
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String item : keys.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            if (!isKey(item)) {
+                throw new IllegalArgumentException(String.format("illegal hot key: %s.", item));
+            }
+            if (!saltable.contains(Integer.parseInt(item.substring(0, item.indexOf(':'))))) {
+                Logger.warn(String.format("hot key %s ignored, reducer of its splitKey is not saltable.", item));
+                continue;
+            }
+            sb.append(sb.length() == 0 ? "" : ",").append(item);
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    /**
+     * 热点key的判定比例
+     * @param conf
+     * @return
+     */
+    public static double getRatio(Configuration conf) {
+        return conf.getDouble(Jobs.JOB_SALT_RATIO, DEFAULT_RATIO);
+    }
+
+    /**
+     * 统计并在需要时加盐，返回的对象是复用的，只在本次write内有效。
+     *
+     * @param key
+     * @return 不需要加盐时返回原对象
+     */
+    public Object apply(Object key) {
+        byte[] bytes;
+        int length;
+        if (key instanceof SplitOutputKey) {
+            bytes = ((SplitOutputKey) key).getKeyBytes();
+            length = ((SplitOutputKey) key).getKeyLength();
+        } else if (key instanceof Text) {
+            bytes = ((Text) key).getBytes();
+            length = ((Text) key).getLength();
+        } else {
+            return key;
+        }
+        if (this.records++ % this.sample == 0) {
+            this.sketch.offer(bytes, 0, length);
+        }
+        if (!isHot(bytes, length)) {
+            return key;
+        }
+        int len = salt(bytes, length);
+        this.salted++;
+        if (key instanceof SplitOutputKey) {
+            SplitOutputKey tmp = (SplitOutputKey) key;
+            return this.splitOutputKey.set(tmp.getSplitKey(), this.buffer, 0, len, tmp.getOrder());
+        }
+        this.textKey.set(this.buffer, 0, len);
+        return this.textKey;
+    }
+
+    private boolean isHot(byte[] bytes, int length) {
+        for (byte[] hot : this.hotKeys) {
+            if (BytesUtil.equals(hot, 0, hot.length, bytes, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在buffer中生成 key + SALT_MARK + 序号
+     */
+    private int salt(byte[] bytes, int length) {
+        byte[] suffix = this.suffixes[this.next];
+        this.next = (this.next + 1) % this.suffixes.length;
+        int len = length + suffix.length;
+        if (this.buffer.length < len) {
+            this.buffer = new byte[len * 2];
+        }
+        System.arraycopy(bytes, 0, this.buffer, 0, length);
+        System.arraycopy(suffix, 0, this.buffer, length, suffix.length);
+        return len;
+    }
+
+    /**
+     * 创建检测到的热点key的输出（文本，不压缩）
+     *
+     * @param outputs
+     * @return
+     * @throws IOException
+     */
+    public static ChildOutputs.Output<Text, LongWritable> createCandidates(ChildOutputs outputs) throws IOException {
+        return outputs.create(CANDIDATES_PATH, TextOutputFormat.class, false, CompressionCodec.class, Text.class,
+                LongWritable.class);
+    }
+
+    /**
+     * 输出采样条数和加盐条数到计数器，检测到的热点key写入candidates
+     *
+     * @param context
+     * @param candidates 为null时只记录日志
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void publish(TaskInputOutputContext<?, ?, ?, ?> context, ChildOutputs.Output<Text, LongWritable> candidates)
+            throws IOException, InterruptedException {
+        context.getCounter(COUNTER_GROUP, COUNTER_SAMPLED + this.splitKey).increment(this.sketch.getTotal());
+        if (this.salted > 0) {
+            context.getCounter(COUNTER_GROUP, COUNTER_SALTED + this.splitKey).increment(this.salted);
+        }
+        for (HotKeySketch.Hit hit : this.sketch.top(this.ratio, REPORT_LIMIT)) {
+            String name = formatKey(this.splitKey, hit.getKey().getBytes(), hit.getKey().getLength());
+            Logger.info(String.format("hot key of splitKey %d: %s, sampled %d of %d.", this.splitKey, name,
+                    hit.getCount(), this.sketch.getTotal()));
+            if (candidates != null) {
+                candidates.write(new Text(name), new LongWritable(hit.getCount()));
+            }
+        }
+    }
+
+    /**
+     * 加盐的key中SALT_MARK的位置
+     *
+     * @param bytes
+     * @param length
+     * @return 没有加盐时返回-1
+     */
+    public static int saltIndex(byte[] bytes, int length) {
+        int i = length - 1;
+        while (i >= 0 && bytes[i] >= '0' && bytes[i] <= '9') {
+            i--;
+        }
+        return i >= 0 && i < length - 1 && bytes[i] == SALT_MARK ? i : -1;
+    }
+
+    /**
+     * 热点key的文本表示（_hotkeys中的key和Jobs.JOB_SALT_KEYS的元素）
+     *
+     * @param splitKey
+     * @param bytes
+     * @param length
+     * @return splitKey:URL编码的key
+     */
+    public static String formatKey(int splitKey, byte[] bytes, int length) {
+        try {
+            return splitKey + ":" + URLEncoder.encode(new String(bytes, 0, length, BytesUtil.UTF8), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 是否为热点key的文本表示
+     * @param value
+     * @return
+     */
+    public static boolean isKey(String value) {
+        int idx = value.indexOf(':');
+        if (idx <= 0) {
+            return false;
+        }
+        return BytesUtil.parseInt(BytesUtil.toBytes(value), 0, idx) != BytesUtil.NOT_INT;
+    }
+
+    /**
+     * 解析热点key列表
+     *
+     * @param value splitKey:URL编码的key[,...]
+     * @return splitKey -&gt; UTF-8字节
+     */
+    public static Map<Integer, List<byte[]>> parseKeys(String value) {
+        Map<Integer, List<byte[]>> keys = new TreeMap<Integer, List<byte[]>>();
+        if (value == null || value.trim().isEmpty()) {
+            return keys;
+        }
+        for (String item : value.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            if (!isKey(item)) {
+                throw new IllegalArgumentException(String.format("illegal hot key: %s.", item));
+            }
+            int idx = item.indexOf(':');
+            int splitKey = Integer.parseInt(item.substring(0, idx));
+            List<byte[]> list = keys.get(splitKey);
+            if (list == null) {
+                list = new ArrayList<byte[]>();
+                keys.put(splitKey, list);
+            }
+            try {
+                list.add(BytesUtil.toBytes(URLDecoder.decode(item.substring(idx + 1), "UTF-8")));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * reducer端去掉盐，复用内部对象。
+     *
+     * 使用与mapper相同的热点key列表（Jobs.JOB_SALT_KEYS），去掉盐后不是该splitKey的热点key时视为没有加盐。
+     *
+     * @param <K>
+     */
+    public static class Unsalter<K> {
+
+        /** splitKey -&gt; 热点key */
+        private final Map<Integer, List<byte[]>> hotKeys;
+
+        /** Text的key前的区分标识分隔符 */
+        private final String separator;
+
+        private final Text textKey = new Text();
+
+        private final SplitOutputKey splitOutputKey = new SplitOutputKey();
+
+        public Unsalter(Configuration conf) {
+            this.hotKeys = parseKeys(conf.get(Jobs.JOB_SALT_KEYS));
+            this.separator = Jobs.getOutputSeparator(conf);
+        }
+
+        /**
+         * 去掉盐
+         *
+         * @param key
+         * @param splitKey key所属的splitKey
+         * @return 没有加盐或者类型不支持时返回null
+         */
+        @SuppressWarnings("unchecked")
+        public K unsalt(K key, int splitKey) {
+            List<byte[]> keys = this.hotKeys.get(splitKey);
+            if (keys == null) {
+                return null;
+            }
+            if (key instanceof SplitOutputKey) {
+                SplitOutputKey tmp = (SplitOutputKey) key;
+                int idx = saltIndex(tmp.getKeyBytes(), tmp.getKeyLength());
+                if (idx < 0 || !isHot(keys, tmp.getKeyBytes(), 0, idx)) {
+                    return null;
+                }
+                return (K) this.splitOutputKey.set(tmp.getSplitKey(), tmp.getKeyBytes(), 0, idx, tmp.getOrder());
+            }
+            if (key instanceof Text) {
+                Text tmp = (Text) key;
+                byte[] bytes = tmp.getBytes();
+                int idx = saltIndex(bytes, tmp.getLength());
+                if (idx < 0) {
+                    return null;
+                }
+                // mapper在加盐之后才追加区分标识
+                byte[] prefix = BytesUtil.toBytes(splitKey + this.separator);
+                boolean prefixed = idx >= prefix.length && BytesUtil.equals(prefix, 0, prefix.length, bytes, 0,
+                        prefix.length);
+                if (!isHot(keys, bytes, 0, idx)
+                        && !(prefixed && isHot(keys, bytes, prefix.length, idx - prefix.length))) {
+                    return null;
+                }
+                this.textKey.set(bytes, 0, idx);
+                return (K) this.textKey;
+            }
+            return null;
+        }
+
+        private static boolean isHot(List<byte[]> keys, byte[] bytes, int offset, int length) {
+            for (byte[] hot : keys) {
+                if (BytesUtil.equals(hot, 0, hot.length, bytes, offset, length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.hadoop.mapreduce;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.URI;
 import java.util.List;
 
@@ -25,6 +26,8 @@ import org.apache.hadoop.security.Credentials;
 import com.hadoop.entry.JobOutputSplitKey;
 import com.hadoop.entry.Jobs;
 import com.hadoop.io.DynamicSplitKey;
+import com.hadoop.io.InPlaceSplitKey;
+import com.hadoop.plat.util.BytesUtil;
 import com.hadoop.plat.util.StringUtil;
 import com.hadoop.util.Logger;
 
@@ -49,18 +52,70 @@ public abstract class KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> extends
     /** 输出分隔符 */
     protected String separator;
 
+    /** 输出分隔符的UTF-8字节，用于直接在输入Text的字节上拆分key */
+    protected byte[] separatorBytes;
+
+    /** 输入字段的分隔符，视图按照该分隔符拆分 */
+    protected String inputSeparator;
+
     /** 上下文 */
     protected org.apache.hadoop.mapreduce.Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>.Context context;
 
+    /** 容器统计的开销 */
+    protected ChildCost cost;
+
+    /** 容器所在job有reduce时，isMapOnly的子类的独立输出 */
+    protected ChildOutputs.Output<KEYOUT, VALUEOUT> route;
+
+    /** 热点key打散，未开启时为null */
+    protected KeySalter salter;
+
+    /** 声明了getFieldsIn或者getInputPredicate时使用的视图，在setup时创建 */
+    protected RecordView view;
+
+    /** 是否声明了getFieldsIn */
+    protected boolean viewIn;
+
+    /** 输入条件，在setup时获取 */
+    protected InputPredicate inputPredicate;
+
+    /** mapper内合并，isCombineInMapper为true时在setup时创建 */
+    protected InMapperCombiner<KEYOUT, VALUEOUT> combiner;
+
     /**
      * 子类不允许实现该方法，调整为实现setup0方法。
      */
     protected void setup(org.apache.hadoop.mapreduce.Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>.Context context)
             throws IOException, InterruptedException {
         this.separator = Jobs.getOutputSeparator(context.getConfiguration());
+        this.separatorBytes = BytesUtil.toBytes(this.separator);
+        this.inputSeparator = Jobs.getInputSeparator(context.getConfiguration());
         this.splitKey = getOutputSplitKey();//buildSplitKey(context.getConfiguration());
         initContext(context);
         Logger.init(context.getConfiguration());
+        int[] fields = getFieldsIn();
+        this.viewIn = fields != null;
+        this.inputPredicate = getInputPredicate();
+        if (fields != null || this.inputPredicate != null) {
+            int max = fields == null ? -1 : maxField(fields);
+            if (this.inputPredicate != null) {
+                max = Math.max(max, this.inputPredicate.getField());
+            }
+            this.view = new RecordView(this.inputSeparator, max + 1);
+        }
+        if (isCombineInMapper()) {
+            if (!isOverridden(getClass(), KeyWrappedMapper.class, "merge")) {
+                throw new IllegalArgumentException(String.format("%s combines in mapper but does not override merge.",
+                        getClass().getName()));
+            }
+            long budget = Jobs.getCombineMemory(context.getConfiguration(), InMapperCombiner.DEFAULT_BUDGET);
+            this.combiner = new InMapperCombiner<KEYOUT, VALUEOUT>(new InMapperCombiner.Merger<VALUEOUT>() {
+                @Override
+                public VALUEOUT merge(VALUEOUT previous, VALUEOUT current) {
+                    return KeyWrappedMapper.this.merge(previous, current);
+                }
+            }, budget, context.getConfiguration());
+        }
         setup0(this.context);
     }
 
@@ -81,6 +136,11 @@ public abstract class KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> extends
             throws IOException, InterruptedException {
         // map 需要判定value中是否包含splitKey
         boolean isSubSplitKey = text instanceof com.hadoop.io.SplitKey;
+        if (!isSubSplitKey && text instanceof Text) {
+            // Text直接在字节上判定splitKey，不属于自己的数据不解码。
+            mapBytes((Text) text);
+            return;
+        }
         // 利用toString返回实际值，自定义类型也需要利用toString返回实际值。
         String value = isSubSplitKey ? ((com.hadoop.io.SplitKey)text).toReal() : text.toString();
         
@@ -112,15 +172,69 @@ public abstract class KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> extends
         }
         
         // 实际子类需要实现的方法。
+        if (this.view != null) {
+            this.view.reset(value);
+            // 不满足输入条件的数据不处理
+            if (this.inputPredicate != null && !this.inputPredicate.test(this.view)) {
+                return;
+            }
+            if (this.viewIn) {
+                map0(this.view, this.context);
+                return;
+            }
+        }
         map0(value, this.context);
     }
     
+    /**
+     * 在Text的UTF-8字节上拆分并判定splitKey，只有需要处理的数据才调用map0。
+     * 
+     * @param text
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void mapBytes(Text text) throws IOException, InterruptedException {
+        byte[] bytes = text.getBytes();
+        int start = 0;
+        int end = text.getLength();
+        if (isKeyDataIn() && this.separatorBytes != null && this.splitKey != 0) {// 无拆分标识，则约定为都处理
+            int index = BytesUtil.indexOf(bytes, 0, end, this.separatorBytes);
+            if (index < 0) {
+                return;
+            }
+            long keyData = BytesUtil.parseInt(bytes, 0, index);
+            if (keyData == BytesUtil.NOT_INT || !isKeyOf((int) keyData)) {
+                return;
+            }
+            start = index + this.separatorBytes.length;
+        }
+        if (this.view != null) {
+            this.view.reset(bytes, start, end - start);
+            // 不满足输入条件的数据不处理
+            if (this.inputPredicate != null && !this.inputPredicate.test(this.view)) {
+                return;
+            }
+            if (this.viewIn) {
+                map0(this.view, this.context);
+                return;
+            }
+        }
+        map0(bytes, start, end - start, this.context);
+    }
+    
     /**
      * Called once at the end of the task.
      */
     protected void cleanup(org.apache.hadoop.mapreduce.Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>.Context context)
             throws IOException, InterruptedException {
         cleanup0(this.context);
+        if (this.combiner != null) {
+            // cleanup0中的输出也需要合并，之后再写入
+            this.combiner.flush(this.context);
+            this.combiner.publish(context, getClass().getName());
+            Logger.info(String.format("%s combined in mapper, saved %.2f%% records with %d flushes.",
+                    getClass().getName(), this.combiner.getSavedRatio() * 100, this.combiner.getFlushes()));
+        }
     }
     
     /**
@@ -144,6 +258,113 @@ public abstract class KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> extends
             org.apache.hadoop.mapreduce.Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>.Context context)
             throws IOException, InterruptedException;
 
+    /**
+     * 直接处理输入数据的UTF-8字节（不含区分标识），输入为Text时由框架调用。
+     * 
+     * 缺省实现为解码后调用map0(String value, Context context)，
+     * 子类可以覆写该方法避免解码，同时需要覆写isBytesIn返回true。
+     * 注意：bytes为输入Text的内部数组，会被后续记录复用，不能在调用结束后继续持有。
+     * 
+     * @param bytes 字节数组
+     * @param offset 起始位置
+     * @param length 长度
+     * @param context
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void map0(byte[] bytes, int offset, int length,
+            org.apache.hadoop.mapreduce.Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>.Context context)
+            throws IOException, InterruptedException {
+        map0(Text.decode(bytes, offset, length), context);
+    }
+
+    /**
+     * 通过共享的视图处理数据，getFieldsIn返回非null时由框架调用。
+     * 
+     * 缺省实现为调用map0(String value, Context context)。
+     * 注意：视图会被后续记录复用，不能在调用结束后继续持有。
+     * 
+     * @param view
+     * @param context
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void map0(RecordView view,
+            org.apache.hadoop.mapreduce.Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>.Context context)
+            throws IOException, InterruptedException {
+        map0(view.getValue(), context);
+    }
+
+    /**
+     * 输出数据，isCombineInMapper为true时先在mapper内按key合并，否则直接写入context。
+     * 
+     * @param key
+     * @param value
+     * @param context
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void emit(KEYOUT key, VALUEOUT value,
+            org.apache.hadoop.mapreduce.Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>.Context context)
+            throws IOException, InterruptedException {
+        if (this.combiner == null) {
+            context.write(key, value);
+            return;
+        }
+        this.combiner.emit(key, value, context);
+    }
+
+    /**
+     * 是否只需要map阶段（过滤、转换等），缺省为false。
+     * 
+     * 为true且容器所在的job有reduce时，输出不经过shuffle，由map任务去掉区分标识后直接写入独立输出，
+     * 路径、格式和压缩通过子类上的CombOutput定义，见ChildOutputs；job没有reduce时与原来一致。
+     * @return
+     */
+    public boolean isMapOnly() {
+        return false;
+    }
+
+    /**
+     * 是否在mapper内合并emit的输出，缺省为false。为true时必须覆写merge，否则setup时抛出IllegalArgumentException。
+     * 
+     * 内存上限通过-Djob.combine.memory配置，超过后写入context，cleanup时写入剩余数据。
+     * @return
+     */
+    protected boolean isCombineInMapper() {
+        return false;
+    }
+
+    /**
+     * 合并相同key的两个输出，必须满足结合律；可以修改并返回previous，不能持有current。
+     * 
+     * @param previous
+     * @param current
+     * @return
+     */
+    protected VALUEOUT merge(VALUEOUT previous, VALUEOUT current) {
+        throw new UnsupportedOperationException(String.format("merge is not implemented by %s.", getClass().getName()));
+    }
+
+    /**
+     * clazz到base（不含）之间是否声明了名称为name、两个参数的方法，用于检查必须覆写的merge。
+     * 
+     * @param clazz
+     * @param base
+     * @param name
+     * @return
+     */
+    static boolean isOverridden(Class<?> clazz, Class<?> base, String name) {
+        for (Class<?> c = clazz; c != null && c != base; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                if (method.getName().equals(name) && method.getParameterTypes().length == 2) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * 缺省不实现，只是为了统一所有的接口。
      * 子类若实现，必须实现该方法。
@@ -207,6 +428,61 @@ public abstract class KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> extends
      */
     protected abstract boolean isKeyDataOut();
     
+    /**
+     * 是否直接处理字节（覆写了map0(byte[] bytes, int offset, int length, Context context)），缺省为false。
+     * 
+     * 容器内没有SPLITKEY的数据需要分发给所有mapper，为false的mapper共享同一次解码的结果。
+     * 
+     * @return
+     */
+    protected boolean isBytesIn() {
+        return false;
+    }
+    
+    /**
+     * 声明map0(RecordView view, Context context)需要读取的字段下标（按照输入分隔符拆分，从0开始，见Jobs.getInputSeparator）。
+     * 
+     * 缺省返回null，不使用视图。返回非null时，框架改为调用map0(RecordView, Context)，
+     * 容器内所有声明了字段的mapper共享同一个视图，只扫描到需要的最大字段为止。
+     * 
+     * @return
+     */
+    public int[] getFieldsIn() {
+        return null;
+    }
+    
+    /**
+     * 是否使用视图，setup后有效
+     * @return
+     */
+    public boolean isViewIn() {
+        return this.viewIn;
+    }
+    
+    /**
+     * 声明输入条件，不满足条件的数据不会调用map0，缺省返回null（全部处理）。
+     * 
+     * 容器内所有子类的条件合并为一个路由索引，每条数据只判断一次。
+     * 
+     * @return
+     */
+    public InputPredicate getInputPredicate() {
+        return null;
+    }
+    
+    /**
+     * 字段下标的最大值
+     * @param fields
+     * @return 为空时返回-1
+     */
+    public static int maxField(int[] fields) {
+        int max = -1;
+        for (int field : fields) {
+            max = Math.max(max, field);
+        }
+        return max;
+    }
+    
     /**
      * 在容器内运行时，为了区分是否为按照KeyWrappedMapper流程开发的新版本，还是仅仅套个壳，仍然为旧有模式的实现。
      * 
@@ -258,6 +534,63 @@ public abstract class KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> extends
         return this.context;
     }
 
+    /**
+     * 容器统计该子类开销时设置，未统计时为null
+     * @return
+     */
+    public ChildCost getCost() {
+        return this.cost;
+    }
+
+    /**
+     * 由容器在setup之后设置，输出条数通过包装的context统计
+     * @param cost
+     */
+    public void setCost(ChildCost cost) {
+        this.cost = cost;
+        if (this.context instanceof KeyWrappedMapper.KeyMapContext) {
+            ((KeyMapContext) this.context).cost = cost;
+        }
+    }
+
+    /**
+     * 独立输出，未设置时为null
+     * @return
+     */
+    public ChildOutputs.Output<KEYOUT, VALUEOUT> getRoute() {
+        return this.route;
+    }
+
+    /**
+     * 由容器在setup之后设置，之后context的输出写入独立输出，不再追加区分标识
+     * @param route
+     */
+    public void setRoute(ChildOutputs.Output<KEYOUT, VALUEOUT> route) {
+        this.route = route;
+        if (this.context instanceof KeyWrappedMapper.KeyMapContext) {
+            ((KeyMapContext) this.context).route = route;
+        }
+    }
+
+    /**
+     * 热点key打散，未开启时为null
+     * @return
+     */
+    public KeySalter getSalter() {
+        return this.salter;
+    }
+
+    /**
+     * 由容器在setup之后设置，之后context的输出在追加区分标识前先检测和打散热点key
+     * @param salter
+     */
+    public void setSalter(KeySalter salter) {
+        this.salter = salter;
+        if (this.context instanceof KeyWrappedMapper.KeyMapContext) {
+            ((KeyMapContext) this.context).salter = salter;
+        }
+    }
+
     /**
      * Get a wrapped {@link Mapper.Context} for custom implementations.
      * 
@@ -287,6 +620,21 @@ public abstract class KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> extends
         /** 数据的版本或者标识 */
         protected int key;
 
+        /** 区分标识前缀（key + separator）的UTF-8字节，构造时计算一次 */
+        protected byte[] prefix;
+
+        /** 复用的Text输出key */
+        protected Text keyBuffer = new Text();
+
+        /** 开销统计，为null时不统计 */
+        protected ChildCost cost;
+
+        /** 独立输出，不为null时不经过shuffle */
+        protected ChildOutputs.Output<KEYOUT, VALUEOUT> route;
+
+        /** 热点key打散，为null时不处理 */
+        protected KeySalter salter;
+
         /**
          * 构造函数
          * 
@@ -299,10 +647,12 @@ public abstract class KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> extends
             this.mapContext = mapContext;
             this.key = key;
             this.separator = separator;
+            this.prefix = BytesUtil.toBytes(key + separator);
         }
 
         /**
          * 追加区分的key标识到输出内容中，目前只适配Text和OutputKey
+         * 注意：Text返回的是复用的对象，只在本次write内有效。
          * 
          * @param keyout
          * @return
@@ -323,8 +673,17 @@ public abstract class KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> extends
 
             // 是Text
             if (Text.class.isAssignableFrom(keyout.getClass())) {
+                // 在复用的Text上直接拼接字节，不经过String。
                 Text tmp = (Text) keyout;
-                return (KEYOUT) new Text(this.key + this.separator + tmp.toString());
+                this.keyBuffer.set(this.prefix);
+                this.keyBuffer.append(tmp.getBytes(), 0, tmp.getLength());
+                return (KEYOUT) this.keyBuffer;
+            }
+            
+            // 是InPlaceSplitKey，在原对象上设置前缀
+            if (keyout instanceof InPlaceSplitKey) {
+                ((InPlaceSplitKey) keyout).setSplitKeyPrefix(this.prefix);
+                return keyout;
             }
             
             // 是DynamicSplitKey
@@ -337,13 +696,37 @@ public abstract class KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> extends
             return keyout;
         }
 
+        @SuppressWarnings("unchecked")
         @Override
         public void write(KEYOUT key, VALUEOUT value) throws IOException, InterruptedException {
+            if (this.route != null && !this.route.isSplitKeyKept()) {
+                // 独立输出不需要区分标识
+                if (this.cost != null) {
+                    this.cost.written();
+                }
+                this.route.write(key, value);
+                return;
+            }
+            if (this.salter != null) {
+                key = (KEYOUT) this.salter.apply(key);
+            }
             // 需要补充区分标识时才追加key
             KEYOUT wrapped = isKeyDataOut() ? addSplitKey(key) : key;
             if (wrapped == null) {
                 return;
             }
+            if (this.route != null) {
+                // 合并job中写入原job的输出，与原输出一致保留区分标识
+                if (this.cost != null) {
+                    this.cost.written();
+                }
+                this.route.write(wrapped, value);
+                return;
+            }
+            if (this.cost != null) {
+                this.cost.write(mapContext, wrapped, value);
+                return;
+            }
             mapContext.write(wrapped, value);
         }
 
@@ -24,6 +24,8 @@ import org.apache.hadoop.security.Credentials;
 import com.hadoop.entry.JobOutputSplitKey;
 import com.hadoop.entry.Jobs;
 import com.hadoop.io.DynamicSplitKey;
+import com.hadoop.io.InPlaceSplitKey;
+import com.hadoop.plat.util.BytesUtil;
 import com.hadoop.plat.util.StringUtil;
 import com.hadoop.util.Logger;
 
@@ -49,6 +51,12 @@ public abstract class KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
     /** context */
     protected Context context;
 
+    /** 容器统计的开销 */
+    protected ChildCost cost;
+
+    /** 容器开启输出路由时的独立输出 */
+    protected ChildOutputs.Output<KEYOUT, VALUEOUT> route;
+
     /** 数据的版本或者标识 */
     protected int splitKey;
 
@@ -64,6 +72,9 @@ public abstract class KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
         this.separator = Jobs.getOutputSeparator(context.getConfiguration());
         initContext(context);
         Logger.init(context.getConfiguration());    
+        if (isSaltable() && Jobs.isSaltEnabled(context.getConfiguration())) {
+            checkMerge();
+        }
         setup0(this.context);
     }
     
@@ -245,6 +256,38 @@ public abstract class KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
         return false;
     }
     
+    /**
+     * 是否支持热点key打散（-Djob.salt.enabled=true时生效），缺省为false。为true时必须覆写merge，否则setup时抛出IllegalArgumentException。
+     * 
+     * 加盐的分组不调用reduce0，由容器用merge合并为一条部分结果；任务结束后的合并任务再把同一个key的部分结果交给reduce0，
+     * 因此reduce0必须能够处理merge的结果（与combiner的要求相同），见KeySalter。
+     * @return
+     */
+    protected boolean isSaltable() {
+        return false;
+    }
+    
+    /**
+     * 合并相同key的两个value，必须满足结合律；可以修改并返回previous，不能持有current。
+     * 
+     * @param previous
+     * @param current
+     * @return
+     */
+    protected VALUEIN merge(VALUEIN previous, VALUEIN current) {
+        throw new UnsupportedOperationException(String.format("merge is not implemented by %s.", getClass().getName()));
+    }
+    
+    /**
+     * isSaltable为true时必须覆写merge
+     */
+    void checkMerge() {
+        if (!KeyWrappedMapper.isOverridden(getClass(), KeyWrappedReducer.class, "merge")) {
+            throw new IllegalArgumentException(String.format("%s is saltable but does not override merge.",
+                    getClass().getName()));
+        }
+    }
+    
     /**
      * 获取该Job对应的区分key标识，缺省通过Configuration。
      * 子类可以扩展，但是应该保持优先级，即JobDefine定义的要优先于子类中定义的。
@@ -291,6 +334,55 @@ public abstract class KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
         return this.context;
     }
 
+    /**
+     * 容器统计该子类开销时设置，未统计时为null
+     * @return
+     */
+    public ChildCost getCost() {
+        return this.cost;
+    }
+
+    /**
+     * 由容器在setup之后设置，输出条数通过包装的context统计
+     * @param cost
+     */
+    public void setCost(ChildCost cost) {
+        this.cost = cost;
+        if (this.context instanceof KeyWrappedReducer.KeyReducerContext) {
+            ((KeyReducerContext) this.context).cost = cost;
+        }
+    }
+
+    /**
+     * 通过包装的context累计输出的条数，不是包装的context时返回-1
+     * @return
+     */
+    public long getWritten() {
+        if (this.context instanceof KeyWrappedReducer.KeyReducerContext) {
+            return ((KeyReducerContext) this.context).written;
+        }
+        return -1;
+    }
+
+    /**
+     * 容器开启输出路由时的独立输出，未开启时为null
+     * @return
+     */
+    public ChildOutputs.Output<KEYOUT, VALUEOUT> getRoute() {
+        return this.route;
+    }
+
+    /**
+     * 由容器在setup之后设置，之后context的输出写入独立输出，不再追加区分标识
+     * @param route
+     */
+    public void setRoute(ChildOutputs.Output<KEYOUT, VALUEOUT> route) {
+        this.route = route;
+        if (this.context instanceof KeyWrappedReducer.KeyReducerContext) {
+            ((KeyReducerContext) this.context).route = route;
+        }
+    }
+
     /**
      * A a wrapped {@link Reducer.Context} for custom implementations.
      * 
@@ -319,15 +411,32 @@ public abstract class KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
         
         /** 输出分隔符 */
         protected String separator;
+        
+        /** 区分标识前缀（key + separator）的UTF-8字节，构造时计算一次 */
+        protected byte[] prefix;
+
+        /** 复用的Text输出key */
+        protected Text keyBuffer = new Text();
+
+        /** 开销统计，为null时不统计 */
+        protected ChildCost cost;
+
+        /** 输出路由，不为null时直接写入子类的独立输出 */
+        protected ChildOutputs.Output<KEYOUT, VALUEOUT> route;
+
+        /** 累计输出条数 */
+        protected long written;
 
         public KeyReducerContext(ReduceContext<KEYIN, VALUEIN, KEYOUT, VALUEOUT> reduceContext, int key, String separator) {
             this.reduceContext = reduceContext;
             this.key = key;
             this.separator = separator;
+            this.prefix = BytesUtil.toBytes(key + separator);
         }
         
         /**
          * 追加区分的key标识到输出内容中，目前只适配Text和OutputKey
+         * 注意：Text返回的是复用的对象，只在本次write内有效。
          * 
          * @param keyout
          * @return
@@ -348,8 +457,17 @@ public abstract class KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
 
             // 是Text
             if (Text.class.isAssignableFrom(keyout.getClass())) {
+                // 在复用的Text上直接拼接字节，不经过String。
                 Text tmp = (Text) keyout;
-                return (KEYOUT) new Text(this.key + this.separator + tmp.toString());
+                this.keyBuffer.set(this.prefix);
+                this.keyBuffer.append(tmp.getBytes(), 0, tmp.getLength());
+                return (KEYOUT) this.keyBuffer;
+            }
+            
+            // 是InPlaceSplitKey，在原对象上设置前缀
+            if (keyout instanceof InPlaceSplitKey) {
+                ((InPlaceSplitKey) keyout).setSplitKeyPrefix(this.prefix);
+                return keyout;
             }
             
             if (keyout instanceof DynamicSplitKey) {
@@ -362,11 +480,32 @@ public abstract class KeyWrappedReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
         
         @Override
         public void write(KEYOUT key, VALUEOUT value) throws IOException, InterruptedException {
+            this.written++;
+            if (this.route != null && !this.route.isSplitKeyKept()) {
+                // 独立输出不需要区分标识
+                if (this.cost != null) {
+                    this.cost.written();
+                }
+                this.route.write(key, value);
+                return;
+            }
             // 需要补充区分标识时才追加key
             KEYOUT wrapped = isKeyDataOut() ? addSplitKey(key) : key;
             if (wrapped == null) {
                 return;
             }
+            if (this.route != null) {
+                // 合并job中写入原job的输出，与原输出一致保留区分标识
+                if (this.cost != null) {
+                    this.cost.written();
+                }
+                this.route.write(wrapped, value);
+                return;
+            }
+            if (this.cost != null) {
+                this.cost.write(reduceContext, wrapped, value);
+                return;
+            }
             reduceContext.write(wrapped, value);
         }
         
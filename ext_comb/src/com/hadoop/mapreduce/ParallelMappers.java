@@ -0,0 +1,387 @@
+package com.hadoop.mapreduce;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.MapContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+
+import com.hadoop.util.concurrent.DaemonThreadFactory;
+import com.hadoop.util.concurrent.LimitExecutors;
+
+/**
+ * 容器内子类的并行执行。
+ *
+ * 每个子类对应一个Lane：map线程把数据按批次放入Lane的有界队列，固定大小的线程池消费。
+ * 同一个Lane同一时间只会被一个线程处理，保证单个子类内数据的顺序。
+ * 子类的输出通过synchronize返回的context串行写入。
+ *
+ * 注意：子类的map0会在工作线程中调用，子类之间不能共享可变状态，也不能读取context的当前输入（getCurrentKey等）。
+ *
+ *
+ *
+ * @param <KEYIN>
+ * @param <VALUEIN>
+ * @param <KEYOUT>
+ * @param <VALUEOUT>
+ */
+public class ParallelMappers<KEYIN, VALUEIN, KEYOUT, VALUEOUT> {
+
+    /** 单个批次的最大字节数 */
+    private static final int BATCH_MAX_BYTES = 1024 * 1024;
+
+    /** 与子类分发表一致的Lane分发表 */
+    private final SplitKeyTable<Lane> lanes;
+
+    private final ExecutorService executor;
+
+    /** 每个Lane的队列长度（批次数） */
+    private final int queueSize;
+
+    /** 每个批次的记录数 */
+    private final int batchSize;
+
+    /** 第一个异常 */
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    /**
+     *
+     * @param mappers 容器内的子类分发表
+     * @param threads 工作线程数
+     * @param queueSize 每个子类的队列长度（批次数）
+     * @param batchSize 每个批次的记录数
+     * @param name 线程名称
+     */
+    public ParallelMappers(SplitKeyTable<KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>> mappers, int threads,
+            int queueSize, int batchSize, String name) {
+        if (threads <= 0 || queueSize <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException(String.format("illegal parallel config threads=%d, queue=%d, batch=%d.",
+                    threads, queueSize, batchSize));
+        }
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+        SplitKeyTable.Builder<Lane> builder = new SplitKeyTable.Builder<Lane>();
+        for (int i = 0; i < mappers.size(); i++) {
+            KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper = mappers.valueAt(i);
+            builder.add(mapper.getOutputSplitKey(), new Lane(mapper));
+        }
+        this.lanes = builder.build();
+        // 每个Lane最多只有一个待执行的任务
+        this.executor = LimitExecutors.newFixedThreadPool(threads, Math.max(1, this.lanes.size()),
+                new DaemonThreadFactory(name));
+    }
+
+    /**
+     * 根据splitKey获取Lane
+     * @param splitKey
+     * @return 不存在时返回null
+     */
+    public Lane get(int splitKey) {
+        return this.lanes.get(splitKey);
+    }
+
+    /**
+     * 与子类分发表的valueAt顺序一致
+     * @param index
+     * @return
+     */
+    public Lane valueAt(int index) {
+        return this.lanes.valueAt(index);
+    }
+
+    public int size() {
+        return this.lanes.size();
+    }
+
+    /**
+     * 提交所有未满的批次并等待全部处理完成，之后不能再放入数据。
+     *
+     * @throws IOException 子类处理时出现异常
+     * @throws InterruptedException
+     */
+    public void finish() throws IOException, InterruptedException {
+        try {
+            for (int i = 0; i < this.lanes.size(); i++) {
+                this.lanes.valueAt(i).flush();
+            }
+        } finally {
+            this.executor.shutdown();
+            while (!this.executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // 等待处理完成
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * 子类处理出现异常时抛出。
+     * @throws IOException
+     */
+    private void checkFailure() throws IOException {
+        Throwable t = this.failure.get();
+        if (t != null) {
+            throw new IOException("parallel mapper failed.", t);
+        }
+    }
+
+    /**
+     * 返回写入串行化的context，所有子类和容器共享同一个返回值。
+     *
+     * @param context
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <KEYIN, VALUEIN, KEYOUT, VALUEOUT> Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>.Context synchronize(
+            MapContext<KEYIN, VALUEIN, KEYOUT, VALUEOUT> context) {
+        MapContext<?, ?, ?, ?> wildcard = context;
+        Object synced = new SynchronizedMapper().getMapContext((MapContext<Object, Object, Object, Object>) wildcard);
+        return (Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>.Context) synced;
+    }
+
+    /**
+     * 单个子类的队列，同一时间只在一个线程中执行。
+     *
+     */
+    public class Lane implements Runnable {
+
+        private final KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper;
+
+        /** 待处理的批次 */
+        private final BlockingQueue<Batch> queue;
+
+        /** 处理完成可以复用的批次 */
+        private final BlockingQueue<Batch> free;
+
+        /** 是否已经提交到线程池 */
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        /** 正在填充的批次，只在map线程中使用 */
+        private Batch current;
+
+        /** 子类声明了字段时使用的视图，只在工作线程中使用 */
+        private RecordView view;
+
+        Lane(KeyWrappedMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> mapper) {
+            this.mapper = mapper;
+            if (mapper.isViewIn()) {
+                this.view = new RecordView(mapper.inputSeparator, KeyWrappedMapper.maxField(mapper.getFieldsIn()) + 1);
+            }
+            this.queue = new ArrayBlockingQueue<Batch>(queueSize);
+            this.free = new ArrayBlockingQueue<Batch>(queueSize + 2);
+        }
+
+        /**
+         * 放入字节数据（会复制）
+         * @param bytes
+         * @param offset
+         * @param length
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        public void map(byte[] bytes, int offset, int length) throws IOException, InterruptedException {
+            batch().add(bytes, offset, length);
+            if (this.current.isFull()) {
+                submit();
+            }
+        }
+
+        /**
+         * 放入字符串数据
+         * @param value
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        public void map(String value) throws IOException, InterruptedException {
+            batch().add(value);
+            if (this.current.isFull()) {
+                submit();
+            }
+        }
+
+        private Batch batch() {
+            if (this.current == null) {
+                Batch batch = this.free.poll();
+                this.current = batch == null ? new Batch(batchSize) : batch;
+            }
+            return this.current;
+        }
+
+        void flush() throws IOException, InterruptedException {
+            if (this.current != null && this.current.size > 0) {
+                submit();
+            }
+        }
+
+        /**
+         * 队列满时阻塞map线程
+         */
+        private void submit() throws IOException, InterruptedException {
+            checkFailure();
+            this.queue.put(this.current);
+            this.current = null;
+            if (this.scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Batch batch = this.queue.poll();
+                if (batch == null) {
+                    this.scheduled.set(false);
+                    // 释放后又有新的批次，且没有被重新提交时继续处理
+                    if (this.queue.isEmpty() || !this.scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                // 出现异常后只消费不处理，避免map线程阻塞
+                if (failure.get() == null) {
+                    try {
+                        process(batch);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+                batch.clear();
+                this.free.offer(batch);
+            }
+        }
+
+        private void process(Batch batch) throws IOException, InterruptedException {
+            Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>.Context context = this.mapper.getWrappedContext();
+            boolean isBytesIn = this.mapper.isBytesIn();
+            ChildCost cost = this.mapper.getCost();
+            for (int i = 0; i < batch.size; i++) {
+                if (cost != null) {
+                    cost.start();
+                }
+                String value = batch.strings[i];
+                if (this.view != null) {
+                    if (value != null) {
+                        this.view.reset(value);
+                    } else {
+                        this.view.reset(batch.data, batch.offsets[i], batch.lengths[i]);
+                    }
+                    this.mapper.map0(this.view, context);
+                } else if (value != null) {
+                    this.mapper.map0(value, context);
+                } else if (isBytesIn) {
+                    this.mapper.map0(batch.data, batch.offsets[i], batch.lengths[i], context);
+                } else {
+                    this.mapper.map0(Text.decode(batch.data, batch.offsets[i], batch.lengths[i]), context);
+                }
+                if (cost != null) {
+                    cost.stop();
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个批次的数据，字节数据连续存放在data中。
+     *
+     */
+    static final class Batch {
+
+        byte[] data = new byte[4096];
+
+        /** data已使用的长度 */
+        int used;
+
+        int[] offsets;
+
+        int[] lengths;
+
+        /** 字符串数据，为null时说明是字节数据 */
+        String[] strings;
+
+        int size;
+
+        Batch(int capacity) {
+            this.offsets = new int[capacity];
+            this.lengths = new int[capacity];
+            this.strings = new String[capacity];
+        }
+
+        void add(byte[] bytes, int offset, int length) {
+            if (this.used + length > this.data.length) {
+                byte[] tmp = new byte[Math.max(this.data.length * 2, this.used + length)];
+                System.arraycopy(this.data, 0, tmp, 0, this.used);
+                this.data = tmp;
+            }
+            System.arraycopy(bytes, offset, this.data, this.used, length);
+            this.offsets[this.size] = this.used;
+            this.lengths[this.size] = length;
+            this.used += length;
+            this.size++;
+        }
+
+        void add(String value) {
+            this.strings[this.size++] = value;
+        }
+
+        boolean isFull() {
+            return this.size == this.offsets.length || this.used >= BATCH_MAX_BYTES;
+        }
+
+        void clear() {
+            for (int i = 0; i < this.size; i++) {
+                this.strings[i] = null;
+            }
+            this.size = 0;
+            this.used = 0;
+        }
+    }
+
+    /**
+     * 提供写入串行化的context，类型参数在synchronize中转换。
+     *
+     */
+    static class SynchronizedMapper extends WrappedMapper<Object, Object, Object, Object> {
+
+        // WrappedMapper.Context在hadoop的class文件中是原始类型
+        @SuppressWarnings("unchecked")
+        @Override
+        public Mapper<Object, Object, Object, Object>.Context getMapContext(
+                MapContext<Object, Object, Object, Object> mapContext) {
+            return new SynchronizedContext(mapContext);
+        }
+
+        class SynchronizedContext extends WrappedMapper<Object, Object, Object, Object>.Context {
+
+            SynchronizedContext(MapContext<Object, Object, Object, Object> mapContext) {
+                super(mapContext);
+            }
+
+            @Override
+            public synchronized void write(Object key, Object value) throws IOException, InterruptedException {
+                mapContext.write(key, value);
+            }
+
+            @Override
+            public synchronized Counter getCounter(Enum<?> counterName) {
+                return mapContext.getCounter(counterName);
+            }
+
+            @Override
+            public synchronized Counter getCounter(String groupName, String counterName) {
+                return mapContext.getCounter(groupName, counterName);
+            }
+
+            @Override
+            public synchronized void setStatus(String msg) {
+                mapContext.setStatus(msg);
+            }
+        }
+    }
+}
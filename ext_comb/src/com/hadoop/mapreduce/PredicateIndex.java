@@ -0,0 +1,169 @@
+package com.hadoop.mapreduce;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 容器内所有子类输入条件的路由索引，在setup时构建。
+ *
+ * 条件按照字段分组：等于和属于集合的条件合并为一个“字段值 -&gt; 子类”的HashMap，
+ * 每个字段只解码一次并查找一次；前缀条件在字节上逐个判断。
+ * 没有声明条件的子类总是被选中。
+ *
+ *
+ *
+ */
+final class PredicateIndex {
+
+    /** 没有条件的子类为true */
+    private final boolean[] template;
+
+    /** 每条数据的选择结果，复用 */
+    private final boolean[] selected;
+
+    /** 按照字段分组的条件 */
+    private final FieldGroup[] groups;
+
+    /** 需要扫描的最大字段 */
+    private final int maxField;
+
+    /**
+     *
+     * @param predicates 与子类分发表valueAt顺序一致，没有条件时为null
+     */
+    PredicateIndex(InputPredicate[] predicates) {
+        int size = predicates.length;
+        this.template = new boolean[size];
+        this.selected = new boolean[size];
+
+        int max = -1;
+        Map<Integer, FieldGroup> tmp = new TreeMap<Integer, FieldGroup>();
+        for (int i = 0; i < size; i++) {
+            InputPredicate predicate = predicates[i];
+            if (predicate == null) {
+                this.template[i] = true;
+                continue;
+            }
+            max = Math.max(max, predicate.getField());
+            FieldGroup group = tmp.get(predicate.getField());
+            if (group == null) {
+                group = new FieldGroup(predicate.getField());
+                tmp.put(predicate.getField(), group);
+            }
+            group.add(i, predicate);
+        }
+        this.groups = tmp.values().toArray(new FieldGroup[tmp.size()]);
+        for (FieldGroup group : this.groups) {
+            group.compile();
+        }
+        this.maxField = max;
+    }
+
+    /**
+     * 是否没有任何条件
+     * @return
+     */
+    boolean isEmpty() {
+        return this.groups.length == 0;
+    }
+
+    int getMaxField() {
+        return this.maxField;
+    }
+
+    /**
+     * 一次判断所有子类的条件。
+     *
+     * @param view
+     * @return 以子类下标为索引的选择结果，下一次调用时复用
+     */
+    boolean[] select(RecordView view) {
+        System.arraycopy(this.template, 0, this.selected, 0, this.template.length);
+        for (FieldGroup group : this.groups) {
+            group.select(view, this.selected);
+        }
+        return this.selected;
+    }
+
+    /**
+     * 同一个字段上的条件
+     *
+     */
+    private static final class FieldGroup {
+
+        private final int field;
+
+        /** 等于/属于集合：字段值 -> 子类下标 */
+        private Map<String, List<Integer>> building = new HashMap<String, List<Integer>>();
+
+        private Map<String, int[]> values;
+
+        private final List<Integer> prefixChildren = new ArrayList<Integer>();
+
+        private final List<InputPredicate> prefixPredicates = new ArrayList<InputPredicate>();
+
+        private int[] prefixIndexes;
+
+        private InputPredicate[] prefixes;
+
+        FieldGroup(int field) {
+            this.field = field;
+        }
+
+        void add(int child, InputPredicate predicate) {
+            if (predicate.getType() == InputPredicate.TYPE_PREFIX) {
+                this.prefixChildren.add(child);
+                this.prefixPredicates.add(predicate);
+                return;
+            }
+            for (String value : predicate.getValues()) {
+                List<Integer> children = this.building.get(value);
+                if (children == null) {
+                    children = new ArrayList<Integer>();
+                    this.building.put(value, children);
+                }
+                if (!children.contains(child)) {
+                    children.add(child);
+                }
+            }
+        }
+
+        void compile() {
+            this.values = new HashMap<String, int[]>();
+            for (Map.Entry<String, List<Integer>> entry : this.building.entrySet()) {
+                List<Integer> children = entry.getValue();
+                int[] array = new int[children.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = children.get(i);
+                }
+                this.values.put(entry.getKey(), array);
+            }
+            this.building = null;
+            this.prefixIndexes = new int[this.prefixChildren.size()];
+            for (int i = 0; i < this.prefixIndexes.length; i++) {
+                this.prefixIndexes[i] = this.prefixChildren.get(i);
+            }
+            this.prefixes = this.prefixPredicates.toArray(new InputPredicate[this.prefixPredicates.size()]);
+        }
+
+        void select(RecordView view, boolean[] selected) {
+            if (!this.values.isEmpty()) {
+                String value = view.get(this.field);
+                int[] children = value == null ? null : this.values.get(value);
+                if (children != null) {
+                    for (int child : children) {
+                        selected[child] = true;
+                    }
+                }
+            }
+            for (int i = 0; i < this.prefixes.length; i++) {
+                if (this.prefixes[i].test(view)) {
+                    selected[this.prefixIndexes[i]] = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.hadoop.mapreduce;
+
+import java.util.Arrays;
+
+import com.hadoop.plat.util.BytesUtil;
+
+/**
+ * 一条输入数据的延迟解析视图，容器对每条数据只构建一次，由所有子类共享。
+ *
+ * 字段按照输入分隔符（Jobs.getInputSeparator）拆分，第一次访问某个字段时才向后扫描，扫描结果和解码后的字段在本条数据内缓存。
+ * 输入为Text时直接在UTF-8字节上扫描，只有被访问的字段才解码。
+ *
+ * 注意：视图只在本次map0调用内有效，下一条数据会复用同一个对象；非线程安全。
+ *
+ *
+ *
+ */
+public final class RecordView {
+
+    /** 字段分隔符 */
+    private final String separator;
+
+    private final byte[] separatorBytes;
+
+    /** 字节模式的数据 */
+    private byte[] bytes;
+
+    private int offset;
+
+    private int length;
+
+    /** 字符串模式的数据，字节模式下解码后缓存 */
+    private String value;
+
+    /** 是否为字节模式 */
+    private boolean byteMode;
+
+    /** 字段起始位置，字节模式为字节下标，字符串模式为字符下标 */
+    private int[] starts;
+
+    /** 字段结束位置（不含） */
+    private int[] ends;
+
+    /** 已经确定位置的字段个数 */
+    private int scanned;
+
+    /** 下一次扫描的起始位置，-1说明已经扫描到结尾 */
+    private int scanPos;
+
+    /** 解码后的字段 */
+    private String[] fields;
+
+    /**
+     *
+     * @param separator 字段分隔符
+     * @param expectedFields 预计需要访问的字段个数，用于初始化数组，超过时自动扩展
+     */
+    public RecordView(String separator, int expectedFields) {
+        if (separator == null || separator.isEmpty()) {
+            throw new IllegalArgumentException("empty separator.");
+        }
+        this.separator = separator;
+        this.separatorBytes = BytesUtil.toBytes(separator);
+        int size = Math.max(expectedFields, 4);
+        this.starts = new int[size];
+        this.ends = new int[size];
+        this.fields = new String[size];
+    }
+
+    /**
+     * 使用字节数据（不复制），只在下一次reset前有效。
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     */
+    public RecordView reset(byte[] bytes, int offset, int length) {
+        clear();
+        this.byteMode = true;
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.value = null;
+        this.scanPos = offset;
+        return this;
+    }
+
+    /**
+     * 使用字符串数据。
+     *
+     * @param value
+     * @return
+     */
+    public RecordView reset(String value) {
+        clear();
+        this.byteMode = false;
+        this.bytes = null;
+        this.value = value;
+        this.scanPos = 0;
+        return this;
+    }
+
+    private void clear() {
+        Arrays.fill(this.fields, 0, Math.min(this.scanned, this.fields.length), null);
+        this.scanned = 0;
+    }
+
+    /**
+     * 整条数据
+     * @return
+     */
+    public String getValue() {
+        if (this.value == null && this.byteMode) {
+            this.value = new String(this.bytes, this.offset, this.length, BytesUtil.UTF8);
+        }
+        return this.value;
+    }
+
+    /**
+     * 获取字段，解码结果在本条数据内缓存。
+     *
+     * @param index 从0开始
+     * @return 字段不存在时返回null
+     */
+    public String get(int index) {
+        if (!scanTo(index)) {
+            return null;
+        }
+        String field = this.fields[index];
+        if (field == null) {
+            if (this.byteMode) {
+                field = new String(this.bytes, this.starts[index], this.ends[index] - this.starts[index], BytesUtil.UTF8);
+            } else {
+                field = this.value.substring(this.starts[index], this.ends[index]);
+            }
+            this.fields[index] = field;
+        }
+        return field;
+    }
+
+    /**
+     * 字段是否存在
+     * @param index
+     * @return
+     */
+    public boolean has(int index) {
+        return scanTo(index);
+    }
+
+    /**
+     * 字段内容是否与给定字符串一致，字节模式下不解码。
+     *
+     * @param index
+     * @param expect
+     * @param expectBytes expect的UTF-8字节
+     * @return 字段不存在时返回false
+     */
+    public boolean fieldEquals(int index, String expect, byte[] expectBytes) {
+        if (!scanTo(index)) {
+            return false;
+        }
+        if (this.fields[index] != null || !this.byteMode) {
+            return get(index).equals(expect);
+        }
+        return BytesUtil.equals(this.bytes, this.starts[index], this.ends[index] - this.starts[index], expectBytes, 0,
+                expectBytes.length);
+    }
+
+    /**
+     * 字段是否以给定字符串开始，字节模式下不解码。
+     *
+     * @param index
+     * @param prefix
+     * @param prefixBytes prefix的UTF-8字节
+     * @return 字段不存在时返回false
+     */
+    public boolean fieldStartsWith(int index, String prefix, byte[] prefixBytes) {
+        if (!scanTo(index)) {
+            return false;
+        }
+        if (this.fields[index] != null || !this.byteMode) {
+            return get(index).startsWith(prefix);
+        }
+        int fieldLength = this.ends[index] - this.starts[index];
+        if (fieldLength < prefixBytes.length) {
+            return false;
+        }
+        return BytesUtil.equals(this.bytes, this.starts[index], prefixBytes.length, prefixBytes, 0, prefixBytes.length);
+    }
+
+    /**
+     * 字段总数，需要扫描整条数据。
+     * @return
+     */
+    public int size() {
+        scanTo(Integer.MAX_VALUE - 1);
+        return this.scanned;
+    }
+
+    /**
+     * 扫描到指定字段为止。
+     *
+     * @param index
+     * @return 字段是否存在
+     */
+    private boolean scanTo(int index) {
+        if (index < 0) {
+            return false;
+        }
+        while (this.scanned <= index) {
+            if (this.scanPos < 0) {
+                return false;
+            }
+            ensureCapacity(this.scanned + 1);
+            int start = this.scanPos;
+            int idx;
+            if (this.byteMode) {
+                int end = this.offset + this.length;
+                idx = BytesUtil.indexOf(this.bytes, start, end, this.separatorBytes);
+                this.starts[this.scanned] = start;
+                this.ends[this.scanned] = idx < 0 ? end : idx;
+                this.scanPos = idx < 0 ? -1 : idx + this.separatorBytes.length;
+            } else {
+                idx = this.value.indexOf(this.separator, start);
+                this.starts[this.scanned] = start;
+                this.ends[this.scanned] = idx < 0 ? this.value.length() : idx;
+                this.scanPos = idx < 0 ? -1 : idx + this.separator.length();
+            }
+            this.fields[this.scanned] = null;
+            this.scanned++;
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= this.starts.length) {
+            return;
+        }
+        int newSize = Math.max(size, this.starts.length * 2);
+        this.starts = Arrays.copyOf(this.starts, newSize);
+        this.ends = Arrays.copyOf(this.ends, newSize);
+        this.fields = Arrays.copyOf(this.fields, newSize);
+    }
+
+    @Override
+    public String toString() {
+        return "RecordView [" + getValue() + "]";
+    }
+}
@@ -0,0 +1,366 @@
+package com.hadoop.mapreduce;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.serializer.Deserializer;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+
+/**
+ * 可以重复遍历的value缓存，用于同一组数据需要交给多个子类处理的场景。
+ *
+ * Hadoop的values只能遍历一次，调用reset时按照job的序列化方式缓存整组数据：
+ * 先写入复用的内存区，超过limit后写入本地临时文件。之后每次iterator都从头开始读取。
+ *
+ * 与Hadoop一致，遍历时value对象是复用的，需要保存时自行复制。
+ * 非线程安全，同一时间只应有一个iterator在使用：新的iterator、reset、close都会关闭上一个iterator打开的文件，
+ * 提前结束遍历时也可以调用endReplay释放。
+ *
+ * reset时整组数据已经读完，Hadoop复用的key对象停留在组内最后一条数据的key上。
+ * 使用分组比较器时组内的key各不相同，可以通过trackKeys同时缓存每条数据的key（需要是Writable，
+ * value使用WritableSerialization），遍历时把对应的key写回reset传入的key对象。
+ *
+ *
+ *
+ * @param <V>
+ */
+public class ReplayableValues<V> implements Iterable<V>, Closeable {
+
+    /** 计数器分组 */
+    public static final String COUNTER_GROUP = "ContainerValueBuffer";
+
+    /** 写入内存的字节数 */
+    public static final String COUNTER_BYTES_BUFFERED = "BYTES_BUFFERED";
+
+    /** 写入临时文件的字节数 */
+    public static final String COUNTER_BYTES_SPILLED = "BYTES_SPILLED";
+
+    /** 发生溢写的分组数 */
+    public static final String COUNTER_GROUPS_SPILLED = "GROUPS_SPILLED";
+
+    /** 缺省内存上限 32M */
+    public static final long DEFAULT_LIMIT = 32L * 1024 * 1024;
+
+    private final SerializationFactory factory;
+
+    private final Class<V> valueClass;
+
+    /** 内存区上限 */
+    private final long limit;
+
+    /** 复用的内存区 */
+    private final DataOutputBuffer arena = new DataOutputBuffer();
+
+    private final Serializer<V> arenaSerializer;
+
+    /** 溢写文件，第一次溢写时创建，之后复用 */
+    private File spillFile;
+
+    /** 本组写入内存的条数 */
+    private long arenaCount;
+
+    /** 本组写入文件的条数 */
+    private long spillCount;
+
+    /** 本组写入文件的字节数 */
+    private long spillBytes;
+
+    /** 是否缓存每条数据的key */
+    private boolean trackKeys;
+
+    /** 本组的key对象，遍历时写回 */
+    private Writable key;
+
+    /** 正在使用的iterator */
+    private ReplayIterator current;
+
+    /**
+     *
+     * @param conf
+     * @param valueClass
+     * @param limit 内存区上限（字节）
+     * @throws IOException
+     */
+    public ReplayableValues(Configuration conf, Class<V> valueClass, long limit) throws IOException {
+        this.factory = new SerializationFactory(conf);
+        this.valueClass = valueClass;
+        this.limit = limit;
+        this.arenaSerializer = this.factory.getSerializer(valueClass);
+        if (this.arenaSerializer == null) {
+            throw new IllegalArgumentException(String.format("no serialization of %s.", valueClass.getName()));
+        }
+        this.arenaSerializer.open(this.arena);
+    }
+
+    /**
+     * 是否支持该类型的序列化
+     * @param conf
+     * @param valueClass
+     * @return
+     */
+    public static boolean isSupported(Configuration conf, Class<?> valueClass) {
+        return valueClass != null && new SerializationFactory(conf).getSerialization(valueClass) != null;
+    }
+
+    /**
+     * 同时缓存每条数据的key，见reset(Iterable, Object)。
+     * @param keyClass
+     * @return key或者value不支持时返回false
+     */
+    public boolean trackKeys(Class<?> keyClass) {
+        this.trackKeys = keyClass != null && Writable.class.isAssignableFrom(keyClass)
+                && Writable.class.isAssignableFrom(this.valueClass);
+        return this.trackKeys;
+    }
+
+    /**
+     * 清空之前的数据并缓存新的一组数据，values会被遍历完。
+     *
+     * @param values
+     * @throws IOException
+     */
+    public void reset(Iterable<V> values) throws IOException {
+        reset(values, null);
+    }
+
+    /**
+     * 清空之前的数据并缓存新的一组数据，values会被遍历完。
+     *
+     * @param values
+     * @param key Hadoop复用的key对象，trackKeys时缓存每条数据对应的key，遍历时写回该对象
+     * @throws IOException
+     */
+    public void reset(Iterable<V> values, Object key) throws IOException {
+        endReplay();
+        this.arena.reset();
+        this.arenaCount = 0;
+        this.spillCount = 0;
+        this.spillBytes = 0;
+        this.key = this.trackKeys && key instanceof Writable ? (Writable) key : null;
+
+        Iterator<V> it = values.iterator();
+        while (it.hasNext() && this.arena.getLength() < this.limit) {
+            this.arenaSerializer.serialize(it.next());
+            if (this.key != null) {
+                this.key.write(this.arena);
+            }
+            this.arenaCount++;
+        }
+        if (!it.hasNext()) {
+            return;
+        }
+        // 超过上限，剩余数据写入临时文件
+        if (this.spillFile == null) {
+            this.spillFile = File.createTempFile("container-values-", ".spill");
+            this.spillFile.deleteOnExit();
+        }
+        FileOutputStream fos = new FileOutputStream(this.spillFile); // 覆盖上一组的内容
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+        Serializer<V> serializer = this.factory.getSerializer(this.valueClass);
+        serializer.open(out);
+        try {
+            while (it.hasNext()) {
+                serializer.serialize(it.next());
+                if (this.key != null) {
+                    this.key.write(out);
+                }
+                this.spillCount++;
+            }
+            out.flush();
+            // DataOutputStream.size()为int，超过2G后不再增加
+            this.spillBytes = fos.getChannel().position();
+        } finally {
+            serializer.close();
+        }
+    }
+
+    /**
+     * 本组的条数
+     * @return
+     */
+    public long size() {
+        return this.arenaCount + this.spillCount;
+    }
+
+    /**
+     * 本组写入内存的字节数
+     * @return
+     */
+    public long getBufferedBytes() {
+        return this.arena.getLength();
+    }
+
+    /**
+     * 本组写入文件的字节数
+     * @return
+     */
+    public long getSpilledBytes() {
+        return this.spillBytes;
+    }
+
+    /**
+     * 本组是否发生溢写
+     * @return
+     */
+    public boolean isSpilled() {
+        return this.spillCount > 0;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+        endReplay();
+        this.current = new ReplayIterator();
+        return this.current;
+    }
+
+    /**
+     * 结束当前的遍历，关闭打开的临时文件。遍历完成时会自动关闭。
+     */
+    public void endReplay() {
+        if (this.current != null) {
+            this.current.finish();
+            this.current = null;
+        }
+    }
+
+    /**
+     * 删除临时文件
+     */
+    @Override
+    public void close() throws IOException {
+        endReplay();
+        this.arena.reset();
+        if (this.spillFile != null) {
+            this.spillFile.delete();
+            this.spillFile = null;
+        }
+    }
+
+    /**
+     * 先读取内存区，再读取临时文件。
+     *
+     */
+    private class ReplayIterator implements Iterator<V> {
+
+        private Deserializer<V> deserializer;
+
+        private InputStream in;
+
+        /** 读取key */
+        private DataInput dataIn;
+
+        /** 当前阶段剩余条数 */
+        private long remain;
+
+        /** 是否已经切换到文件 */
+        private boolean inFile;
+
+        private V value;
+
+        ReplayIterator() {
+            this.remain = arenaCount;
+            if (this.remain > 0) {
+                DataInputBuffer buffer = new DataInputBuffer();
+                buffer.reset(arena.getData(), 0, arena.getLength());
+                open(buffer);
+            }
+        }
+
+        private void open(InputStream stream) {
+            this.in = stream;
+            this.dataIn = (DataInput) stream;
+            this.deserializer = factory.getDeserializer(valueClass);
+            try {
+                this.deserializer.open(stream);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.remain > 0) {
+                return true;
+            }
+            if (this.inFile || spillCount == 0) {
+                closeQuietly();
+                return false;
+            }
+            // 切换到临时文件
+            closeQuietly();
+            this.inFile = true;
+            this.remain = spillCount;
+            try {
+                open(new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile), 64 * 1024)));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return true;
+        }
+
+        @Override
+        public V next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                this.value = this.deserializer.deserialize(this.value);
+                if (key != null) {
+                    key.readFields(this.dataIn);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            this.remain--;
+            return this.value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * 提前结束，之后hasNext返回false
+         */
+        private void finish() {
+            closeQuietly();
+            this.remain = 0;
+            this.inFile = true;
+        }
+
+        private void closeQuietly() {
+            if (this.in == null) {
+                return;
+            }
+            try {
+                this.deserializer.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            try {
+                this.in.close(); // 没有遍历的value时deserializer未必关闭流
+            } catch (IOException e) {
+                // ignore
+            }
+            this.in = null;
+            this.dataIn = null;
+        }
+    }
+}
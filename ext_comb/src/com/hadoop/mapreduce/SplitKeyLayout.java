@@ -0,0 +1,268 @@
+package com.hadoop.mapreduce;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 按照splitKey的权重为每个splitKey分配一段连续的reducer。
+ *
+ * reducer个数不少于splitKey个数时，每个splitKey至少分配1个，其余按照权重以最大余数法分配，各段不重叠；
+ * 否则每个splitKey只分配1个reducer，按照权重从大到小依次放入负载最小的reducer，多个splitKey会共用同一个reducer。
+ * 没有配置权重的splitKey和splitKey 0（无区分标识的数据）使用全部reducer。
+ *
+ * 权重的文本格式为 splitKey:weight[,splitKey:weight...]，如 "1:30,2:5,3:1"。
+ *
+ *
+ *
+ */
+public final class SplitKeyLayout {
+
+    /** 按照splitKey排序的权重 */
+    private final TreeMap<Integer, Long> weights;
+
+    private final int numPartitions;
+
+    /** 每个splitKey的起始reducer和个数 */
+    private final SplitKeyTable<int[]> ranges;
+
+    private SplitKeyLayout(TreeMap<Integer, Long> weights, int numPartitions, SplitKeyTable<int[]> ranges) {
+        this.weights = weights;
+        this.numPartitions = numPartitions;
+        this.ranges = ranges;
+    }
+
+    /**
+     * 计算布局
+     *
+     * @param weights splitKey -&gt; 权重（非负），忽略splitKey 0
+     * @param numPartitions reducer个数
+     * @return
+     */
+    public static SplitKeyLayout plan(Map<Integer, Long> weights, int numPartitions) {
+        if (numPartitions <= 0) {
+            throw new IllegalArgumentException(String.format("illegal partitions %d.", numPartitions));
+        }
+        TreeMap<Integer, Long> sorted = new TreeMap<Integer, Long>(weights);
+        sorted.remove(0); // 无区分标识的数据分配到全部reducer
+        int size = sorted.size();
+        int[] keys = new int[size];
+        long[] values = new long[size];
+        long total = 0;
+        int i = 0;
+        for (Map.Entry<Integer, Long> entry : sorted.entrySet()) {
+            if (entry.getValue() < 0) {
+                throw new IllegalArgumentException(String.format("illegal weight %d of splitKey %d.",
+                        entry.getValue(), entry.getKey()));
+            }
+            keys[i] = entry.getKey();
+            values[i] = entry.getValue();
+            total += values[i];
+            i++;
+        }
+
+        int[] starts = new int[size];
+        int[] counts = new int[size];
+        if (size <= numPartitions) {
+            allocate(values, total, numPartitions, counts);
+            int start = 0;
+            for (i = 0; i < size; i++) {
+                starts[i] = start;
+                start += counts[i];
+            }
+        } else {
+            share(values, numPartitions, starts, counts);
+        }
+
+        SplitKeyTable.Builder<int[]> builder = new SplitKeyTable.Builder<int[]>();
+        for (i = 0; i < size; i++) {
+            builder.add(keys[i], new int[] { starts[i], counts[i] });
+        }
+        return new SplitKeyLayout(sorted, numPartitions, builder.build());
+    }
+
+    /**
+     * splitKey多于reducer时，按照权重从大到小依次放入当前负载最小的reducer
+     */
+    private static void share(long[] values, int numPartitions, int[] starts, int[] counts) {
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final long[] weights = values;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(weights[o2], weights[o1]);
+            }
+        });
+        long[] loads = new long[numPartitions];
+        for (Integer idx : order) {
+            int min = 0;
+            for (int p = 1; p < numPartitions; p++) {
+                if (loads[p] < loads[min]) {
+                    min = p;
+                }
+            }
+            starts[idx] = min;
+            counts[idx] = 1;
+            loads[min] += values[idx];
+        }
+    }
+
+    /**
+     * 每个至少1个，剩余的按照权重以最大余数法分配
+     */
+    private static void allocate(long[] values, long total, int numPartitions, int[] counts) {
+        int size = values.length;
+        if (size == 0) {
+            return;
+        }
+        int remain = numPartitions - size;
+        double[] remainders = new double[size];
+        int assigned = 0;
+        for (int i = 0; i < size; i++) {
+            double share = total == 0 ? (double) remain / size : (double) remain * values[i] / total;
+            int floor = (int) share;
+            counts[i] = 1 + floor;
+            remainders[i] = share - floor;
+            assigned += floor;
+        }
+        for (; assigned < remain; assigned++) {
+            int best = 0;
+            for (int i = 1; i < size; i++) {
+                if (remainders[i] > remainders[best]) {
+                    best = i;
+                }
+            }
+            counts[best]++;
+            remainders[best] = -1;
+        }
+    }
+
+    /**
+     * 计算分区
+     *
+     * @param splitKey
+     * @param hash
+     * @return
+     */
+    public int getPartition(int splitKey, int hash) {
+        int[] range = this.ranges.get(splitKey);
+        if (range == null) {
+            return (hash & Integer.MAX_VALUE) % this.numPartitions;
+        }
+        return range[0] + (hash & Integer.MAX_VALUE) % range[1];
+    }
+
+    /**
+     * splitKey的起始reducer，没有配置时返回-1
+     * @param splitKey
+     * @return
+     */
+    public int getStart(int splitKey) {
+        int[] range = this.ranges.get(splitKey);
+        return range == null ? -1 : range[0];
+    }
+
+    /**
+     * splitKey分配的reducer个数，没有配置时为全部
+     * @param splitKey
+     * @return
+     */
+    public int getCount(int splitKey) {
+        int[] range = this.ranges.get(splitKey);
+        return range == null ? this.numPartitions : range[1];
+    }
+
+    public int getNumPartitions() {
+        return this.numPartitions;
+    }
+
+    /**
+     * 解析权重文本
+     *
+     * @param value splitKey:weight[,splitKey:weight...]
+     * @return 为空时返回空Map
+     */
+    public static Map<Integer, Long> parseWeights(String value) {
+        Map<Integer, Long> weights = new TreeMap<Integer, Long>();
+        if (value == null || value.trim().isEmpty()) {
+            return weights;
+        }
+        for (String item : value.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            int idx = item.indexOf(':');
+            if (idx <= 0) {
+                throw new IllegalArgumentException(String.format("illegal splitKey weight: %s.", item));
+            }
+            try {
+                int splitKey = Integer.parseInt(item.substring(0, idx).trim());
+                long weight = Long.parseLong(item.substring(idx + 1).trim());
+                if (weights.put(splitKey, weight) != null) {
+                    throw new IllegalArgumentException(String.format("duplicate splitKey weight: %s.", item));
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("illegal splitKey weight: %s.", item), e);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * 权重转换为文本
+     * @param weights
+     * @return
+     */
+    public static String formatWeights(Map<Integer, Long> weights) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Integer, Long> entry : new TreeMap<Integer, Long>(weights).entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(entry.getKey()).append(':').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 布局说明，每个splitKey一行
+     */
+    @Override
+    public String toString() {
+        long total = 0;
+        for (Long weight : this.weights.values()) {
+            total += weight;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("SplitKeyLayout: splitKeys=%d, reducers=%d", this.weights.size(), this.numPartitions));
+        for (Map.Entry<Integer, Long> entry : this.weights.entrySet()) {
+            int[] range = this.ranges.get(entry.getKey());
+            if (range == null) {
+                continue;
+            }
+            sb.append(String.format("%n  splitKey %6d  weight %14d (%5.1f%%)  reducers [%d, %d) x%d", entry.getKey(),
+                    entry.getValue(), total == 0 ? 0.0 : 100.0 * entry.getValue() / total, range[0],
+                    range[0] + range[1], range[1]));
+        }
+        sb.append(String.format("%n  others           all reducers [0, %d)", this.numPartitions));
+        return sb.toString();
+    }
+
+    /**
+     * 打印布局，参数为权重文本和reducer个数。
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("usage: SplitKeyLayout <splitKey:weight,...> <numReduceTasks>");
+            return;
+        }
+        System.out.println(plan(parseWeights(args[0]), Integer.parseInt(args[1])));
+    }
+}
@@ -0,0 +1,209 @@
+package com.hadoop.mapreduce;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.hadoop.util.Logger;
+
+/**
+ * 容器内splitKey与子类的分发表，在setup时构建，构建后不可修改。
+ *
+ * splitKey分布紧凑时使用直接下标的数组，稀疏时使用有序int[]二分查找，
+ * 避免HashMap&lt;Integer, ?&gt;在每条数据上的装箱和hash查找。
+ *
+ * splitKey为0的子类（没有区分标识）都在values中出现（没有SPLITKEY时挨个调用、cleanup）；
+ * 与原来HashMap&lt;Integer, ?&gt;的put一致，get(0)返回最后加入的splitKey为0的子类。
+ * 原来多个splitKey为0的子类相互覆盖，只有最后一个被调用，现在全部参与没有SPLITKEY时的挨个调用。
+ *
+ *
+ *
+ * @param <T>
+ */
+public final class SplitKeyTable<T> {
+
+    /** splitKey跨度不超过子类个数的该倍数时，使用直接下标的数组 */
+    private static final int DENSE_FACTOR = 4;
+
+    /** splitKey跨度不超过该值时，始终使用直接下标的数组 */
+    private static final int DENSE_MIN_RANGE = 64;
+
+    /** 稀疏时的有序splitKey */
+    private final int[] keys;
+
+    /** 稀疏时与keys对应的子类；紧凑时以(splitKey - base)为下标的子类 */
+    private final Object[] slots;
+
+    /** 紧凑时的最小splitKey */
+    private final int base;
+
+    /** 是否为直接下标的数组 */
+    private final boolean dense;
+
+    /** 所有子类，保持加入的顺序 */
+    private final Object[] values;
+
+    /** 最后加入的splitKey为0的子类，可以为null */
+    private final Object zero;
+
+    private SplitKeyTable(int[] keys, Object[] slots, int base, boolean dense, Object[] values, Object zero) {
+        this.keys = keys;
+        this.slots = slots;
+        this.base = base;
+        this.dense = dense;
+        this.values = values;
+        this.zero = zero;
+    }
+
+    /**
+     * 根据splitKey查找子类。
+     *
+     * @param splitKey
+     * @return 不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int splitKey) {
+        if (splitKey == 0) {
+            return (T) this.zero;
+        }
+        if (this.dense) {
+            // 使用long防止溢出
+            long index = (long) splitKey - this.base;
+            if (index < 0 || index >= this.slots.length) {
+                return null;
+            }
+            return (T) this.slots[(int) index];
+        }
+        int index = Arrays.binarySearch(this.keys, splitKey);
+        return index < 0 ? null : (T) this.slots[index];
+    }
+
+    /**
+     * 子类个数（包含没有splitKey的子类）。
+     * @return
+     */
+    public int size() {
+        return this.values.length;
+    }
+
+    /**
+     * 按照加入顺序获取子类，用于没有SPLITKEY时挨个调用。
+     *
+     * @param index
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public T valueAt(int index) {
+        return (T) this.values[index];
+    }
+
+    /**
+     * 是否为直接下标的数组实现。
+     * @return
+     */
+    public boolean isDense() {
+        return this.dense;
+    }
+
+    @Override
+    public String toString() {
+        return "SplitKeyTable [dense=" + dense + ", base=" + base + ", keys=" + Arrays.toString(keys) + ", size="
+                + values.length + "]";
+    }
+
+    /**
+     * 构建分发表。
+     *
+     *
+     * @param <T>
+     */
+    public static class Builder<T> {
+
+        /** splitKey */
+        private List<Integer> keys = new ArrayList<Integer>();
+
+        /** 子类 */
+        private List<T> values = new ArrayList<T>();
+
+        /**
+         * 加入子类，splitKey（非0）重复时与原来HashMap的put一致，后加入的覆盖之前的，并输出警告。
+         *
+         * @param splitKey 为0时说明没有区分标识
+         * @param value
+         * @return
+         */
+        public Builder<T> add(int splitKey, T value) {
+            if (value == null) {
+                throw new NullPointerException("empty value.");
+            }
+            int idx = splitKey == 0 ? -1 : this.keys.indexOf(splitKey);
+            if (idx >= 0) {
+                Logger.warn(String.format("duplicated splitKey %d, %s replaced by %s.", splitKey,
+                        this.values.get(idx).getClass().getName(), value.getClass().getName()));
+                this.keys.remove(idx);
+                this.values.remove(idx);
+            }
+            this.keys.add(splitKey);
+            this.values.add(value);
+            return this;
+        }
+
+        /**
+         * 返回不可修改的分发表。
+         * @return
+         */
+        public SplitKeyTable<T> build() {
+            Object[] all = this.values.toArray();
+            Object zero = null;
+            for (int i = 0; i < all.length; i++) {
+                if (this.keys.get(i) == 0) {
+                    zero = all[i];
+                }
+            }
+
+            int count = 0;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int key : this.keys) {
+                if (key == 0) {
+                    continue;
+                }
+                count++;
+                min = Math.min(min, key);
+                max = Math.max(max, key);
+            }
+            if (count == 0) {
+                return new SplitKeyTable<T>(new int[0], new Object[0], 0, false, all, zero);
+            }
+
+            long range = max - min + 1;
+            if (range <= DENSE_MIN_RANGE || range <= (long) count * DENSE_FACTOR) {
+                Object[] slots = new Object[(int) range];
+                for (int i = 0; i < all.length; i++) {
+                    int key = this.keys.get(i);
+                    if (key != 0) {
+                        slots[(int) (key - min)] = all[i];
+                    }
+                }
+                return new SplitKeyTable<T>(null, slots, (int) min, true, all, zero);
+            }
+
+            int[] sorted = new int[count];
+            int index = 0;
+            for (int key : this.keys) {
+                if (key != 0) {
+                    sorted[index++] = key;
+                }
+            }
+            Arrays.sort(sorted);
+            Object[] slots = new Object[count];
+            for (int i = 0; i < all.length; i++) {
+                int key = this.keys.get(i);
+                if (key != 0) {
+                    slots[Arrays.binarySearch(sorted, key)] = all[i];
+                }
+            }
+            return new SplitKeyTable<T>(sorted, slots, 0, false, all, zero);
+        }
+    }
+}
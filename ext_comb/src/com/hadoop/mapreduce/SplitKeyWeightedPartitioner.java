@@ -0,0 +1,75 @@
+package com.hadoop.mapreduce;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BinaryComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import com.hadoop.entry.Jobs;
+import com.hadoop.io.SplitKey;
+import com.hadoop.io.SplitOutputKey;
+import com.hadoop.plat.util.BytesUtil;
+
+/**
+ * 按照splitKey权重分配reducer的分区器，每个splitKey只在分配给它的连续reducer范围内hash。
+ *
+ * 权重从Jobs.JOB_SPLITKEY_WEIGHTS读取，由JobBuilder根据JobDefine.splitKeyWeights或者上一次运行的计数器设置，布局见SplitKeyLayout。
+ * 支持SplitKey（如SplitOutputKey）和以"splitKey + 分隔符"开头的Text等BinaryComparable，
+ * 无法识别splitKey的key使用全部reducer。
+ *
+ *
+ *
+ */
+public class SplitKeyWeightedPartitioner extends Partitioner<Object, Object> implements Configurable {
+
+    private Configuration conf;
+
+    private byte[] separator;
+
+    private SplitKeyLayout layout;
+
+    private int numPartitions;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        this.separator = BytesUtil.toBytes(Jobs.getOutputSeparator(conf));
+        this.layout = null;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return this.conf;
+    }
+
+    @Override
+    public int getPartition(Object key, Object value, int numPartitions) {
+        if (this.layout == null || this.numPartitions != numPartitions) {
+            this.layout = SplitKeyLayout.plan(
+                    SplitKeyLayout.parseWeights(this.conf == null ? null : this.conf.get(Jobs.JOB_SPLITKEY_WEIGHTS)),
+                    numPartitions);
+            this.numPartitions = numPartitions;
+        }
+        if (key instanceof SplitOutputKey) {
+            SplitOutputKey splitOutputKey = (SplitOutputKey) key;
+            return this.layout.getPartition(splitOutputKey.getSplitKey(), splitOutputKey.partitionHashCode());
+        }
+        if (key instanceof SplitKey) {
+            return this.layout.getPartition(((SplitKey) key).getSplitKey(), key.hashCode());
+        }
+        if (key instanceof BinaryComparable) {
+            BinaryComparable bc = (BinaryComparable) key;
+            byte[] bytes = bc.getBytes();
+            int length = bc.getLength();
+            int hash = WritableComparator.hashBytes(bytes, length);
+            int idx = BytesUtil.indexOf(bytes, 0, length, this.separator);
+            long splitKey = idx < 0 ? BytesUtil.NOT_INT : BytesUtil.parseInt(bytes, 0, idx);
+            if (splitKey != BytesUtil.NOT_INT) {
+                return this.layout.getPartition((int) splitKey, hash);
+            }
+            return (hash & Integer.MAX_VALUE) % numPartitions;
+        }
+        return (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+}
@@ -0,0 +1,159 @@
+package com.hadoop.mapreduce.lib.input;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader;
+
+import com.hadoop.io.SplitRecord;
+import com.hadoop.util.Logger;
+
+/**
+ * 读取SplitRecordOutputFormat输出的中间结果，value为SplitRecord（Text的子类，内容与文本输出的一行相同），
+ * key为文件内的记录序号。
+ *
+ * 与IOETolerantCombineTextInputFormat一样合并小文件，遇到IO异常时不再读取该文件。
+ * 隐藏文件（_或.开头）和不是SequenceFile的文件（如输出目录下ioe/*.txt的异常日志）不读取。
+ *
+ *
+ *
+ */
+public class SplitRecordInputFormat extends CombineFileInputFormat<LongWritable, Text> {
+
+    /** SequenceFile的文件头 */
+    private static final byte[] SEQUENCE_FILE_MAGIC = { 'S', 'E', 'Q' };
+
+    @Override
+    protected List<FileStatus> listStatus(JobContext job) throws IOException {
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        for (FileStatus file : super.listStatus(job)) {
+            Path path = file.getPath();
+            if (isHidden(path) || !isSequenceFile(path.getFileSystem(job.getConfiguration()), file)) {
+                Logger.info(String.format("skip %s, not a SplitRecord file.", path));
+                continue;
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * 文件名以_或.开头
+     * @param path
+     * @return
+     */
+    protected boolean isHidden(Path path) {
+        String name = path.getName();
+        return name.startsWith("_") || name.startsWith(".");
+    }
+
+    /**
+     * 是否为SequenceFile（检查文件头），目录和空文件视为不是
+     * @param fs
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    protected boolean isSequenceFile(FileSystem fs, FileStatus file) throws IOException {
+        if (file.isDirectory() || file.getLen() < SEQUENCE_FILE_MAGIC.length) {
+            return false;
+        }
+        byte[] header = new byte[SEQUENCE_FILE_MAGIC.length];
+        FSDataInputStream in = fs.open(file.getPath());
+        try {
+            in.readFully(header);
+        } finally {
+            in.close();
+        }
+        for (int i = 0; i < header.length; i++) {
+            if (header[i] != SEQUENCE_FILE_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context)
+            throws IOException {
+        return new CombineFileRecordReader<LongWritable, Text>((CombineFileSplit) split, context,
+                SplitRecordReader.class);
+    }
+
+    /**
+     * 读取单个文件，可作为CombineFileRecordReader的输入参数。
+     */
+    public static class SplitRecordReader extends RecordReader<LongWritable, Text> {
+
+        private final SequenceFileRecordReader<NullWritable, SplitRecord> reader = new SequenceFileRecordReader<NullWritable, SplitRecord>();
+
+        private final FileSplit fileSplit;
+
+        private final LongWritable key = new LongWritable(-1);
+
+        private boolean ioexception = false;
+
+        public SplitRecordReader(CombineFileSplit split, TaskAttemptContext context, Integer idx)
+                throws IOException, InterruptedException {
+            this.fileSplit = new FileSplit(split.getPath(idx), split.getOffset(idx), split.getLength(idx),
+                    split.getLocations());
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+            this.reader.initialize(this.fileSplit, context);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            try {
+                if (!this.reader.nextKeyValue()) {
+                    return false;
+                }
+                this.key.set(this.key.get() + 1);
+                return true;
+            } catch (IOException e) {
+                this.ioexception = true;
+                Path path = this.fileSplit.getPath();
+                Logger.warn(String.format("failed to read file(%s).", path), e);
+                return false;
+            }
+        }
+
+        @Override
+        public LongWritable getCurrentKey() throws IOException, InterruptedException {
+            return this.key;
+        }
+
+        @Override
+        public Text getCurrentValue() throws IOException, InterruptedException {
+            return this.reader.getCurrentValue();
+        }
+
+        @Override
+        public float getProgress() throws IOException, InterruptedException {
+            return this.ioexception ? 1f : this.reader.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.reader.close();
+        }
+    }
+}
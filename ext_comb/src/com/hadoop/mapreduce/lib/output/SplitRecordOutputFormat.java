@@ -0,0 +1,139 @@
+package com.hadoop.mapreduce.lib.output;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.hadoop.entry.Jobs;
+import com.hadoop.io.SplitRecord;
+import com.hadoop.plat.util.BytesUtil;
+
+/**
+ * 多个job串联时的中间结果输出，由JobPathResolverImpl为中间路径自动选择，下游使用SplitRecordInputFormat读取。
+ *
+ * 每条记录的内容与TextOutputFormat输出的一行相同（key + 分隔符 + value），写入时解析一次区分标识，
+ * 保存为SplitRecord（区分标识、实际值的起始位置、变长的字节内容），文件为块压缩的SequenceFile。
+ * 区分标识只从文本内容解析，与下游读取文本时一致：key为SplitKey时其区分标识不在文本中，同样不保存。
+ *
+ * 压缩算法使用job的输出压缩设置，未设置时为DefaultCodec；GzipCodec在没有本地库时不能用于SequenceFile，替换为同样算法的DefaultCodec。
+ *
+ *
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class SplitRecordOutputFormat<K, V> extends FileOutputFormat<K, V> {
+
+    /** key与value的分隔符，与TextOutputFormat一致 */
+    public static final String SEPARATOR = "mapreduce.output.textoutputformat.separator";
+
+    @Override
+    public RecordWriter<K, V> getRecordWriter(TaskAttemptContext context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        CompressionCodec codec = ReflectionUtils.newInstance(getCodecClass(context), conf);
+        Path file = getDefaultWorkFile(context, "");
+        SequenceFile.Writer writer = SequenceFile.createWriter(conf, SequenceFile.Writer.file(file),
+                SequenceFile.Writer.keyClass(NullWritable.class), SequenceFile.Writer.valueClass(SplitRecord.class),
+                SequenceFile.Writer.compression(CompressionType.BLOCK, codec), SequenceFile.Writer.progressable(context));
+        return new SplitRecordWriter<K, V>(writer, conf.get(SEPARATOR, "\t"), Jobs.getOutputSeparator(conf));
+    }
+
+    /**
+     * 压缩算法
+     * @param context
+     * @return
+     */
+    protected Class<? extends CompressionCodec> getCodecClass(JobContext context) {
+        if (!getCompressOutput(context)) {
+            return DefaultCodec.class;
+        }
+        Class<? extends CompressionCodec> codec = getOutputCompressorClass(context, DefaultCodec.class);
+        return GzipCodec.class.isAssignableFrom(codec) ? DefaultCodec.class : codec;
+    }
+
+    /**
+     * 写入SplitRecord
+     *
+     * @param <K>
+     * @param <V>
+     */
+    protected static class SplitRecordWriter<K, V> extends RecordWriter<K, V> {
+
+        private final SequenceFile.Writer writer;
+
+        private final byte[] keyValueSeparator;
+
+        private final byte[] splitSeparator;
+
+        /** 复用的一行内容 */
+        private final Text line = new Text();
+
+        private final SplitRecord record = new SplitRecord();
+
+        public SplitRecordWriter(SequenceFile.Writer writer, String keyValueSeparator, String splitSeparator) {
+            this.writer = writer;
+            this.keyValueSeparator = BytesUtil.toBytes(keyValueSeparator);
+            this.splitSeparator = BytesUtil.toBytes(splitSeparator);
+        }
+
+        @Override
+        public void write(K key, V value) throws IOException, InterruptedException {
+            boolean nullKey = key == null || key instanceof NullWritable;
+            boolean nullValue = value == null || value instanceof NullWritable;
+            if (nullKey && nullValue) {
+                return;
+            }
+            this.line.clear();
+            if (!nullKey) {
+                append(key);
+            }
+            if (!nullKey && !nullValue) {
+                this.line.append(this.keyValueSeparator, 0, this.keyValueSeparator.length);
+            }
+            if (!nullValue) {
+                append(value);
+            }
+
+            byte[] bytes = this.line.getBytes();
+            int length = this.line.getLength();
+            int splitKey = 0;
+            int offset = 0;
+            // 与下游按照文本拆分的方式一致：第一个分隔符之前为区分标识
+            int index = BytesUtil.indexOf(bytes, 0, length, this.splitSeparator);
+            long parsed = index <= 0 ? BytesUtil.NOT_INT : BytesUtil.parseInt(bytes, 0, index);
+            if (parsed != BytesUtil.NOT_INT && parsed != 0) {
+                splitKey = (int) parsed;
+                offset = index + this.splitSeparator.length;
+            }
+            this.writer.append(NullWritable.get(), this.record.set(splitKey, bytes, 0, length, offset));
+        }
+
+        private void append(Object o) {
+            if (o instanceof Text) {
+                Text text = (Text) o;
+                this.line.append(text.getBytes(), 0, text.getLength());
+                return;
+            }
+            byte[] bytes = BytesUtil.toBytes(o.toString());
+            this.line.append(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+            this.writer.close();
+        }
+    }
+}
@@ -9,11 +9,16 @@ import org.apache.hadoop.io.Text;
 
 import com.hadoop.entry.ClassFinder;
 import com.hadoop.entry.Jobs;
+import com.hadoop.io.SplitOutputKey;
+import com.hadoop.mapreduce.ChildCost;
+import com.hadoop.mapreduce.ChildOutputs;
 import com.hadoop.mapreduce.ContainerMappers;
 import com.hadoop.mapreduce.ContainerResolver;
+import com.hadoop.mapreduce.KeySalter;
 import com.hadoop.mapreduce.KeyWrappedMapper;
 import com.hadoop.plat.log.factory.Factory;
 import com.hadoop.plat.log.factory.Log;
+import com.hadoop.plat.util.BytesUtil;
 import com.hadoop.util.Logger;
 
 /**
@@ -31,6 +36,9 @@ public class ContainerLogMapper<KEYOUT, VALUEOUT> extends LogMapper<KEYOUT, VALU
      */
     protected List<LogMapper<KEYOUT, VALUEOUT>> mappers = new ArrayList<LogMapper<KEYOUT, VALUEOUT>>();
 
+    /** isMapOnly的子类的独立输出，没有时为null */
+    protected ChildOutputs childOutputs;
+
     /**
      * 创建解析器
      * @param context
@@ -89,7 +97,9 @@ public class ContainerLogMapper<KEYOUT, VALUEOUT> extends LogMapper<KEYOUT, VALU
                     "cannot init log factory");
         }
 
+        SplitOutputKey.setLegacyFormat(Jobs.isSplitKeyLegacyFormat(context.getConfiguration()));
         this.separator = Jobs.getOutputSeparator(context.getConfiguration());
+        this.separatorBytes = BytesUtil.toBytes(this.separator);
         this.splitKey = getOutputSplitKey();//buildSplitKey(context.getConfiguration());
         this.context = getKeyMapContext(context, getOutputSplitKey(), this.separator);
         Logger.init(context.getConfiguration());
@@ -108,6 +118,29 @@ public class ContainerLogMapper<KEYOUT, VALUEOUT> extends LogMapper<KEYOUT, VALU
         if(mappers.size() == 0) {
             throw new IllegalArgumentException("failed to init mappers(UserlogMapper).");
         }
+        ContainerResolver resolver = createResolver(context);
+        if (resolver.getBoolean("cost", false)) {
+            // 统计每个子类的开销
+            int sample = (int) resolver.getLong("cost.sample", ChildCost.DEFAULT_SAMPLE);
+            for (LogMapper<KEYOUT, VALUEOUT> mapper : this.mappers) {
+                mapper.setCost(new ChildCost(mapper, mapper.getOutputSplitKey(), sample));
+            }
+        }
+        if (context.getNumReduceTasks() > 0) {
+            // 只需要map的子类不经过shuffle
+            for (LogMapper<KEYOUT, VALUEOUT> mapper : this.mappers) {
+                if (!mapper.isMapOnly()) {
+                    // 热点key打散
+                    mapper.setSalter(KeySalter.create(context.getConfiguration(), mapper.getOutputSplitKey()));
+                    continue;
+                }
+                if (this.childOutputs == null) {
+                    this.childOutputs = new ChildOutputs(context);
+                }
+                ChildOutputs.Output<KEYOUT, VALUEOUT> output = this.childOutputs.create(mapper.getClass());
+                mapper.setRoute(output);
+            }
+        }
         // 容器类不应该有自己的业务逻辑，建议不实现。
         setup0(this.context);
     }
@@ -123,7 +156,14 @@ public class ContainerLogMapper<KEYOUT, VALUEOUT> extends LogMapper<KEYOUT, VALU
     protected void map0(Log log, String value, Context context) throws IOException, InterruptedException {
 
         for (LogMapper<KEYOUT, VALUEOUT> mapper : mappers) {
+            ChildCost cost = mapper.getCost();
+            if (cost == null) {
+                mapper.map0(log, value, mapper.getWrappedContext());
+                continue;
+            }
+            cost.start();
             mapper.map0(log, value, mapper.getWrappedContext());
+            cost.stop();
         }
     }
 
@@ -132,8 +172,27 @@ public class ContainerLogMapper<KEYOUT, VALUEOUT> extends LogMapper<KEYOUT, VALU
      */
     @Override
     protected void cleanup(Context context) throws IOException, InterruptedException {
+        ChildOutputs hotKeyOutputs = null;
+        ChildOutputs.Output<Text, LongWritable> candidates = null;
         for (LogMapper<KEYOUT, VALUEOUT> mapper : mappers) {
             mapper.cleanup(mapper.getWrappedContext());
+            if (mapper.getCost() != null) {
+                mapper.getCost().publish(context);
+            }
+            if (mapper.getSalter() != null) {
+                if (hotKeyOutputs == null && context.getConfiguration().get(Jobs.JOB_SALT_KEYS_DIR) != null) {
+                    // 检测到的热点key只在需要保存时写入，见HotKeyStore
+                    hotKeyOutputs = new ChildOutputs(context);
+                    candidates = KeySalter.createCandidates(hotKeyOutputs);
+                }
+                mapper.getSalter().publish(context, candidates);
+            }
+        }
+        if (hotKeyOutputs != null) {
+            hotKeyOutputs.close();
+        }
+        if (this.childOutputs != null) {
+            this.childOutputs.close();
         }
         // 容器类不应该有自己的业务逻辑，建议不实现。
         cleanup0(this.context);
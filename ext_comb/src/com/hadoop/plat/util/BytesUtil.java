@@ -0,0 +1,123 @@
+package com.hadoop.plat.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * 直接基于UTF-8字节的常见处理工具，避免解码为String。
+ *
+ *
+ *
+ */
+public class BytesUtil {
+
+    /** UTF-8 */
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** parseInt 解析失败时的返回值 */
+    public static final long NOT_INT = Long.MIN_VALUE;
+
+    /**
+     * 获取字符串的UTF-8字节。
+     *
+     * @param value
+     * @return
+     */
+    public static byte[] toBytes(String value) {
+        if (value == null) {
+            return null;
+        }
+        return value.getBytes(UTF8);
+    }
+
+    /**
+     * 在[start, end)范围内查找分隔符第一次出现的位置。
+     *
+     * @param bytes
+     * @param start
+     * @param end
+     * @param separator
+     * @return 找不到时返回-1
+     */
+    public static int indexOf(byte[] bytes, int start, int end, byte[] separator) {
+        int slen = separator.length;
+        if (slen == 0) {
+            return start;
+        }
+        byte first = separator[0];
+        int max = end - slen;
+        for (int i = start; i <= max; i++) {
+            if (bytes[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < slen && bytes[i + j] == separator[j]) {
+                j++;
+            }
+            if (j == slen) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 按照Integer.parseInt的规则解析[start, end)范围内的整数。
+     *
+     * @param bytes
+     * @param start
+     * @param end
+     * @return 非法格式或者越界时返回NOT_INT
+     */
+    public static long parseInt(byte[] bytes, int start, int end) {
+        if (start >= end) {
+            return NOT_INT;
+        }
+        boolean negative = false;
+        int i = start;
+        byte first = bytes[i];
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++i == end) {
+                return NOT_INT;
+            }
+        }
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_INT;
+            }
+            result = result * 10 + digit;
+            if (result > Integer.MAX_VALUE + 1L) {
+                return NOT_INT;
+            }
+        }
+        if (negative) {
+            return -result;
+        }
+        return result > Integer.MAX_VALUE ? NOT_INT : result;
+    }
+
+    /**
+     * 比较两段字节内容是否一致。
+     *
+     * @param a
+     * @param aStart
+     * @param aLength
+     * @param b
+     * @param bStart
+     * @param bLength
+     * @return
+     */
+    public static boolean equals(byte[] a, int aStart, int aLength, byte[] b, int bStart, int bLength) {
+        if (aLength != bLength) {
+            return false;
+        }
+        for (int i = 0; i < aLength; i++) {
+            if (a[aStart + i] != b[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}